@@ -0,0 +1,73 @@
+package com.gmail.at.kevinburnseit.bench;
+
+/**
+ * A piece of code to be timed by {@link BenchmarkRunner}. Each benchmark takes one
+ * parameter, such as the number of entries in a list, and is run once for each
+ * value of it.
+ * @author Kevin J. Burns
+ *
+ */
+public abstract class Benchmark {
+	private final String name;
+	private final String parameterName;
+	private final int[] parameterValues;
+
+	/**
+	 * Constructor.
+	 * @param name Name of the benchmark, as shown in the results
+	 * @param parameterName Name of the parameter, as shown in the results
+	 * @param parameterValues Values of the parameter to run the benchmark with
+	 */
+	protected Benchmark(String name, String parameterName, int... parameterValues) {
+		this.name = name;
+		this.parameterName = parameterName;
+		this.parameterValues = parameterValues.clone();
+	}
+
+	/**
+	 * Gets the name of this benchmark.
+	 * @return the name
+	 */
+	public final String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Gets the name of the parameter of this benchmark.
+	 * @return the parameter name
+	 */
+	public final String getParameterName() {
+		return this.parameterName;
+	}
+
+	/**
+	 * Gets the values of the parameter that this benchmark is run with.
+	 * @return A new array of the values
+	 */
+	public final int[] getParameterValues() {
+		return this.parameterValues.clone();
+	}
+
+	/**
+	 * Prepares to run this benchmark. This isn't timed.
+	 * @param parameter The value of the parameter for the runs which follow
+	 * @throws Exception if anything goes wrong
+	 */
+	protected abstract void setUp(int parameter) throws Exception;
+
+	/**
+	 * Runs the code being timed once.
+	 * @return Anything which depends on the work done, so that the work can't be
+	 * optimized away
+	 * @throws Exception if anything goes wrong
+	 */
+	protected abstract Object run() throws Exception;
+
+	/**
+	 * Cleans up after the runs for one value of the parameter. This isn't timed.
+	 * @throws Exception if anything goes wrong
+	 */
+	protected void tearDown() throws Exception {
+		// nothing by default
+	}
+}
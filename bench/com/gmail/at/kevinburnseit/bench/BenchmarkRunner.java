@@ -0,0 +1,127 @@
+package com.gmail.at.kevinburnseit.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.gmail.at.kevinburnseit.organizer.OrganizerBenchmarks;
+import com.gmail.at.kevinburnseit.swing.calendar.CalendarViewBenchmarks;
+
+/**
+ * Runs the benchmarks for the calendar's hot paths and prints the average time per
+ * operation for each value of each benchmark's parameter. Each measurement is
+ * preceded by a warm-up, so that the code being timed has been compiled.
+ * <p>
+ * Arguments, all optional: the text that benchmark names must contain to be run,
+ * followed by <code>-p value,value,...</code> to replace the parameter values.
+ * Run with <code>-Djava.awt.headless=true</code> so that the view benchmarks don't
+ * need a display.
+ * @author Kevin J. Burns
+ *
+ */
+public final class BenchmarkRunner {
+	private static final long warmupNanos = 1000000000L;
+	private static final long iterationNanos = 1000000000L;
+	private static final int iterations = 5;
+
+	/*
+	 * Results are folded into this so that the work can't be optimized away.
+	 */
+	private static volatile int sink;
+
+	private BenchmarkRunner() {
+		// static methods only
+	}
+
+	public static void main(String[] args) throws Exception {
+		String filter = "";
+		int[] parameterValues = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-p") && (i + 1 < args.length)) {
+				String[] values = args[++i].split(",");
+				parameterValues = new int[values.length];
+				for (int j = 0; j < values.length; j++) {
+					parameterValues[j] = Integer.parseInt(values[j].trim());
+				}
+			}
+			else {
+				filter = args[i];
+			}
+		}
+
+		List<Benchmark> benchmarks = new ArrayList<>();
+		benchmarks.addAll(OrganizerBenchmarks.getAll());
+		benchmarks.addAll(CalendarViewBenchmarks.getAll());
+
+		System.out.printf("%-48s %16s %14s %14s%n",
+				"Benchmark", "Parameter", "ns/op", "error");
+		for (Benchmark b : benchmarks) {
+			if (!b.getName().contains(filter)) continue;
+
+			int[] values = (parameterValues != null) ?
+					parameterValues : b.getParameterValues();
+			for (int value : values) {
+				b.setUp(value);
+				try {
+					double[] results = measure(b);
+					System.out.printf("%-48s %16s %14.1f %14.1f%n", b.getName(),
+							b.getParameterName() + "=" + value,
+							mean(results), error(results));
+				} finally {
+					b.tearDown();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Times a benchmark which has been set up.
+	 * @return The average nanoseconds per operation in each timed iteration
+	 */
+	private static double[] measure(Benchmark b) throws Exception {
+		runFor(b, warmupNanos);
+
+		double[] ret = new double[iterations];
+		for (int i = 0; i < iterations; i++) {
+			ret[i] = runFor(b, iterationNanos);
+		}
+		return ret;
+	}
+
+	/**
+	 * Runs a benchmark repeatedly for about the given time.
+	 * @return The average nanoseconds per operation
+	 */
+	private static double runFor(Benchmark b, long nanos) throws Exception {
+		long ops = 0;
+		int hash = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			// check the clock in batches, as reading it isn't free
+			for (int i = 0; i < 16; i++) {
+				Object result = b.run();
+				if (result != null) hash += result.hashCode();
+			}
+			ops += 16;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < nanos);
+
+		sink += hash;
+		return (double)elapsed / ops;
+	}
+
+	private static double mean(double[] values) {
+		return Arrays.stream(values).average().orElse(0);
+	}
+
+	/**
+	 * Half the spread of the iterations, as a rough idea of how far the mean can
+	 * be trusted.
+	 */
+	private static double error(double[] values) {
+		double min = Arrays.stream(values).min().orElse(0);
+		double max = Arrays.stream(values).max().orElse(0);
+		return (max - min) / 2;
+	}
+}
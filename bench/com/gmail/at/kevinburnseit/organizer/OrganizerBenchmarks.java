@@ -0,0 +1,299 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+import com.gmail.at.kevinburnseit.bench.Benchmark;
+
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.Uid;
+
+/**
+ * Benchmarks for the organizer's data: holidays, days off, the work schedule and
+ * the appointment lists. These live in the organizer package so that they can
+ * reach {@link WorkCalendar}, which {@link Organizer#isAtWorkOn(GregorianCalendar)}
+ * reads from.
+ * @author Kevin J. Burns
+ *
+ */
+public final class OrganizerBenchmarks {
+	private static final int[] ruleCounts = {1, 10, 100};
+	private static final int[] entryCounts = {100, 1000, 10000};
+
+	private OrganizerBenchmarks() {
+		// static methods only
+	}
+
+	/**
+	 * Gets all of the benchmarks in this class.
+	 * @return A new list of the benchmarks
+	 */
+	public static List<Benchmark> getAll() {
+		List<Benchmark> ret = new ArrayList<>();
+		ret.add(new IsHoliday("HolidayRuleCollection.isHoliday", false));
+		ret.add(new IsHoliday("HolidayRuleCollection.isHoliday cold", true));
+		ret.add(new DaysOffContains());
+		ret.add(new IsAtWorkOn());
+		ret.add(new LoadAppointments());
+		ret.add(new LoadSnapshot());
+		ret.add(new SaveAppointments());
+		ret.add(new MergeAppointments());
+		return ret;
+	}
+
+	/**
+	 * Ten years of dates, for lookups to walk through.
+	 */
+	private static GregorianCalendar[] makeDates() {
+		GregorianCalendar[] ret = new GregorianCalendar[3653];
+		GregorianCalendar date = new GregorianCalendar(2020, Calendar.JANUARY, 1);
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = (GregorianCalendar)date.clone();
+			date.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		return ret;
+	}
+
+	private static HolidayRuleCollection makeHolidays(int count) {
+		HolidayRuleCollection ret = new HolidayRuleCollection();
+		for (int i = 0; i < count; i++) {
+			if (i % 2 == 0) {
+				HolidayRuleFixedDay rule = new HolidayRuleFixedDay();
+				rule.setName("Fixed " + i);
+				rule.setMonth(i % 12);
+				rule.setDay(i % 28 + 1);
+				rule.setAlwaysObservedOnWeekday(true);
+				ret.add(rule);
+			}
+			else {
+				HolidayRuleNthDay rule = new HolidayRuleNthDay();
+				rule.setName("Nth " + i);
+				rule.setMonth(i % 12);
+				rule.setDayOfWeek(i % 5);
+				rule.setWhichOccurence(i % 4 + 1);
+				ret.add(rule);
+			}
+		}
+		return ret;
+	}
+
+	private static AppointmentList makeAppointments(int count) {
+		AppointmentList ret = new AppointmentList();
+		ret.merge(makeIcsCalendar(count), true);
+		return ret;
+	}
+
+	private static net.fortuna.ical4j.model.Calendar makeIcsCalendar(int count) {
+		net.fortuna.ical4j.model.Calendar ret = new net.fortuna.ical4j.model.Calendar();
+		Random random = new Random(count);
+		long base = new GregorianCalendar(2020, Calendar.JANUARY, 1).getTimeInMillis();
+		for (int i = 0; i < count; i++) {
+			long start = base + random.nextInt(3650 * 24) * 3600000L;
+			long end = start + (random.nextInt(4) + 1) * 1800000L;
+			VEvent ve = new VEvent(new DateTime(start), new DateTime(end),
+					"Appointment " + i);
+			ve.getProperties().add(new Uid("bench-" + i));
+			ret.getComponents().add(ve);
+		}
+		return ret;
+	}
+
+	private static final class IsHoliday extends Benchmark {
+		private final boolean cold;
+		private final GregorianCalendar[] dates = makeDates();
+		private HolidayRuleCollection holidays;
+		private int next = 0;
+
+		/**
+		 * @param cold <code>true</code> to throw away the observed dates before
+		 * each lookup, so that the cost of working them out is included
+		 */
+		private IsHoliday(String name, boolean cold) {
+			super(name, "rules", ruleCounts);
+			this.cold = cold;
+		}
+
+		@Override
+		protected void setUp(int parameter) {
+			this.holidays = makeHolidays(parameter);
+		}
+
+		@Override
+		protected Object run() {
+			if (this.cold) this.holidays.invalidateObservedDates();
+			this.next = (this.next + 1) % this.dates.length;
+			return this.holidays.isHoliday(this.dates[this.next]);
+		}
+	}
+
+	private static final class DaysOffContains extends Benchmark {
+		private final GregorianCalendar[] dates = makeDates();
+		private DateRecord[] probes;
+		private DaysOffList daysOff;
+		private int next = 0;
+
+		private DaysOffContains() {
+			super("DaysOffList.contains", "entries", entryCounts);
+		}
+
+		@Override
+		protected void setUp(int parameter) {
+			Random random = new Random(parameter);
+			this.daysOff = new DaysOffList();
+			for (int i = 0; i < parameter; i++) {
+				GregorianCalendar date = this.dates[random.nextInt(this.dates.length)];
+				this.daysOff.add(new DateRecord(date.getTime()));
+			}
+
+			this.probes = new DateRecord[this.dates.length];
+			for (int i = 0; i < this.dates.length; i++) {
+				this.probes[i] = new DateRecord(this.dates[i].getTime());
+			}
+		}
+
+		@Override
+		protected Object run() {
+			this.next = (this.next + 1) % this.probes.length;
+			return this.daysOff.contains(this.probes[this.next]);
+		}
+	}
+
+	private static final class IsAtWorkOn extends Benchmark {
+		private final GregorianCalendar[] dates = makeDates();
+		private WorkCalendar workCalendar;
+		private int next = 0;
+
+		private IsAtWorkOn() {
+			super("Organizer.isAtWorkOn", "rules", ruleCounts);
+		}
+
+		@Override
+		protected void setUp(int parameter) {
+			StandardWorkWeek week = new StandardWorkWeek();
+			for (DayEnum day : DayEnum.values()) {
+				StandardWorkDay workDay = new StandardWorkDay(day);
+				workDay.setWorkingToday(day.ordinal() < 5);
+				week.put(day, workDay);
+			}
+
+			DaysOffList daysOff = new DaysOffList();
+			for (int i = 0; i < this.dates.length; i += 37) {
+				daysOff.add(new DateRecord(this.dates[i].getTime()));
+			}
+
+			this.workCalendar =
+					new WorkCalendar(week, daysOff, makeHolidays(parameter));
+		}
+
+		@Override
+		protected Object run() {
+			this.next = (this.next + 1) % this.dates.length;
+			return this.workCalendar.isAtWorkOn(this.dates[this.next]);
+		}
+	}
+
+	private static final class LoadAppointments extends Benchmark {
+		private File file;
+
+		private LoadAppointments() {
+			super("AppointmentList(String)", "entries", entryCounts);
+		}
+
+		@Override
+		protected void setUp(int parameter) throws Exception {
+			this.file = File.createTempFile("bench-appointments", ".xml");
+			makeAppointments(parameter).saveToXml(this.file.getAbsolutePath());
+		}
+
+		@Override
+		protected Object run() throws Exception {
+			return new AppointmentList(this.file.getAbsolutePath()).size();
+		}
+
+		@Override
+		protected void tearDown() {
+			this.file.delete();
+		}
+	}
+
+	private static final class LoadSnapshot extends Benchmark {
+		private File file;
+
+		private LoadSnapshot() {
+			super("AppointmentList.fromSnapshot", "entries", entryCounts);
+		}
+
+		@Override
+		protected void setUp(int parameter) throws Exception {
+			this.file = File.createTempFile("bench-appointments", ".appointments");
+			makeAppointments(parameter).saveSnapshot(this.file.getAbsolutePath());
+		}
+
+		@Override
+		protected Object run() throws Exception {
+			return AppointmentList.fromSnapshot(this.file.getAbsolutePath()).size();
+		}
+
+		@Override
+		protected void tearDown() {
+			this.file.delete();
+		}
+	}
+
+	private static final class SaveAppointments extends Benchmark {
+		private File file;
+		private AppointmentList appointments;
+
+		private SaveAppointments() {
+			super("AppointmentList.saveToXml", "entries", entryCounts);
+		}
+
+		@Override
+		protected void setUp(int parameter) throws Exception {
+			this.file = File.createTempFile("bench-appointments", ".xml");
+			this.appointments = makeAppointments(parameter);
+		}
+
+		@Override
+		protected Object run() throws Exception {
+			this.appointments.saveToXml(this.file.getAbsolutePath());
+			return this.file.length();
+		}
+
+		@Override
+		protected void tearDown() {
+			this.file.delete();
+		}
+	}
+
+	/**
+	 * Merges a downloaded calendar into a list which already holds all of its
+	 * events, as happens on every refresh.
+	 */
+	private static final class MergeAppointments extends Benchmark {
+		private net.fortuna.ical4j.model.Calendar ics;
+		private AppointmentList appointments;
+
+		private MergeAppointments() {
+			super("AppointmentList.merge", "entries", entryCounts);
+		}
+
+		@Override
+		protected void setUp(int parameter) {
+			this.ics = makeIcsCalendar(parameter);
+			this.appointments = new AppointmentList();
+			this.appointments.merge(this.ics, true);
+		}
+
+		@Override
+		protected Object run() {
+			this.appointments.merge(this.ics, true);
+			return this.appointments.size();
+		}
+	}
+}
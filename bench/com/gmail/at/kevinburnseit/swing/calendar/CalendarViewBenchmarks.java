@@ -0,0 +1,122 @@
+package com.gmail.at.kevinburnseit.swing.calendar;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.SwingUtilities;
+
+import com.gmail.at.kevinburnseit.bench.Benchmark;
+
+/**
+ * Benchmarks for the calendar views. These need no display when run with a
+ * headless toolkit, as the views are never shown; they are only sized and laid
+ * out.
+ * @author Kevin J. Burns
+ *
+ */
+public final class CalendarViewBenchmarks {
+	private static final int[] entryCounts = {10, 100, 1000};
+
+	private CalendarViewBenchmarks() {
+		// static methods only
+	}
+
+	/**
+	 * Gets all of the benchmarks in this class.
+	 * @return A new list of the benchmarks
+	 */
+	public static List<Benchmark> getAll() {
+		List<Benchmark> ret = new ArrayList<>();
+		ret.add(new WeeklyRefresh(CalendarViewWeekly.EntryRenderingEnum.PAINTED));
+		ret.add(new WeeklyRefresh(CalendarViewWeekly.EntryRenderingEnum.COMPONENTS));
+		return ret;
+	}
+
+	private static final class BenchmarkEntry extends CalendarEntry {
+		// nothing more is needed
+	}
+
+	/**
+	 * Refreshes the weekly view and waits until the new layout has been shown, so
+	 * that the time covers the query, the layout thread and the event dispatch
+	 * thread.
+	 */
+	private static final class WeeklyRefresh extends Benchmark {
+		private final CalendarViewWeekly.EntryRenderingEnum rendering;
+		private CalendarViewWeekly view;
+		private final Runnable refresh = new Runnable() {
+			@Override
+			public void run() {
+				view.refreshAllEntries();
+			}
+		};
+		private boolean pending;
+		private final Runnable checkPending = new Runnable() {
+			@Override
+			public void run() {
+				pending = view.isLayoutPending();
+			}
+		};
+
+		private WeeklyRefresh(CalendarViewWeekly.EntryRenderingEnum rendering) {
+			super("CalendarViewWeekly.refreshEntries " +
+					rendering.name().toLowerCase(), "entries", entryCounts);
+			this.rendering = rendering;
+		}
+
+		@Override
+		protected void setUp(final int parameter) throws Exception {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					CalendarWidget widget = new CalendarWidget();
+					view = widget.getDefaultWeeklyView();
+					view.setEntryRendering(rendering);
+
+					CalendarEntryProvider<CalendarEntry> provider =
+							new CalendarEntryProvider<>();
+					GregorianCalendar start =
+							(GregorianCalendar)view.startOfVisibleRange.clone();
+					start.set(Calendar.HOUR_OF_DAY, 8);
+					Random random = new Random(parameter);
+					provider.beginUpdate();
+					for (int i = 0; i < parameter; i++) {
+						long s = start.getTimeInMillis() +
+								random.nextInt(7) * 86400000L +
+								random.nextInt(20) * 1800000L;
+						BenchmarkEntry e = new BenchmarkEntry();
+						e.setTitle("Entry " + i);
+						e.setTimes(s, s + (random.nextInt(4) + 1) * 1800000L);
+						provider.add(e);
+					}
+					provider.endUpdate();
+					widget.addCalendarEntryProvider(provider);
+
+					view.setSize(1200, 800);
+					layOutTree(view);
+				}
+			});
+		}
+
+		@Override
+		protected Object run() throws Exception {
+			SwingUtilities.invokeAndWait(this.refresh);
+			do {
+				SwingUtilities.invokeAndWait(this.checkPending);
+			} while (this.pending);
+			return this.view.getComponentCount();
+		}
+
+		private static void layOutTree(java.awt.Container c) {
+			c.doLayout();
+			for (java.awt.Component child : c.getComponents()) {
+				if (child instanceof java.awt.Container) {
+					layOutTree((java.awt.Container)child);
+				}
+			}
+		}
+	}
+}
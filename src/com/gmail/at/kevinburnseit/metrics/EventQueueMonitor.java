@@ -0,0 +1,71 @@
+package com.gmail.at.kevinburnseit.metrics;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+
+/**
+ * Times every event handled on the event dispatch thread, so that the time it
+ * spends busy, and the longest it has been unable to respond, can be seen in the
+ * "edt" histogram.
+ * <p>
+ * An event whose handler shows a modal dialog doesn't return until the dialog
+ * closes, but the dialog keeps dispatching events in the meantime, so the thread
+ * isn't blocked. The time an event spends waiting for and dispatching nested
+ * events is therefore left out of its own time; the nested events are timed in
+ * their own right.
+ * @author Kevin J. Burns
+ *
+ */
+public final class EventQueueMonitor extends EventQueue {
+	private final LatencyHistogram histogram = Metrics.histogram("edt", "dispatch");
+	/*
+	 * Only used on the event dispatch thread. The number of dispatches in progress,
+	 * and the time spent in nested event loops by the innermost one so far.
+	 */
+	private int depth = 0;
+	private long nestedNanos = 0;
+
+	private EventQueueMonitor() {
+	}
+
+	/**
+	 * Starts timing the events of the system event queue. This should be called
+	 * once, before any windows are shown.
+	 */
+	public static void install() {
+		Toolkit.getDefaultToolkit().getSystemEventQueue().push(new EventQueueMonitor());
+	}
+
+	@Override
+	protected void dispatchEvent(AWTEvent event) {
+		long start = System.nanoTime();
+		long outerNestedNanos = this.nestedNanos;
+		this.nestedNanos = 0;
+		this.depth++;
+		try {
+			super.dispatchEvent(event);
+		} finally {
+			this.depth--;
+			long elapsed = System.nanoTime() - start;
+			this.histogram.record(elapsed - this.nestedNanos);
+			// all of this event's time was nested in the one that dispatched it
+			this.nestedNanos = (this.depth > 0) ? outerNestedNanos + elapsed : 0;
+		}
+	}
+
+	@Override
+	public AWTEvent getNextEvent() throws InterruptedException {
+		if (!EventQueue.isDispatchThread() || (this.depth == 0)) {
+			return super.getNextEvent();
+		}
+
+		// a nested event loop is waiting while an event is still being dispatched
+		long start = System.nanoTime();
+		try {
+			return super.getNextEvent();
+		} finally {
+			this.nestedNanos += System.nanoTime() - start;
+		}
+	}
+}
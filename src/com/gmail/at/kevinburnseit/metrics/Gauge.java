@@ -0,0 +1,27 @@
+package com.gmail.at.kevinburnseit.metrics;
+
+/**
+ * A single value which is set from time to time, such as the number of entries in
+ * a calendar.
+ * @author Kevin J. Burns
+ *
+ */
+public final class Gauge implements GaugeMXBean {
+	private volatile long value = 0;
+
+	Gauge() {
+	}
+
+	/**
+	 * Sets the value of this gauge.
+	 * @param value the value to set
+	 */
+	public void set(long value) {
+		this.value = value;
+	}
+
+	@Override
+	public long getValue() {
+		return this.value;
+	}
+}
@@ -0,0 +1,13 @@
+package com.gmail.at.kevinburnseit.metrics;
+
+/**
+ * Management interface of a {@link Gauge}, as shown by JMX consoles.
+ * @author Kevin J. Burns
+ *
+ */
+public interface GaugeMXBean {
+	/**
+	 * @return the value last set
+	 */
+	long getValue();
+}
@@ -0,0 +1,164 @@
+package com.gmail.at.kevinburnseit.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long something takes, in buckets whose width grows with the time, so
+ * that percentiles can be read back to within about 6% without keeping every
+ * time. Recording a time takes no locks and allocates nothing, so histograms can
+ * be left in place on busy paths, including the event dispatch thread.
+ * @author Kevin J. Burns
+ *
+ */
+public final class LatencyHistogram implements LatencyHistogramMXBean {
+	/*
+	 * Times below 2^subBucketBits nanoseconds each have a bucket of their own.
+	 * Above that, each power of two is split into 2^subBucketBits buckets.
+	 */
+	private static final int subBucketBits = 4;
+	private static final int subBuckets = 1 << subBucketBits;
+	private static final int bucketCount = subBuckets + (63 - subBucketBits) * subBuckets;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	LatencyHistogram() {
+	}
+
+	/**
+	 * Records how long something took.
+	 * @param nanos The time taken, in nanoseconds. Negative times are counted as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		this.buckets.incrementAndGet(bucketOf(nanos));
+		this.count.increment();
+		this.totalNanos.add(nanos);
+
+		long max = this.maxNanos.get();
+		while ((nanos > max) && !this.maxNanos.compareAndSet(max, nanos)) {
+			max = this.maxNanos.get();
+		}
+	}
+
+	/**
+	 * Records how long something has taken so far.
+	 * @param startNanos The value of {@link System#nanoTime()} when it started
+	 */
+	public void recordSince(long startNanos) {
+		this.record(System.nanoTime() - startNanos);
+	}
+
+	private static int bucketOf(long nanos) {
+		if (nanos < subBuckets) return (int)nanos;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int)(nanos >>> (exponent - subBucketBits)) & (subBuckets - 1);
+		return subBuckets + (exponent - subBucketBits) * subBuckets + sub;
+	}
+
+	/**
+	 * @return The smallest time which falls into a bucket
+	 */
+	private static long lowestIn(int bucket) {
+		if (bucket < subBuckets) return bucket;
+
+		int exponent = (bucket - subBuckets) / subBuckets + subBucketBits;
+		int sub = (bucket - subBuckets) % subBuckets;
+		return (long)(subBuckets + sub) << (exponent - subBucketBits);
+	}
+
+	/**
+	 * Finds the time which a given fraction of the recorded times were no longer
+	 * than. Times recorded while this runs may or may not be included.
+	 * @param fraction fraction of the times, from 0 to 1
+	 * @return The time, in milliseconds, or 0 if nothing has been recorded
+	 */
+	public double getPercentileMillis(double fraction) {
+		long[] counts = new long[bucketCount];
+		long total = 0;
+		for (int i = 0; i < bucketCount; i++) {
+			counts[i] = this.buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) return 0;
+
+		long wanted = Math.max(1, (long)Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < bucketCount; i++) {
+			seen += counts[i];
+			if (seen >= wanted) {
+				// the middle of the bucket, but never more than the longest time
+				long low = lowestIn(i);
+				long high = (i + 1 < bucketCount) ? lowestIn(i + 1) : Long.MAX_VALUE;
+				long nanos = Math.min(low + (high - low) / 2, this.maxNanos.get());
+				return toMillis(nanos);
+			}
+		}
+		return toMillis(this.maxNanos.get());
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1000000.0;
+	}
+
+	@Override
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	@Override
+	public double getTotalMillis() {
+		return toMillis(this.totalNanos.sum());
+	}
+
+	@Override
+	public double getMeanMillis() {
+		long n = this.count.sum();
+		if (n == 0) return 0;
+		return toMillis(this.totalNanos.sum()) / n;
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return toMillis(this.maxNanos.get());
+	}
+
+	@Override
+	public double get50thPercentileMillis() {
+		return this.getPercentileMillis(0.5);
+	}
+
+	@Override
+	public double get90thPercentileMillis() {
+		return this.getPercentileMillis(0.9);
+	}
+
+	@Override
+	public double get99thPercentileMillis() {
+		return this.getPercentileMillis(0.99);
+	}
+
+	@Override
+	public double get999thPercentileMillis() {
+		return this.getPercentileMillis(0.999);
+	}
+
+	/**
+	 * Forgets all of the times recorded so far. Times recorded while this runs may
+	 * be partly forgotten.
+	 */
+	@Override
+	public void reset() {
+		for (int i = 0; i < bucketCount; i++) {
+			this.buckets.set(i, 0);
+		}
+		this.count.reset();
+		this.totalNanos.reset();
+		this.maxNanos.set(0);
+	}
+}
@@ -0,0 +1,54 @@
+package com.gmail.at.kevinburnseit.metrics;
+
+/**
+ * Management interface of a {@link LatencyHistogram}, as shown by JMX consoles.
+ * All times are in milliseconds.
+ * @author Kevin J. Burns
+ *
+ */
+public interface LatencyHistogramMXBean {
+	/**
+	 * @return the number of times recorded since the last reset
+	 */
+	long getCount();
+
+	/**
+	 * @return the sum of the times recorded since the last reset
+	 */
+	double getTotalMillis();
+
+	/**
+	 * @return the average of the times recorded since the last reset
+	 */
+	double getMeanMillis();
+
+	/**
+	 * @return the longest time recorded since the last reset
+	 */
+	double getMaxMillis();
+
+	/**
+	 * @return the median time
+	 */
+	double get50thPercentileMillis();
+
+	/**
+	 * @return the time which 90% of those recorded were no longer than
+	 */
+	double get90thPercentileMillis();
+
+	/**
+	 * @return the time which 99% of those recorded were no longer than
+	 */
+	double get99thPercentileMillis();
+
+	/**
+	 * @return the time which 99.9% of those recorded were no longer than
+	 */
+	double get999thPercentileMillis();
+
+	/**
+	 * Forgets all of the times recorded so far.
+	 */
+	void reset();
+}
@@ -0,0 +1,89 @@
+package com.gmail.at.kevinburnseit.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps the application's histograms and gauges, and makes each of them visible
+ * over JMX as soon as it is first asked for, under
+ * <code>com.gmail.at.kevinburnseit:type=&lt;type&gt;,name=&lt;name&gt;</code>.
+ * Asking for the same type and name again gives back the same object, so callers
+ * needn't hold on to them. Everything here may be used from any thread.
+ * @author Kevin J. Burns
+ *
+ */
+public final class Metrics {
+	private static final String domain = "com.gmail.at.kevinburnseit";
+
+	private static final ConcurrentHashMap<String, LatencyHistogram> histograms =
+			new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, Gauge> gauges =
+			new ConcurrentHashMap<>();
+
+	private Metrics() {
+		// static methods only
+	}
+
+	/**
+	 * Gets a histogram of how long something takes, creating it if need be.
+	 * @param type what is being timed, such as "download". This must be usable as is
+	 * in an {@link ObjectName}.
+	 * @param name which one of them, such as the uid of a calendar
+	 * @return the histogram
+	 */
+	public static LatencyHistogram histogram(String type, String name) {
+		return histograms.computeIfAbsent(getKey(type, name),
+				new Function<String, LatencyHistogram>() {
+			@Override
+			public LatencyHistogram apply(String key) {
+				LatencyHistogram ret = new LatencyHistogram();
+				register(type, name, ret);
+				return ret;
+			}
+		});
+	}
+
+	/**
+	 * Gets a gauge, creating it if need be.
+	 * @param type what is being measured, such as "entries". This must be usable as
+	 * is in an {@link ObjectName}.
+	 * @param name which one of them, such as the uid of a calendar
+	 * @return the gauge
+	 */
+	public static Gauge gauge(String type, String name) {
+		return gauges.computeIfAbsent(getKey(type, name),
+				new Function<String, Gauge>() {
+			@Override
+			public Gauge apply(String key) {
+				Gauge ret = new Gauge();
+				register(type, name, ret);
+				return ret;
+			}
+		});
+	}
+
+	private static String getKey(String type, String name) {
+		return type + '\u0000' + name;
+	}
+
+	private static void register(String type, String name, Object mbean) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName on = new ObjectName(domain + ":type=" + type +
+					",name=" + ObjectName.quote(name));
+			if (!server.isRegistered(on)) {
+				server.registerMBean(mbean, on);
+			}
+		} catch (JMException e) {
+			/*
+			 * The metric still works; it just can't be seen from outside.
+			 */
+			e.printStackTrace();
+		}
+	}
+}
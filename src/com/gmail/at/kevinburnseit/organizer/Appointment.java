@@ -4,20 +4,28 @@ import java.awt.Color;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.GregorianCalendar;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.w3c.dom.Element;
 
 import com.gmail.at.kevinburnseit.swing.calendar.CalendarEntry;
 import com.gmail.at.kevinburnseit.swing.calendar.CalendarHelper;
 import com.gmail.at.kevinburnseit.xml.FileFormatException;
+import com.gmail.at.kevinburnseit.xml.InvalidAttributeException;
 import com.gmail.at.kevinburnseit.xml.NumericParseException;
+import com.gmail.at.kevinburnseit.xml.XmlAttributeReader;
 import com.gmail.at.kevinburnseit.xml.XmlElementReader;
 import com.gmail.at.kevinburnseit.xml.XmlElementWriter;
+import com.gmail.at.kevinburnseit.xml.XmlStreamElementWriter;
 
+import net.fortuna.ical4j.model.Property;
 import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.ExDate;
+import net.fortuna.ical4j.model.property.RRule;
+import net.fortuna.ical4j.model.property.RecurrenceId;
 
 public class Appointment extends CalendarEntry
 		implements OrganizerEntry {
@@ -29,17 +37,18 @@ public class Appointment extends CalendarEntry
 	public class TravelTimeEntry extends CalendarEntry 
 			implements OrganizerEntry {
 		private BeforeAfterEnum when;
+		/*
+		 * The appointment, or the occurrence of it, that this is travel for
+		 */
+		private final CalendarEntry anchor;
 		public TravelTimeEntry(BeforeAfterEnum when) {
+			this(when, Appointment.this);
+		}
+		private TravelTimeEntry(BeforeAfterEnum when, CalendarEntry anchor) {
 			this.when = when;
+			this.anchor = anchor;
 			
-			String title = "Travel ";
-			title += (this.when == BeforeAfterEnum.BEFORE) ? "to" : "from";
-			title += " ";
-			title += CalendarHelper.militaryTimeFormatter.format(
-					Appointment.this.meetingStartTime);
-			title += " appointment";
-			
-			this.setTitle(title);
+			this.setTitle(getTravelTitle(when, anchor.getStartMillis()));
 			this.update();
 		}
 		@Override
@@ -52,34 +61,57 @@ public class Appointment extends CalendarEntry
 		}
 		void update() {
 			if (this.when == BeforeAfterEnum.BEFORE) {
-				GregorianCalendar end = getGC(meetingStartTime);
-				this.setEndTime(end);
-				
-				GregorianCalendar begin = new GregorianCalendar();
-				begin.setTime(end.getTime());
-				begin.add(Calendar.SECOND, travelTimeBefore);
-				this.setStartTime(begin);
+				long end = this.anchor.getStartMillis();
+				this.setTimes(end - travelTimeBefore * 1000L, end);
 			}
 			if (this.when == BeforeAfterEnum.AFTER) {
-				GregorianCalendar begin = getGC(meetingEndTime);
-				this.setStartTime(begin);
-				
-				GregorianCalendar end = new GregorianCalendar();
-				end.setTime(begin.getTime());
-				end.add(Calendar.SECOND, travelTimeAfter);
-				this.setEndTime(end);
+				long begin = this.anchor.getEndMillis();
+				this.setTimes(begin, begin + travelTimeAfter * 1000L);
 			}
 		}
 		public Appointment getLinkedAppointment() {
 			return Appointment.this;
 		}
 	}
-	private static final SimpleDateFormat dateFormatter = new SimpleDateFormat();
+	
+	/**
+	 * One occurrence of a recurring appointment, other than the first. Occurrences
+	 * are made when a range of time is asked about and are not kept; they take
+	 * everything but their times from the appointment.
+	 * @author Kevin J. Burns
+	 *
+	 */
+	public class Occurrence extends CalendarEntry implements OrganizerEntry {
+		private Occurrence(long start) {
+			this.setTitle(Appointment.this.getTitle());
+			this.setTimes(start, start + Appointment.this.getDurationMillis());
+		}
+		@Override
+		public Color getColor() {
+			return Appointment.this.getColor();
+		}
+		@Override
+		public boolean shouldBeSaved() {
+			return false;
+		}
+		public Appointment getLinkedAppointment() {
+			return Appointment.this;
+		}
+	}
+	/*
+	 * SimpleDateFormat isn't thread-safe, and calendars are read from xml on
+	 * several threads at once, so each thread has its own.
+	 */
+	private static final ThreadLocal<SimpleDateFormat> dateFormatter = 
+			new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat();
+		}
+	};
 	public static final String xmlTag = "appointment";
 	
 	private String uid;
-	private Date meetingStartTime;
-	private Date meetingEndTime;
 	private int travelTimeBefore = 0;
 	private int travelTimeAfter = 0;
 	private int prepTime = 0;
@@ -87,51 +119,131 @@ public class Appointment extends CalendarEntry
 	private boolean ignored = false;
 	private TravelTimeEntry travelBefore = null;
 	private TravelTimeEntry travelAfter = null;
+	private Recurrence recurrence = null;
 
 	public Appointment(VEvent ics) {
-		this.uid = ics.getUid().getValue();
-		this.update(ics);
+		this(ics, new long[0]);
+	}
+	
+	/**
+	 * Constructor. Creates an appointment from an event in an ics calendar.
+	 * @param ics The event
+	 * @param overridden If the event recurs, the starts of occurrences which the
+	 * calendar replaces with separate events, in milliseconds since the epoch
+	 */
+	public Appointment(VEvent ics, long[] overridden) {
+		this.uid = getUid(ics);
+		this.update(ics, overridden);
+	}
+	
+	/**
+	 * Gets the uid that an appointment made from an event will have. This is the
+	 * uid of the event, unless the event replaces one occurrence of a recurring
+	 * event, in which case the start of that occurrence is added to keep it apart
+	 * from the recurring event.
+	 * @param ics The event
+	 * @return The uid
+	 */
+	public static String getUid(VEvent ics) {
+		String ret = ics.getUid().getValue();
+		RecurrenceId rid = ics.getRecurrenceId();
+		if (rid != null) {
+			ret += "#" + rid.getDate().getTime();
+		}
+		return ret;
+	}
+	
+	/**
+	 * Constructor. Creates an appointment with nothing but a uid, for a snapshot
+	 * reader to fill in.
+	 * @param uid The uid
+	 */
+	Appointment(String uid) {
+		this.uid = uid;
 	}
 	
 	public Appointment(Element from) throws FileFormatException {
-		XmlElementReader r = new XmlElementReader(from);
-		
+		this(new XmlElementReader(from));
+	}
+	
+	/**
+	 * Constructor. Reads an appointment from an xml element, which may come from
+	 * either a DOM or a stream.
+	 * @param r Reader for the xml element
+	 * @throws FileFormatException if the xml element is poorly structured
+	 */
+	public Appointment(XmlAttributeReader r) throws FileFormatException {
 		this.uid = r.getRequiredStringAttribute("uid", 
-				XmlElementReader.nonEmptyStringValidator);
+				XmlAttributeReader.nonEmptyStringValidator);
 		try {
-			this.meetingStartTime = dateFormatter.parse(
-					r.getRequiredStringAttribute("mtg-start"));
+			this.setStartMillis(dateFormatter.get().parse(
+					r.getRequiredStringAttribute("mtg-start")).getTime());
 		} catch (ParseException e) {
-			throw new NumericParseException(from, "mtg-start", null);
+			throw new NumericParseException(r.getLocation(), "mtg-start", null);
 		}
-		this.setStartTime(getGC(this.meetingStartTime));
 		try {
-			this.meetingEndTime = dateFormatter.parse(
-					r.getRequiredStringAttribute("mtg-end"));
+			this.setEndMillis(dateFormatter.get().parse(
+					r.getRequiredStringAttribute("mtg-end")).getTime());
 		} catch (ParseException e) {
-			throw new NumericParseException(from, "mtg-end", null);
+			throw new NumericParseException(r.getLocation(), "mtg-end", null);
 		}
-		this.setEndTime(getGC(this.meetingEndTime));
 		this.prepTime = r.getRequiredIntAttribute("prep", 
-				XmlElementReader.nonNegativeIntegerValidator);
+				XmlAttributeReader.nonNegativeIntegerValidator);
 		this.debriefTime = r.getRequiredIntAttribute("debrief", 
-				XmlElementReader.nonNegativeIntegerValidator);
+				XmlAttributeReader.nonNegativeIntegerValidator);
 		this.setTravelTimeBefore(r.getRequiredIntAttribute("travel-before", 
-				XmlElementReader.nonNegativeIntegerValidator));
+				XmlAttributeReader.nonNegativeIntegerValidator));
 		this.setTravelTimeAfter(r.getRequiredIntAttribute("travel-after", 
-				XmlElementReader.nonNegativeIntegerValidator));
+				XmlAttributeReader.nonNegativeIntegerValidator));
 		this.ignored = r.getOptionalBooleanAttribute("ignore", false);
 		this.setTitle(r.getOptionalStringAttribute("title", ""));
+		
+		String rule = r.getOptionalStringAttribute("rrule", null);
+		if (rule != null) {
+			String excluded = r.getOptionalStringAttribute("exdates", "").trim();
+			String[] parts = excluded.isEmpty() ? new String[0] : excluded.split(" ");
+			try {
+				long[] exdates = new long[parts.length];
+				for (int i = 0; i < parts.length; i++) {
+					exdates[i] = Long.parseLong(parts[i]);
+				}
+				// calendars saved before the seed was kept repeat in local time
+				String seed = r.getOptionalStringAttribute("rrule-start", null);
+				this.recurrence = (seed != null) ? 
+						new Recurrence(rule, seed, exdates) : 
+						new Recurrence(rule, this.getStartMillis(), exdates);
+			} catch (NumberFormatException e) {
+				throw new NumericParseException(r.getLocation(), "exdates", null);
+			} catch (ParseException e) {
+				throw new InvalidAttributeException(r.getLocation(), "rrule", null);
+			}
+		}
 	}
 	
 	public Element saveToXml(Element attachTo) {
 		Element e = attachTo.getOwnerDocument().createElement(xmlTag);
-		XmlElementWriter w = new XmlElementWriter(e);
+		this.writeAttributes(new XmlElementWriter(e));
 		
+		attachTo.appendChild(e);
+		return e;
+	}
+	
+	/**
+	 * Writes this appointment as the next element of an xml stream.
+	 * @param w Writer for the stream
+	 * @throws XMLStreamException if the stream can't be written to
+	 */
+	public void saveToXml(XmlStreamElementWriter w) throws XMLStreamException {
+		w.writeEmptyElement(xmlTag);
+		this.writeAttributes(w);
+	}
+	
+	private void writeAttributes(XmlElementWriter w) {
 		w.writeStringAttribute("uid", this.uid);
 		w.writeStringAttribute("mtg-start", 
-				dateFormatter.format(this.meetingStartTime));
-		w.writeStringAttribute("mtg-end", dateFormatter.format(this.meetingEndTime));
+				dateFormatter.get().format(new Date(this.getStartMillis())));
+		w.writeStringAttribute("mtg-end", 
+				dateFormatter.get().format(new Date(this.getEndMillis())));
 		w.writeIntAttribute("prep", this.prepTime);
 		w.writeIntAttribute("debrief", this.debriefTime);
 		w.writeIntAttribute("travel-before", this.travelTimeBefore);
@@ -139,8 +251,16 @@ public class Appointment extends CalendarEntry
 		w.writeBooleanAttribute("ignore", this.ignored);
 		w.writeStringAttribute("title", this.getTitle());
 		
-		attachTo.appendChild(e);
-		return e;
+		if (this.recurrence != null) {
+			w.writeStringAttribute("rrule", this.recurrence.getRuleString());
+			w.writeStringAttribute("rrule-start", this.recurrence.getSeedString());
+			StringBuilder exdates = new StringBuilder();
+			for (long exdate : this.recurrence.getExcluded()) {
+				if (exdates.length() > 0) exdates.append(' ');
+				exdates.append(exdate);
+			}
+			w.writeStringAttribute("exdates", exdates.toString());
+		}
 	}
 	
 	/**
@@ -152,11 +272,6 @@ public class Appointment extends CalendarEntry
 		return uid;
 	}
 	
-	private GregorianCalendar getGC(Date date) {
-		GregorianCalendar ret = new GregorianCalendar();
-		ret.setTime(date);
-		return ret;
-	}
 	/**
 	 * Gets the travel time before the appointment, in seconds.
 	 * @return the travelTimeBefore
@@ -166,10 +281,12 @@ public class Appointment extends CalendarEntry
 	}
 	/**
 	 * Sets the travel time before the appointment, in seconds. If less than zero,
-	 * no changes are made.
+	 * no changes are made. Outside of loading, change it with
+	 * {@link AppointmentList#setTravelTimes(Appointment, int, int)}, so that the
+	 * change is journaled.
 	 * @param travelTimeBefore the travelTimeBefore to set
 	 */
-	public final void setTravelTimeBefore(int travelTimeBefore) {
+	final void setTravelTimeBefore(int travelTimeBefore) {
 		if (travelTimeBefore < 0) return;
 		
 		this.travelTimeBefore = travelTimeBefore;
@@ -195,10 +312,12 @@ public class Appointment extends CalendarEntry
 	}
 	/**
 	 * Sets the travel time after the appointment, in seconds. If less than zero,
-	 * no changes are made.
+	 * no changes are made. Outside of loading, change it with
+	 * {@link AppointmentList#setTravelTimes(Appointment, int, int)}, so that the
+	 * change is journaled.
 	 * @param travelTimeAfter the travelTimeAfter to set
 	 */
-	public final void setTravelTimeAfter(int travelTimeAfter) {
+	final void setTravelTimeAfter(int travelTimeAfter) {
 		if (travelTimeAfter < 0) return;
 		
 		this.travelTimeAfter = travelTimeAfter;
@@ -223,10 +342,12 @@ public class Appointment extends CalendarEntry
 		return prepTime;
 	}
 	/**
-	 * Sets the preparation time, in seconds, for this meeting. 
+	 * Sets the preparation time, in seconds, for this meeting. Outside of loading,
+	 * change it with
+	 * {@link AppointmentList#setPrepAndDebriefTimes(Appointment, int, int)}.
 	 * @param prepTime the prepTime to set
 	 */
-	public final void setPrepTime(int prepTime) {
+	final void setPrepTime(int prepTime) {
 		this.prepTime = prepTime;
 	}
 	/**
@@ -237,10 +358,12 @@ public class Appointment extends CalendarEntry
 		return debriefTime;
 	}
 	/**
-	 * Sets the debrief time, in seconds, for this meeting.
+	 * Sets the debrief time, in seconds, for this meeting. Outside of loading,
+	 * change it with
+	 * {@link AppointmentList#setPrepAndDebriefTimes(Appointment, int, int)}.
 	 * @param debriefTime the debriefTime to set
 	 */
-	public final void setDebriefTime(int debriefTime) {
+	final void setDebriefTime(int debriefTime) {
 		this.debriefTime = debriefTime;
 	}
 	
@@ -273,9 +396,10 @@ public class Appointment extends CalendarEntry
 	/**
 	 * Sets a flag regarding whether the user has ignored this appointment.
 	 * @param ignored <code>true</code> if the user has elected to ignore this
-	 * appointment; <code>false</code> otherwise.
+	 * appointment; <code>false</code> otherwise. Outside of loading, change it
+	 * with {@link AppointmentList#setIgnored(Appointment, boolean)}.
 	 */
-	public final void setIgnored(boolean ignored) {
+	final void setIgnored(boolean ignored) {
 		this.ignored = ignored;
 	}
 	
@@ -300,13 +424,124 @@ public class Appointment extends CalendarEntry
 	}
 
 	public void update(VEvent ics) {
-		this.meetingStartTime = ics.getStartDate().getDate();
-		this.meetingEndTime = ics.getEndDate().getDate();
-		this.setStartTime(this.getGC(this.meetingStartTime));
-		this.setEndTime(this.getGC(this.meetingEndTime));
+		this.update(ics, new long[0]);
+	}
+	
+	/**
+	 * Updates this appointment from an event in an ics calendar.
+	 * @param ics The event
+	 * @param overridden If the event recurs, the starts of occurrences which the
+	 * calendar replaces with separate events, in milliseconds since the epoch
+	 */
+	public void update(VEvent ics, long[] overridden) {
+		this.setTimes(ics.getStartDate().getDate().getTime(), 
+				ics.getEndDate().getDate().getTime());
 		this.setTitle(ics.getSummary().getValue());
+		this.recurrence = readRecurrence(ics, overridden);
 		
 		this.createOrUpdateTravelTimeBefore();
 		this.createOrUpdateTravelTimeAfter();
 	}
+	
+	private static Recurrence readRecurrence(VEvent ics, long[] overridden) {
+		RRule rrule = (RRule)ics.getProperty(Property.RRULE);
+		if (rrule == null) return null;
+		
+		ArrayList<Long> excluded = new ArrayList<>();
+		for (Object p : ics.getProperties(Property.EXDATE)) {
+			for (Object d : ((ExDate)p).getDates()) {
+				excluded.add(((Date)d).getTime());
+			}
+		}
+		
+		long[] ret = Arrays.copyOf(overridden, overridden.length + excluded.size());
+		for (int i = 0; i < excluded.size(); i++) {
+			ret[overridden.length + i] = excluded.get(i);
+		}
+		return new Recurrence(rrule.getRecur(), ics.getStartDate().getDate(), ret);
+	}
+	
+	/**
+	 * Gets the rule by which this appointment repeats.
+	 * @return the recurrence, or <code>null</code> if this appointment doesn't
+	 * repeat
+	 */
+	Recurrence getRecurrence_rNull() {
+		return this.recurrence;
+	}
+	
+	/**
+	 * Sets the rule by which this appointment repeats. This must not be called
+	 * while the appointment is in a list.
+	 * @param recurrence the recurrence, or <code>null</code> if this appointment
+	 * doesn't repeat
+	 */
+	void setRecurrence(Recurrence recurrence) {
+		this.recurrence = recurrence;
+	}
+	
+	/**
+	 * Returns whether this appointment repeats.
+	 * @return <code>true</code> if the appointment has a recurrence rule;
+	 * <code>false</code> otherwise.
+	 */
+	public final boolean isRecurring() {
+		return this.recurrence != null;
+	}
+	
+	/*
+	 * Works out the title of the travel before or after an appointment, or an
+	 * occurrence of it, which starts at anchorStart.
+	 */
+	static String getTravelTitle(BeforeAfterEnum when, long anchorStart) {
+		String ret = "Travel ";
+		ret += (when == BeforeAfterEnum.BEFORE) ? "to" : "from";
+		ret += " ";
+		ret += CalendarHelper.formatMilitaryTime(
+				CalendarHelper.getSecondOfDay(anchorStart));
+		ret += " appointment";
+		return ret;
+	}
+
+	private long getDurationMillis() {
+		return this.getEndMillis() - this.getStartMillis();
+	}
+	
+	/**
+	 * Finds the occurrences of this appointment, other than the first, which have
+	 * any part falling within a range of time, along with their travel time
+	 * entries. The first occurrence is this appointment itself.
+	 * @param start Earliest time for the range, in milliseconds since the epoch
+	 * @param end Latest time for the range, in milliseconds since the epoch
+	 * @return A new list of the entries. It is empty if this appointment doesn't
+	 * repeat.
+	 */
+	public ArrayList<CalendarEntry> getOccurrences(long start, long end) {
+		ArrayList<CalendarEntry> ret = new ArrayList<>();
+		if ((this.recurrence == null) || !this.hasTimes()) return ret;
+		
+		/*
+		 * Occurrences starting a little outside the range may still reach into it,
+		 * either themselves or through their travel time.
+		 */
+		long[] starts = this.recurrence.getStartsBetween(
+				start - this.getDurationMillis() - this.travelTimeAfter * 1000L, 
+				end + this.travelTimeBefore * 1000L);
+		for (long s : starts) {
+			if (s == this.getStartMillis()) continue;
+			
+			Occurrence o = new Occurrence(s);
+			if (o.overlaps(start, end)) ret.add(o);
+			if (this.travelTimeBefore > 0) {
+				TravelTimeEntry tte = new TravelTimeEntry(BeforeAfterEnum.BEFORE, o);
+				if (tte.overlaps(start, end)) ret.add(tte);
+			}
+			if (this.travelTimeAfter > 0) {
+				TravelTimeEntry tte = new TravelTimeEntry(BeforeAfterEnum.AFTER, o);
+				if (tte.overlaps(start, end)) ret.add(tte);
+			}
+		}
+		
+		return ret;
+	}
 }
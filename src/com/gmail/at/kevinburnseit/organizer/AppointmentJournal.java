@@ -0,0 +1,580 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead journal of the changes made to an {@link AppointmentList} since
+ * its snapshot was last written. Each change is appended to the journal as a small
+ * record, so that changing one appointment doesn't mean rewriting the whole
+ * calendar. When the calendar is loaded, its snapshot is read and the journal is
+ * replayed over it. Once the journal grows past a threshold, the list is written
+ * to a new snapshot and the journal is emptied.
+ * <p>
+ * Records are written on a background thread, in the order that the changes were
+ * made, and are forced to disk in groups: a record reaches the disk within
+ * {@link #syncDelayMillis} milliseconds of being written, together with any others
+ * written in the meantime. Each record carries a checksum, so a record which was
+ * only partly written when the application stopped is recognised and dropped.
+ * <p>
+ * Each snapshot has a generation, which is counted up at every compaction, and
+ * the journal starts with a record naming the generation that its changes were
+ * made after. A journal which names another generation than the snapshot was
+ * left behind by a compaction that stopped before it could empty the journal;
+ * its changes are already in the snapshot, so it is discarded rather than
+ * replayed.
+ * <p>
+ * Apart from {@link #close()}, the methods of this class are meant to be called
+ * on the thread that owns the list, which is normally the event dispatch thread.
+ * @author Kevin J. Burns
+ *
+ */
+public class AppointmentJournal {
+	/*
+	 * Never reorder these; their ordinals are written to disk.
+	 */
+	private enum RecordTypeEnum {
+		ADD,
+		REMOVE,
+		TRAVEL,
+		PREP_DEBRIEF,
+		IGNORE,
+		BASE,
+		/*
+		 * Replaces ADD, adding the recurrence seed's time zone. ADD records are
+		 * still read from older journals; their appointments repeat in local time.
+		 */
+		ADD_WITH_SEED;
+	}
+
+	/**
+	 * Builds the body of a record in memory.
+	 */
+	private static final class Record extends DataOutputStream {
+		private Record(RecordTypeEnum type) {
+			super(new ByteArrayOutputStream(64));
+			try {
+				this.writeByte(type.ordinal());
+			} catch (IOException e) {
+				// can't happen when writing to memory
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private byte[] toByteArray() {
+			return ((ByteArrayOutputStream)this.out).toByteArray();
+		}
+	}
+
+	private static final long compactAtBytes = 256 * 1024;
+	private static final long syncDelayMillis = 50;
+	/*
+	 * Stands for the generation of a snapshot which doesn't exist.
+	 */
+	private static final long unknownGeneration = -1;
+
+	/**
+	 * Writes the records and snapshots of all journals, so that they are always
+	 * written in the order that they were made.
+	 */
+	private static final ScheduledExecutorService writer =
+			Executors.newSingleThreadScheduledExecutor(
+					new DaemonThreadFactory("appointment-journal-"));
+
+	private final Path journalPath;
+	private final Path snapshotPath;
+	/*
+	 * Bytes in the journal, counted when records are made rather than when they
+	 * are written.
+	 */
+	private long size = 0;
+	/*
+	 * The generation of the last snapshot that compaction was asked to write.
+	 */
+	private long generation = 0;
+
+	/*
+	 * Only used on the writer thread.
+	 */
+	private FileChannel channel = null;
+	private boolean syncScheduled = false;
+	/*
+	 * The generation of the snapshot on disk. Set by replay before any records are
+	 * queued, and afterwards only used on the writer thread.
+	 */
+	private long writtenGeneration = 0;
+
+	/**
+	 * Constructor.
+	 * @param journalPath Location of the journal file. It is created when the first
+	 * change is made, if it doesn't already exist.
+	 * @param snapshotPath Location of the snapshot that the journal applies to
+	 */
+	public AppointmentJournal(String journalPath, String snapshotPath) {
+		this.journalPath = Paths.get(journalPath);
+		this.snapshotPath = Paths.get(snapshotPath);
+	}
+
+	/**
+	 * Applies the changes in the journal to a list, which should have just been
+	 * read from the snapshot. Any partly written record at the end of the journal
+	 * is removed, as is the whole journal if it was made before the snapshot. This
+	 * must be called before the journal is given to the list.
+	 * @param list The list
+	 * @throws IOException if the journal or the snapshot exists but can't be read
+	 */
+	public void replay(AppointmentList list) throws IOException {
+		long snapshotGeneration = readSnapshotGeneration(this.snapshotPath);
+		if (snapshotGeneration != unknownGeneration) {
+			this.generation = snapshotGeneration;
+			this.writtenGeneration = snapshotGeneration;
+		}
+		if (!Files.exists(this.journalPath)) return;
+
+		byte[] bytes = Files.readAllBytes(this.journalPath);
+		this.size = applyRecords(bytes, list, snapshotGeneration);
+		if (this.size < bytes.length) {
+			try (FileChannel fc = FileChannel.open(this.journalPath,
+					StandardOpenOption.WRITE)) {
+				fc.truncate(this.size);
+			}
+		}
+	}
+
+	/**
+	 * Applies the changes in a journal to a list without changing the journal,
+	 * for readers which share the data folder with a running organizer. A partly
+	 * written record at the end of the journal is ignored, as it may still be
+	 * being written.
+	 * @param journalPath Location of the journal file
+	 * @param snapshotPath Location of the snapshot that the list was read from, if
+	 * it was read from one
+	 * @param list The list, which should have just been read from the snapshot
+	 * @throws IOException if the journal or the snapshot exists but can't be read
+	 */
+	public static void read(String journalPath, String snapshotPath,
+			AppointmentList list) throws IOException {
+		Path path = Paths.get(journalPath);
+		if (!Files.exists(path)) return;
+
+		applyRecords(Files.readAllBytes(path), list,
+				readSnapshotGeneration(Paths.get(snapshotPath)));
+	}
+
+	private static long readSnapshotGeneration(Path snapshotPath) throws IOException {
+		if (!Files.exists(snapshotPath)) return unknownGeneration;
+		return AppointmentSnapshot.readGeneration(snapshotPath);
+	}
+
+	/*
+	 * Applies every complete record, and returns the length of the journal up to
+	 * the end of the last one. If the journal was made before the snapshot, nothing
+	 * is applied and 0 is returned. Journals written before generations were
+	 * recorded don't start with a base record, and are always applied.
+	 */
+	private static int applyRecords(byte[] bytes, AppointmentList list,
+			long snapshotGeneration) {
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		if (snapshotGeneration != unknownGeneration) {
+			long base = readBaseGeneration(buf);
+			if ((base != unknownGeneration) && (base != snapshotGeneration)) return 0;
+		}
+
+		list.beginUpdate();
+		try {
+			for (;;) {
+				int offset = nextRecord(buf);
+				if (offset < 0) break;
+
+				int length = buf.position() - offset - 4;
+				try {
+					apply(list, new DataInputStream(
+							new ByteArrayInputStream(bytes, offset, length)));
+				} catch (IOException | ParseException | RuntimeException e) {
+					// a record which can't be understood is skipped
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			list.endUpdate();
+		}
+
+		return buf.position();
+	}
+
+	/*
+	 * Checks the record at the buffer's position. If it is complete, returns the
+	 * offset of its body and moves past it; otherwise returns -1 and leaves the
+	 * position alone.
+	 */
+	private static int nextRecord(ByteBuffer buf) {
+		int start = buf.position();
+		if (buf.remaining() < 4) return -1;
+		int length = buf.getInt();
+		if ((length < 1) || (length > buf.remaining() - 4)) {
+			buf.position(start);
+			return -1;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), buf.position(), length);
+		int offset = buf.position();
+		buf.position(offset + length);
+		if (buf.getInt() != (int)crc.getValue()) {
+			buf.position(start);
+			return -1;
+		}
+		return offset;
+	}
+
+	/*
+	 * Returns the generation named by the first record, or unknownGeneration if it
+	 * isn't a complete base record.
+	 */
+	private static long readBaseGeneration(ByteBuffer buf) {
+		int offset = nextRecord(buf.duplicate());
+		if ((offset < 0) || (buf.get(offset) != RecordTypeEnum.BASE.ordinal())) {
+			return unknownGeneration;
+		}
+		return buf.getLong(offset + 1);
+	}
+
+	private static void apply(AppointmentList list, DataInputStream in)
+			throws IOException, ParseException {
+		RecordTypeEnum type = RecordTypeEnum.values()[in.readUnsignedByte()];
+		if (type == RecordTypeEnum.BASE) return;
+		if ((type == RecordTypeEnum.ADD) || (type == RecordTypeEnum.ADD_WITH_SEED)) {
+			list.addAppointment(readAppointment(in, 
+					type == RecordTypeEnum.ADD_WITH_SEED));
+			return;
+		}
+
+		Appointment a = list.getByUid_rNull(in.readUTF());
+		if (a == null) return;
+		switch (type) {
+		case REMOVE:
+			list.removeAppointment(a);
+			break;
+		case TRAVEL:
+			int before = in.readInt();
+			list.setTravelTimes(a, before, in.readInt());
+			break;
+		case PREP_DEBRIEF:
+			int prep = in.readInt();
+			list.setPrepAndDebriefTimes(a, prep, in.readInt());
+			break;
+		case IGNORE:
+			list.setIgnored(a, in.readBoolean());
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static void writeAppointment(DataOutputStream out, Appointment a)
+			throws IOException {
+		out.writeUTF(a.getUid());
+		out.writeUTF((a.getTitle() != null) ? a.getTitle() : "");
+		out.writeLong(a.getStartMillis());
+		out.writeLong(a.getEndMillis());
+		out.writeInt(a.getTravelTimeBefore());
+		out.writeInt(a.getTravelTimeAfter());
+		out.writeInt(a.getPrepTime());
+		out.writeInt(a.getDebriefTime());
+		out.writeBoolean(a.isIgnored());
+
+		Recurrence r = a.getRecurrence_rNull();
+		out.writeBoolean(r != null);
+		if (r != null) {
+			out.writeUTF(r.getRuleString());
+			out.writeUTF(r.getSeedString());
+			long[] excluded = r.getExcluded();
+			out.writeInt(excluded.length);
+			for (long exdate : excluded) {
+				out.writeLong(exdate);
+			}
+		}
+	}
+
+	private static Appointment readAppointment(DataInputStream in, boolean hasSeed)
+			throws IOException, ParseException {
+		Appointment a = new Appointment(in.readUTF());
+		a.setTitle(in.readUTF());
+		long start = in.readLong();
+		a.setTimes(start, in.readLong());
+		a.setTravelTimeBefore(in.readInt());
+		a.setTravelTimeAfter(in.readInt());
+		a.setPrepTime(in.readInt());
+		a.setDebriefTime(in.readInt());
+		a.setIgnored(in.readBoolean());
+
+		if (in.readBoolean()) {
+			String rule = in.readUTF();
+			String seed = hasSeed ? in.readUTF() : null;
+			long[] excluded = new long[in.readInt()];
+			for (int i = 0; i < excluded.length; i++) {
+				excluded[i] = in.readLong();
+			}
+			a.setRecurrence((seed != null) ? new Recurrence(rule, seed, excluded) :
+					new Recurrence(rule, start, excluded));
+		}
+		return a;
+	}
+
+	/**
+	 * Records that an appointment was added to the list.
+	 * @param a The appointment
+	 */
+	void appointmentAdded(Appointment a) {
+		Record out = new Record(RecordTypeEnum.ADD_WITH_SEED);
+		try {
+			writeAppointment(out, a);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		this.append(out);
+	}
+
+	/**
+	 * Records that an appointment was removed from the list.
+	 * @param a The appointment
+	 */
+	void appointmentRemoved(Appointment a) {
+		this.append(this.startRecord(RecordTypeEnum.REMOVE, a));
+	}
+
+	/**
+	 * Records that an appointment's travel times were changed.
+	 * @param a The appointment, with its new travel times
+	 */
+	void travelTimesChanged(Appointment a) {
+		Record out = this.startRecord(RecordTypeEnum.TRAVEL, a);
+		try {
+			out.writeInt(a.getTravelTimeBefore());
+			out.writeInt(a.getTravelTimeAfter());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		this.append(out);
+	}
+
+	/**
+	 * Records that an appointment's preparation and debrief times were changed.
+	 * @param a The appointment, with its new times
+	 */
+	void prepAndDebriefTimesChanged(Appointment a) {
+		Record out = this.startRecord(RecordTypeEnum.PREP_DEBRIEF, a);
+		try {
+			out.writeInt(a.getPrepTime());
+			out.writeInt(a.getDebriefTime());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		this.append(out);
+	}
+
+	/**
+	 * Records that the user ignored or stopped ignoring an appointment.
+	 * @param a The appointment
+	 */
+	void ignoredChanged(Appointment a) {
+		Record out = this.startRecord(RecordTypeEnum.IGNORE, a);
+		try {
+			out.writeBoolean(a.isIgnored());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		this.append(out);
+	}
+
+	private Record startRecord(RecordTypeEnum type, Appointment a) {
+		Record ret = new Record(type);
+		try {
+			ret.writeUTF(a.getUid());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return ret;
+	}
+
+	/*
+	 * Frames a record with its length and checksum.
+	 */
+	private static ByteBuffer frame(Record out) {
+		byte[] body = out.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(body);
+
+		ByteBuffer ret = ByteBuffer.allocate(body.length + 8);
+		ret.putInt(body.length);
+		ret.put(body);
+		ret.putInt((int)crc.getValue());
+		ret.flip();
+		return ret;
+	}
+
+	private static ByteBuffer frameBase(long generation) {
+		Record out = new Record(RecordTypeEnum.BASE);
+		try {
+			out.writeLong(generation);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return frame(out);
+	}
+
+	/*
+	 * Queues a record to be written. A journal which is empty when the record is
+	 * written is started with a base record first.
+	 */
+	private void append(Record out) {
+		final ByteBuffer record = frame(out);
+		this.size += record.remaining();
+
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					FileChannel fc = getChannel();
+					if (fc.size() == 0) {
+						ByteBuffer base = frameBase(writtenGeneration);
+						while (base.hasRemaining()) {
+							fc.write(base);
+						}
+					}
+					while (record.hasRemaining()) {
+						fc.write(record);
+					}
+					scheduleSync();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns whether the journal has grown enough that the list should be
+	 * written to a new snapshot with {@link #compact(AppointmentList)}.
+	 * @return <code>true</code> if the journal should be compacted
+	 */
+	boolean isCompactionDue() {
+		return this.size >= compactAtBytes;
+	}
+
+	/**
+	 * Writes a list to a new snapshot and empties the journal. The list is copied
+	 * on the calling thread, but the snapshot is written on the journal's
+	 * background thread, after any changes recorded before this call and before
+	 * any recorded after it. The old snapshot is only replaced once the new one is
+	 * complete, and has the next generation.
+	 * @param list The list that this journal belongs to
+	 * @return A future which completes once the new snapshot is on disk, or
+	 * completes exceptionally if it couldn't be written
+	 */
+	public CompletableFuture<Void> compact(AppointmentList list) {
+		final long generation = ++this.generation;
+		final ByteBuffer[] snapshot = AppointmentSnapshot.encode(list, generation);
+		final CompletableFuture<Void> ret = new CompletableFuture<>();
+		this.size = 0;
+
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					PersistenceService.writeAtomically(snapshotPath, snapshot);
+					writtenGeneration = generation;
+
+					/*
+					 * If the application stops before this, the journal still names
+					 * the old generation, so it is discarded when the new snapshot
+					 * is read instead of being replayed over it.
+					 */
+					FileChannel fc = getChannel();
+					fc.truncate(0);
+					fc.force(true);
+					ret.complete(null);
+				} catch (IOException e) {
+					e.printStackTrace();
+					ret.completeExceptionally(e);
+				}
+			}
+		});
+		return ret;
+	}
+
+	/**
+	 * Writes and forces to disk everything recorded so far, and closes the
+	 * journal file. The journal may still be used afterwards, in which case the
+	 * file is opened again. This may be called on any thread.
+	 */
+	public void close() {
+		try {
+			writer.submit(new Runnable() {
+				@Override
+				public void run() {
+					if (channel == null) return;
+					try {
+						channel.force(false);
+						channel.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					channel = null;
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/*
+	 * Runs on the writer thread.
+	 */
+	private FileChannel getChannel() throws IOException {
+		if (this.channel == null) {
+			this.channel = FileChannel.open(this.journalPath, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+		return this.channel;
+	}
+
+	/*
+	 * Runs on the writer thread. Records written before the sync runs share it.
+	 */
+	private void scheduleSync() {
+		if (this.syncScheduled) return;
+		this.syncScheduled = true;
+
+		writer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				syncScheduled = false;
+				if (channel == null) return;
+				try {
+					channel.force(false);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}, syncDelayMillis, TimeUnit.MILLISECONDS);
+	}
+}
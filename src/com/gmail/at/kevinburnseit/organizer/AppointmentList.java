@@ -1,70 +1,572 @@
 package com.gmail.at.kevinburnseit.organizer;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
+import com.gmail.at.kevinburnseit.metrics.Metrics;
+import com.gmail.at.kevinburnseit.organizer.Appointment.BeforeAfterEnum;
 import com.gmail.at.kevinburnseit.organizer.Appointment.TravelTimeEntry;
 import com.gmail.at.kevinburnseit.swing.calendar.CalendarEntry;
 import com.gmail.at.kevinburnseit.swing.calendar.CalendarEntryProvider;
-import com.gmail.at.kevinburnseit.xml.XmlElementReader;
+import com.gmail.at.kevinburnseit.swing.calendar.CalendarEntrySnapshot;
+import com.gmail.at.kevinburnseit.swing.calendar.CalendarEntryValue;
+import com.gmail.at.kevinburnseit.xml.FileFormatException;
 import com.gmail.at.kevinburnseit.xml.XmlHelper;
+import com.gmail.at.kevinburnseit.xml.XmlStreamElementReader;
+import com.gmail.at.kevinburnseit.xml.XmlStreamElementWriter;
+
+import net.fortuna.ical4j.model.component.CalendarComponent;
+import net.fortuna.ical4j.model.component.VEvent;
 
+/**
+ * A list of appointments from an external calendar, along with the travel time
+ * entries belonging to those appointments. Appointments are indexed by uid, and
+ * travel time entries by the appointment they are linked to, so that merging a
+ * freshly downloaded calendar does not require searching the whole list for each
+ * event.
+ * <p>
+ * Only the first occurrence of a recurring appointment is kept in the list. The
+ * other occurrences are worked out by {@link #query(long, long)} for the range of
+ * time asked about. The same is true of the snapshots the list publishes, which
+ * copy what they need of each recurring appointment, so they can be queried on
+ * any thread.
+ * @author Kevin J. Burns
+ *
+ */
 public class AppointmentList extends CalendarEntryProvider<CalendarEntry> {
 	private static final long serialVersionUID = -4241114840717808881L;
+	private static final String xmlTag = "appointments";
 	
-	public AppointmentList() {
+	private static final Comparator<CalendarEntry> startComparator = 
+			new Comparator<CalendarEntry>() {
+		@Override
+		public int compare(CalendarEntry x, CalendarEntry y) {
+			return x.compareStartTo(y);
+		}
+	};
+	
+	private static final Comparator<CalendarEntryValue> valueStartComparator = 
+			new Comparator<CalendarEntryValue>() {
+		@Override
+		public int compare(CalendarEntryValue x, CalendarEntryValue y) {
+			return Long.compare(x.getStartMillis(), y.getStartMillis());
+		}
+	};
+	
+	/**
+	 * What a snapshot needs to know about a recurring appointment to work out its
+	 * occurrences, copied from the appointment when the snapshot is taken. The
+	 * recurrence itself never changes, so it is shared rather than copied.
+	 */
+	private static final class RecurringValue {
+		private final Appointment appointment;
+		private final Recurrence recurrence;
+		private final long startMillis;
+		private final long durationMillis;
+		private final int travelTimeBefore;
+		private final int travelTimeAfter;
+		private final String title;
 		
+		private RecurringValue(Appointment a) {
+			this.appointment = a;
+			this.recurrence = a.getRecurrence_rNull();
+			this.startMillis = a.getStartMillis();
+			this.durationMillis = a.getEndMillis() - a.getStartMillis();
+			this.travelTimeBefore = a.getTravelTimeBefore();
+			this.travelTimeAfter = a.getTravelTimeAfter();
+			this.title = a.getTitle();
+		}
+		
+		/*
+		 * Adds the occurrences other than the first which have any part within the
+		 * range, along with their travel, the same as Appointment.getOccurrences.
+		 * Each value stands for the appointment itself.
+		 */
+		private void addOccurrences(long start, long end, 
+				ArrayList<CalendarEntryValue> addTo) {
+			long before = this.travelTimeBefore * 1000L;
+			long after = this.travelTimeAfter * 1000L;
+			long[] starts = this.recurrence.getStartsBetween(
+					start - this.durationMillis - after, end + before);
+			for (long s : starts) {
+				if (s == this.startMillis) continue;
+				
+				long e = s + this.durationMillis;
+				this.add(s, e, this.title, start, end, addTo);
+				if (before > 0) {
+					this.add(s - before, s, Appointment.getTravelTitle(
+							BeforeAfterEnum.BEFORE, s), start, end, addTo);
+				}
+				if (after > 0) {
+					this.add(e, e + after, Appointment.getTravelTitle(
+							BeforeAfterEnum.AFTER, s), start, end, addTo);
+				}
+			}
+		}
+		
+		private void add(long from, long to, String title, long start, long end,
+				ArrayList<CalendarEntryValue> addTo) {
+			CalendarEntryValue v = 
+					new CalendarEntryValue(this.appointment, from, to, title);
+			if (v.overlaps(start, end)) addTo.add(v);
+		}
 	}
 	
-	public AppointmentList(String xmlPath) throws Exception {
-		Document doc = XmlHelper.readFile(xmlPath);
-		Element docElement = doc.getDocumentElement();
-		XmlElementReader r = new XmlElementReader(docElement);
+	/**
+	 * A snapshot which also remembers which appointments were recurring, so that
+	 * its queries include their occurrences.
+	 */
+	private static final class Snapshot extends CalendarEntrySnapshot<CalendarEntry> {
+		private final RecurringValue[] recurring;
 		
-		for (Element e : r.getChildElements(Appointment.xmlTag)) {
-			Appointment a = new Appointment(e);
-			this.add(a);
-			for (CalendarEntry ce : a.getTravelEntries()) {
-				this.add(ce);
+		private Snapshot(CalendarEntrySnapshot<CalendarEntry> entries, 
+				RecurringValue[] recurring) {
+			super(entries);
+			this.recurring = recurring;
+		}
+		
+		@Override
+		public ArrayList<CalendarEntryValue> query(long start, long end) {
+			ArrayList<CalendarEntryValue> ret = super.query(start, end);
+			if (this.recurring.length == 0) return ret;
+			
+			for (RecurringValue r : this.recurring) {
+				r.addOccurrences(start, end, ret);
 			}
+			Collections.sort(ret, valueStartComparator);
+			
+			return ret;
 		}
 	}
 	
+	private HashMap<String, Appointment> appointmentsByUid = new HashMap<>();
+	private HashMap<Appointment, ArrayList<TravelTimeEntry>> travelEntriesByAppointment =
+			new HashMap<>();
+	private boolean hasDuplicateUids = false;
+	private HashSet<Appointment> recurringAppointments = new HashSet<>();
+	private AppointmentJournal journal = null;
+	
+	public AppointmentList() {
+		
+	}
+	
+	/**
+	 * Constructor. Reads a list of appointments from an xml file. The file is
+	 * streamed rather than read into a DOM.
+	 * @param xmlPath Location of the xml file
+	 * @throws Exception if anything goes wrong
+	 */
+	public AppointmentList(String xmlPath) throws Exception {
+		this.beginUpdate();
+		try {
+			XmlHelper.readFileAsStream(xmlPath, Appointment.xmlTag, 
+					new XmlStreamElementReader.ElementHandler() {
+				@Override
+				public void handleElement(XmlStreamElementReader r) 
+						throws FileFormatException {
+					Appointment a = new Appointment(r);
+					add(a);
+					addAll(a.getTravelEntries());
+				}
+			});
+		} finally {
+			this.endUpdate();
+		}
+	}
+	
+	/**
+	 * Reads a list of appointments from a binary snapshot, as written by
+	 * {@link #saveSnapshot(String)}. This is much faster than reading xml.
+	 * @param path Location of the snapshot
+	 * @return The list
+	 * @throws IOException if the snapshot can't be read
+	 */
+	public static AppointmentList fromSnapshot(String path) throws IOException {
+		long start = System.nanoTime();
+		AppointmentList ret = new AppointmentList();
+		AppointmentSnapshot.read(path, ret);
+		Metrics.histogram("snapshot-load", new File(path).getName()).recordSince(start);
+		return ret;
+	}
+	
+	/**
+	 * Saves the appointments in this list to a binary snapshot. Travel time entries
+	 * are not saved, as they are recreated from their appointments.
+	 * @param path Location of the snapshot
+	 * @throws IOException if the snapshot can't be written
+	 */
+	public void saveSnapshot(String path) throws IOException {
+		long start = System.nanoTime();
+		AppointmentSnapshot.write(this, path);
+		Metrics.histogram("snapshot-save", new File(path).getName()).recordSince(start);
+	}
+	
+	/**
+	 * Saves the appointments in this list to an xml file. Travel time entries are
+	 * not saved, as they are recreated from their appointments.
+	 * @param path Location of the xml file
+	 * @throws Exception if anything goes wrong
+	 */
 	public void saveToXml(String path) throws Exception {
-		Document doc = XmlHelper.newDocument("appointments");
-		Element docElement = doc.getDocumentElement();
+		XmlHelper.saveFileAsStream(path, xmlTag, 
+				new XmlStreamElementWriter.ContentWriter() {
+			@Override
+			public void writeContent(XmlStreamElementWriter w) throws Exception {
+				for (CalendarEntry ce : AppointmentList.this) {
+					if (ce instanceof Appointment) {
+						Appointment a = (Appointment)ce;
+						a.saveToXml(w);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Brings this list up to date with a calendar downloaded from the source of its
+	 * appointments. Appointments already in this list are updated, and their travel
+	 * time entries are added or removed to match.
+	 * @param cal The calendar
+	 * @param acceptNew <code>true</code> if events which aren't in this list yet
+	 * are to be added; <code>false</code> if they are to be left for the user to
+	 * accept.
+	 */
+	public void merge(net.fortuna.ical4j.model.Calendar cal, boolean acceptNew) {
+		/*
+		 * Occurrences of recurring events which the calendar replaces with events
+		 * of their own are left out of the recurring events.
+		 */
+		HashMap<String, ArrayList<Long>> overridden = new HashMap<>();
+		for (CalendarComponent c : cal.getComponents()) {
+			if (!(c instanceof VEvent)) continue;
+			VEvent ve = (VEvent)c;
+			if (ve.getRecurrenceId() == null) continue;
+			
+			String uid = ve.getUid().getValue();
+			ArrayList<Long> starts = overridden.get(uid);
+			if (starts == null) {
+				starts = new ArrayList<>();
+				overridden.put(uid, starts);
+			}
+			starts.add(ve.getRecurrenceId().getDate().getTime());
+		}
 		
-		for (CalendarEntry ce : this) {
-			if (ce instanceof Appointment) {
-				Appointment a = (Appointment)ce;
-				a.saveToXml(docElement);
+		/*
+		 * Report the whole merge to the calendar views as one change, rather
+		 * than one change per event.
+		 */
+		this.beginUpdate();
+		try {
+			for (CalendarComponent c : cal.getComponents()) {
+				if (!(c instanceof VEvent)) continue;
+				VEvent ve = (VEvent)c;
+				long[] skip = new long[0];
+				ArrayList<Long> starts = overridden.get(ve.getUid().getValue());
+				if ((starts != null) && (ve.getRecurrenceId() == null)) {
+					skip = new long[starts.size()];
+					for (int i = 0; i < skip.length; i++) {
+						skip[i] = starts.get(i);
+					}
+				}
+				
+				String uid = Appointment.getUid(ve);
+				Appointment a = this.getByUid_rNull(uid);
+				if (a == null) {
+					if (acceptNew) {
+						a = new Appointment(ve, skip);
+						this.add(a);
+						this.addAll(a.getTravelEntries());
+					}
+					else {
+						/*
+						 * TODO add to notification queue for user acceptance
+						 */
+					}
+				}
+				else {
+					a.update(ve, skip);
+					this.appointmentUpdated(a);
+					ArrayList<CalendarEntry> keepTravelEntries = a.getTravelEntries();
+					ArrayList<TravelTimeEntry> dropTravelEntries = 
+							this.getTravelEntriesLinkedTo(a);
+					dropTravelEntries.removeAll(keepTravelEntries);
+					this.removeAll(dropTravelEntries);
+				}
 			}
+		} finally {
+			this.endUpdate();
+		}
+	}
+	
+	/**
+	 * Gets the journal which changes made through this list are recorded in.
+	 * @return the journal, or <code>null</code> if changes aren't recorded
+	 */
+	public AppointmentJournal getJournal_rNull() {
+		return this.journal;
+	}
+	
+	/**
+	 * Sets the journal which changes made through this list are recorded in.
+	 * Changes merged from the source calendar aren't recorded; the list should be
+	 * written to a new snapshot with {@link AppointmentJournal#compact(AppointmentList)}
+	 * after each merge.
+	 * @param journal the journal, or <code>null</code> to stop recording changes
+	 */
+	public void setJournal(AppointmentJournal journal) {
+		this.journal = journal;
+	}
+	
+	/**
+	 * Adds an appointment and its travel time entries to this list. If the list
+	 * already has an appointment with the same uid, it is replaced.
+	 * @param a The appointment
+	 */
+	public void addAppointment(Appointment a) {
+		this.beginUpdate();
+		try {
+			Appointment old = this.getByUid_rNull(a.getUid());
+			if (old != null) this.removeAppointmentAndTravel(old);
+			this.add(a);
+			this.addAll(a.getTravelEntries());
+		} finally {
+			this.endUpdate();
 		}
 		
-		XmlHelper.saveFile(doc, path);
+		if (this.journal != null) {
+			this.journal.appointmentAdded(a);
+			this.compactJournalIfDue();
+		}
 	}
-
-	public Appointment getByUid_rNull(String uid) {
-		for (CalendarEntry ce : this) {
-			if (!(ce instanceof Appointment)) continue;
-			Appointment a = (Appointment)ce;
-			if (a.getUid().equals(uid)) return a;
+	
+	/**
+	 * Removes an appointment and its travel time entries from this list.
+	 * @param a The appointment
+	 */
+	public void removeAppointment(Appointment a) {
+		this.removeAppointmentAndTravel(a);
+		
+		if (this.journal != null) {
+			this.journal.appointmentRemoved(a);
+			this.compactJournalIfDue();
+		}
+	}
+	
+	private void removeAppointmentAndTravel(Appointment a) {
+		this.beginUpdate();
+		try {
+			this.removeAll(this.getTravelEntriesLinkedTo(a));
+			this.remove(a);
+		} finally {
+			this.endUpdate();
+		}
+	}
+	
+	/**
+	 * Sets the travel times of an appointment in this list, and adds or removes its
+	 * travel time entries to match.
+	 * @param a The appointment
+	 * @param before Travel time before the appointment, in seconds
+	 * @param after Travel time after the appointment, in seconds
+	 */
+	public void setTravelTimes(Appointment a, int before, int after) {
+		a.setTravelTimeBefore(before);
+		a.setTravelTimeAfter(after);
+		this.syncTravelEntries(a);
+		// the travel of its occurrences is copied into snapshots
+		if (a.isRecurring()) this.snapshotChanged();
+		
+		if (this.journal != null) {
+			this.journal.travelTimesChanged(a);
+			this.compactJournalIfDue();
+		}
+	}
+	
+	/**
+	 * Sets the preparation and debrief times of an appointment in this list.
+	 * @param a The appointment
+	 * @param prep Preparation time, in seconds
+	 * @param debrief Debrief time, in seconds
+	 */
+	public void setPrepAndDebriefTimes(Appointment a, int prep, int debrief) {
+		a.setPrepTime(prep);
+		a.setDebriefTime(debrief);
+		
+		if (this.journal != null) {
+			this.journal.prepAndDebriefTimesChanged(a);
+			this.compactJournalIfDue();
 		}
+	}
+	
+	/**
+	 * Sets whether the user has elected to ignore an appointment in this list.
+	 * @param a The appointment
+	 * @param ignored <code>true</code> to ignore the appointment
+	 */
+	public void setIgnored(Appointment a, boolean ignored) {
+		a.setIgnored(ignored);
 		
-		return null;
+		if (this.journal != null) {
+			this.journal.ignoredChanged(a);
+			this.compactJournalIfDue();
+		}
 	}
 	
+	private void compactJournalIfDue() {
+		if (this.journal.isCompactionDue()) {
+			this.journal.compact(this);
+		}
+	}
+	
+	/*
+	 * Replaces an appointment's travel time entries in this list with the ones it
+	 * has now. They are replaced even if they haven't changed, as their times may
+	 * have, and the views only look again at entries which are added or removed.
+	 */
+	private void syncTravelEntries(Appointment a) {
+		this.beginUpdate();
+		try {
+			this.removeAll(this.getTravelEntriesLinkedTo(a));
+			this.addAll(a.getTravelEntries());
+		} finally {
+			this.endUpdate();
+		}
+	}
+	
+	/**
+	 * Finds the appointment with the supplied uid.
+	 * @param uid uid of the appointment, as found in the source ics calendar
+	 * @return The appointment with the supplied uid, if it is in this list.
+	 * Otherwise, returns <code>null</code>.
+	 */
+	public Appointment getByUid_rNull(String uid) {
+		return this.appointmentsByUid.get(uid);
+	}
+	
+	/**
+	 * Finds the travel time entries in this list which belong to an appointment.
+	 * @param a The appointment
+	 * @return A new list of the travel time entries linked to the appointment. This
+	 * list may be modified freely.
+	 */
 	public ArrayList<TravelTimeEntry> getTravelEntriesLinkedTo(Appointment a) {
-		ArrayList<TravelTimeEntry> ret = new ArrayList<>();
+		ArrayList<TravelTimeEntry> linked = this.travelEntriesByAppointment.get(a);
+		if (linked == null) return new ArrayList<>();
 		
-		for (CalendarEntry ce : this) {
-			if (!(ce instanceof TravelTimeEntry)) continue;
-			TravelTimeEntry tte = (TravelTimeEntry)ce;
-			if (tte.getLinkedAppointment() == a) ret.add(tte);
+		return new ArrayList<>(linked);
+	}
+
+	/**
+	 * Finds all entries in this list which have any part falling within a time
+	 * range, along with the occurrences of recurring appointments which fall within
+	 * it.
+	 */
+	@Override
+	public ArrayList<CalendarEntry> query(long start, long end) {
+		ArrayList<CalendarEntry> ret = super.query(start, end);
+		if (this.recurringAppointments.isEmpty()) return ret;
+		
+		for (Appointment a : this.recurringAppointments) {
+			ret.addAll(a.getOccurrences(start, end));
 		}
+		Collections.sort(ret, startComparator);
 		
 		return ret;
 	}
+	
+	@Override
+	protected CalendarEntrySnapshot<CalendarEntry> extendSnapshot(
+			CalendarEntrySnapshot<CalendarEntry> snapshot) {
+		ArrayList<RecurringValue> recurring = new ArrayList<>();
+		for (Appointment a : this.recurringAppointments) {
+			if (a.hasTimes()) recurring.add(new RecurringValue(a));
+		}
+		return new Snapshot(snapshot, 
+				recurring.toArray(new RecurringValue[recurring.size()]));
+	}
+	
+	/*
+	 * Called when an appointment in this list has been updated from its source
+	 * calendar, which may have changed whether it repeats. Its title and rule are
+	 * copied into snapshots, so a new one is published either way.
+	 */
+	private void appointmentUpdated(Appointment a) {
+		if (a.isRecurring()) {
+			this.recurringAppointments.add(a);
+		}
+		else {
+			this.recurringAppointments.remove(a);
+		}
+		this.snapshotChanged();
+	}
+	
+	@Override
+	protected void elementAdded(CalendarEntry element) {
+		super.elementAdded(element);
+		
+		if (element instanceof Appointment) {
+			Appointment a = (Appointment)element;
+			if (this.appointmentsByUid.putIfAbsent(a.getUid(), a) != null) {
+				this.hasDuplicateUids = true;
+			}
+			if (a.isRecurring()) this.recurringAppointments.add(a);
+		}
+		if (element instanceof TravelTimeEntry) {
+			TravelTimeEntry tte = (TravelTimeEntry)element;
+			Appointment a = tte.getLinkedAppointment();
+			ArrayList<TravelTimeEntry> linked = this.travelEntriesByAppointment.get(a);
+			if (linked == null) {
+				linked = new ArrayList<>(2);
+				this.travelEntriesByAppointment.put(a, linked);
+			}
+			linked.add(tte);
+		}
+	}
+
+	@Override
+	protected void elementRemoved(CalendarEntry element) {
+		super.elementRemoved(element);
+		
+		if (element instanceof Appointment) {
+			Appointment a = (Appointment)element;
+			this.recurringAppointments.remove(a);
+			if (this.appointmentsByUid.get(a.getUid()) == a) {
+				this.appointmentsByUid.remove(a.getUid());
+				if (this.hasDuplicateUids) {
+					this.reindexUid(a.getUid());
+				}
+			}
+		}
+		if (element instanceof TravelTimeEntry) {
+			TravelTimeEntry tte = (TravelTimeEntry)element;
+			Appointment a = tte.getLinkedAppointment();
+			ArrayList<TravelTimeEntry> linked = this.travelEntriesByAppointment.get(a);
+			if (linked == null) return;
+			
+			linked.remove(tte);
+			if (linked.isEmpty()) {
+				this.travelEntriesByAppointment.remove(a);
+			}
+		}
+	}
+	
+	/*
+	 * Only needed if the list has ever held two appointments with the same uid,
+	 * which shouldn't normally happen.
+	 */
+	private void reindexUid(String uid) {
+		for (CalendarEntry ce : this) {
+			if (!(ce instanceof Appointment)) continue;
+			Appointment a = (Appointment)ce;
+			if (a.getUid().equals(uid)) {
+				this.appointmentsByUid.put(uid, a);
+				return;
+			}
+		}
+	}
 }
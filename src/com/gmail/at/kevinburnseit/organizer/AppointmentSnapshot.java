@@ -0,0 +1,315 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.gmail.at.kevinburnseit.swing.calendar.CalendarEntry;
+
+/**
+ * Reads and writes appointment lists in a compact binary form, which loads much
+ * faster than xml. A snapshot is laid out as follows, with all numbers
+ * big-endian:
+ * <ul>
+ * <li>A header: the magic number, the format version, the numbers of records,
+ * excluded dates and strings, and the generation of the snapshot, which tells
+ * {@link AppointmentJournal} whether its records were made after it.</li>
+ * <li>One fixed-width record per appointment, holding its times, travel,
+ * preparation and debrief times, flags, and indexes into the tables which
+ * follow. The start of a recurring appointment is also kept as text, with its
+ * time zone, so that its occurrences are worked out the same way after it is
+ * read back.</li>
+ * <li>The excluded dates of all recurring appointments, as milliseconds.</li>
+ * <li>The string pool: the offset of each string, then the strings themselves in
+ * UTF-8. Each distinct string is stored once.</li>
+ * </ul>
+ * Every appointment is built as soon as the snapshot is read, so the file is read
+ * whole into memory with one call, rather than mapped; a mapping would save
+ * nothing, and on some platforms would keep the file from being replaced until it
+ * was collected. Each string in the pool is only decoded the first time a record
+ * refers to it.
+ * @author Kevin J. Burns
+ *
+ */
+final class AppointmentSnapshot {
+	private static final int magic = 0x5443414C; // "TCAL"
+	private static final int version = 3;
+	private static final int headerSize = 32;
+	private static final int recordSize = 60;
+	/*
+	 * Snapshots of the first version had no generation, and those of the first two
+	 * had no recurrence seeds; their appointments repeat in local time.
+	 */
+	private static final int headerSizeV1 = 24;
+	private static final int recordSizeV2 = 56;
+
+	private static final int FLAG_IGNORED = 1;
+	private static final int FLAG_RECURRING = 2;
+
+	private AppointmentSnapshot() {
+		// static methods only
+	}
+
+	/**
+	 * Writes the appointments in a list to a snapshot. Travel time entries are not
+	 * written, as they are recreated from their appointments. The old snapshot, if
+	 * any, is replaced in one step.
+	 * @param list The list
+	 * @param path Location of the snapshot file
+	 * @throws IOException if the file can't be written
+	 */
+	static void write(AppointmentList list, String path) throws IOException {
+		PersistenceService.writeAtomically(Paths.get(path), encode(list, 0));
+	}
+
+	/**
+	 * Copies the appointments in a list into the buffers of a snapshot, so that
+	 * the snapshot can be written on another thread.
+	 * @param list The list
+	 * @param generation The generation to write in the header
+	 * @return The buffers, ready to be passed to
+	 * {@link PersistenceService#writeAtomically(java.nio.file.Path, ByteBuffer...)}
+	 */
+	static ByteBuffer[] encode(AppointmentList list, long generation) {
+		ArrayList<Appointment> appointments = new ArrayList<>();
+		for (CalendarEntry ce : list) {
+			if (ce instanceof Appointment) appointments.add((Appointment)ce);
+		}
+
+		HashMap<String, Integer> stringIndexes = new HashMap<>();
+		ArrayList<byte[]> strings = new ArrayList<>();
+		ArrayList<long[]> excluded = new ArrayList<>();
+		int stringBytes = 0;
+		int excludedCount = 0;
+
+		ByteBuffer records = ByteBuffer.allocate(appointments.size() * recordSize);
+		for (Appointment a : appointments) {
+			Recurrence r = a.getRecurrence_rNull();
+			int flags = 0;
+			if (a.isIgnored()) flags |= FLAG_IGNORED;
+			if (r != null) flags |= FLAG_RECURRING;
+
+			int[] indexes = new int[4];
+			String[] values = {a.getUid(), a.getTitle(),
+					(r != null) ? r.getRuleString() : "",
+					(r != null) ? r.getSeedString() : ""};
+			for (int i = 0; i < values.length; i++) {
+				String value = (values[i] != null) ? values[i] : "";
+				Integer index = stringIndexes.get(value);
+				if (index == null) {
+					byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+					index = strings.size();
+					stringIndexes.put(value, index);
+					strings.add(bytes);
+					stringBytes += bytes.length;
+				}
+				indexes[i] = index;
+			}
+
+			long[] exdates = (r != null) ? r.getExcluded() : new long[0];
+
+			records.putInt(indexes[0]);
+			records.putInt(indexes[1]);
+			records.putLong(a.getStartMillis());
+			records.putLong(a.getEndMillis());
+			records.putInt(a.getTravelTimeBefore());
+			records.putInt(a.getTravelTimeAfter());
+			records.putInt(a.getPrepTime());
+			records.putInt(a.getDebriefTime());
+			records.putInt(flags);
+			records.putInt(indexes[2]);
+			records.putInt(excludedCount);
+			records.putInt(exdates.length);
+			records.putInt(indexes[3]);
+
+			excluded.add(exdates);
+			excludedCount += exdates.length;
+		}
+		records.flip();
+
+		ByteBuffer header = ByteBuffer.allocate(headerSize);
+		header.putInt(magic);
+		header.putInt(version);
+		header.putInt(appointments.size());
+		header.putInt(excludedCount);
+		header.putInt(strings.size());
+		header.putInt(stringBytes);
+		header.putLong(generation);
+		header.flip();
+
+		ByteBuffer rest = ByteBuffer.allocate(
+				excludedCount * 8 + (strings.size() + 1) * 4 + stringBytes);
+		for (long[] exdates : excluded) {
+			for (long exdate : exdates) {
+				rest.putLong(exdate);
+			}
+		}
+		int offset = 0;
+		for (byte[] bytes : strings) {
+			rest.putInt(offset);
+			offset += bytes.length;
+		}
+		rest.putInt(offset);
+		for (byte[] bytes : strings) {
+			rest.put(bytes);
+		}
+		rest.flip();
+
+		return new ByteBuffer[] {header, records, rest};
+	}
+
+	/**
+	 * Reads a snapshot into a list.
+	 * @param path Location of the snapshot file
+	 * @param into The list to add the appointments and their travel time entries
+	 * to. Changes are reported to its listeners as a single update.
+	 * @throws IOException if the file can't be read or isn't a snapshot
+	 */
+	static void read(String path, AppointmentList into) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)));
+
+		try {
+			int fileVersion = getVersion(buf, path);
+			int recordsStart = (fileVersion == 1) ? headerSizeV1 : headerSize;
+			int recordSize = (fileVersion < 3) ? recordSizeV2 : 
+				AppointmentSnapshot.recordSize;
+			int recordCount = buf.getInt(8);
+			int excludedCount = buf.getInt(12);
+			int stringCount = buf.getInt(16);
+			int stringBytes = buf.getInt(20);
+
+			long expectedSize = recordsStart + (long)recordCount * recordSize +
+					(long)excludedCount * 8 + ((long)stringCount + 1) * 4 + stringBytes;
+			if ((recordCount < 0) || (excludedCount < 0) || (stringCount < 0) ||
+					(stringBytes < 0) || (expectedSize != buf.capacity())) {
+				throw new IOException(path + " is truncated or damaged");
+			}
+			int excludedStart = recordsStart + recordCount * recordSize;
+			int offsetsStart = excludedStart + excludedCount * 8;
+			int stringsStart = offsetsStart + (stringCount + 1) * 4;
+
+			StringPool pool = new StringPool(buf, offsetsStart, stringsStart,
+					stringCount);
+			into.beginUpdate();
+			try {
+				for (int i = 0; i < recordCount; i++) {
+					Appointment a = readRecord(buf, recordsStart + i * recordSize,
+							excludedStart, pool, fileVersion >= 3);
+					into.add(a);
+					into.addAll(a.getTravelEntries());
+				}
+			} finally {
+				into.endUpdate();
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException(path + " is truncated or damaged", e);
+		}
+	}
+
+	private static Appointment readRecord(ByteBuffer buf, int at, int excludedStart,
+			StringPool pool, boolean hasSeed) throws IOException {
+		Appointment a = new Appointment(pool.get(buf.getInt(at)));
+		a.setTitle(pool.get(buf.getInt(at + 4)));
+		a.setTimes(buf.getLong(at + 8), buf.getLong(at + 16));
+		a.setTravelTimeBefore(buf.getInt(at + 24));
+		a.setTravelTimeAfter(buf.getInt(at + 28));
+		a.setPrepTime(buf.getInt(at + 32));
+		a.setDebriefTime(buf.getInt(at + 36));
+
+		int flags = buf.getInt(at + 40);
+		a.setIgnored((flags & FLAG_IGNORED) != 0);
+		if ((flags & FLAG_RECURRING) != 0) {
+			int first = buf.getInt(at + 48);
+			int count = buf.getInt(at + 52);
+			if ((first < 0) || (count < 0)) throw new IndexOutOfBoundsException();
+			long[] exdates = new long[count];
+			for (int i = 0; i < exdates.length; i++) {
+				exdates[i] = buf.getLong(excludedStart + (first + i) * 8);
+			}
+			String rule = pool.get(buf.getInt(at + 44));
+			try {
+				a.setRecurrence(hasSeed ? 
+						new Recurrence(rule, pool.get(buf.getInt(at + 56)), exdates) :
+						new Recurrence(rule, a.getStartMillis(), exdates));
+			} catch (ParseException e) {
+				throw new IOException("Bad recurrence rule for " + a.getUid(), e);
+			}
+		}
+
+		return a;
+	}
+
+	/**
+	 * Reads the generation of a snapshot, which is counted up each time the
+	 * journal is compacted into a new one.
+	 * @param path Location of the snapshot file
+	 * @return The generation, which is 0 for snapshots written without a journal
+	 * @throws IOException if the file can't be read or isn't a snapshot
+	 */
+	static long readGeneration(Path path) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(headerSize);
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			while (buf.hasRemaining() && (fc.read(buf) >= 0)) {
+				// keep reading
+			}
+		}
+		buf.flip();
+
+		try {
+			if (getVersion(buf, path.toString()) == 1) return 0;
+			return buf.getLong(24);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException(path + " is truncated or damaged", e);
+		}
+	}
+
+	private static int getVersion(ByteBuffer buf, String path) throws IOException {
+		int ret = buf.getInt(4);
+		if ((buf.getInt(0) != magic) || (ret < 1) || (ret > version)) {
+			throw new IOException(path + " is not an appointment snapshot");
+		}
+		return ret;
+	}
+
+	/**
+	 * The strings of a snapshot, each decoded the first time it is asked for.
+	 */
+	private static final class StringPool {
+		private final ByteBuffer buf;
+		private final int offsetsStart;
+		private final int stringsStart;
+		private final String[] decoded;
+
+		private StringPool(ByteBuffer buf, int offsetsStart, int stringsStart,
+				int count) {
+			this.buf = buf;
+			this.offsetsStart = offsetsStart;
+			this.stringsStart = stringsStart;
+			this.decoded = new String[count];
+		}
+
+		private String get(int index) {
+			String ret = this.decoded[index];
+			if (ret != null) return ret;
+
+			int from = this.buf.getInt(this.offsetsStart + index * 4);
+			int to = this.buf.getInt(this.offsetsStart + index * 4 + 4);
+			if ((from < 0) || (to < from)) throw new IndexOutOfBoundsException();
+			byte[] bytes = new byte[to - from];
+			ByteBuffer b = this.buf.duplicate();
+			b.position(this.stringsStart + from);
+			b.get(bytes);
+			ret = new String(bytes, StandardCharsets.UTF_8);
+			this.decoded[index] = ret;
+			return ret;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads with numbered names for the background pools, so that
+ * the pools never keep the application alive after the window closes.
+ * @author Kevin J. Burns
+ *
+ */
+class DaemonThreadFactory implements ThreadFactory {
+	private final String namePrefix;
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * Constructor.
+	 * @param namePrefix prefix for the names of the threads, which are followed by
+	 * a number
+	 */
+	DaemonThreadFactory(String namePrefix) {
+		this.namePrefix = namePrefix;
+	}
+
+	@Override
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, this.namePrefix + this.count.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	}
+}
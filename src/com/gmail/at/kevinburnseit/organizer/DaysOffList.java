@@ -1,25 +1,38 @@
 package com.gmail.at.kevinburnseit.organizer;
 
+import java.io.OutputStream;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import java.util.GregorianCalendar;
 
 import com.gmail.at.kevinburnseit.records.ArrayListWithListModel;
 import com.gmail.at.kevinburnseit.swing.calendar.CalendarHelper;
-import com.gmail.at.kevinburnseit.xml.XmlElementReader;
-import com.gmail.at.kevinburnseit.xml.XmlElementWriter;
+import com.gmail.at.kevinburnseit.xml.FileFormatException;
+import com.gmail.at.kevinburnseit.xml.NumericParseException;
 import com.gmail.at.kevinburnseit.xml.XmlHelper;
+import com.gmail.at.kevinburnseit.xml.XmlStreamElementReader;
+import com.gmail.at.kevinburnseit.xml.XmlStreamElementWriter;
 
 /**
  * A list of days off which has a ListModel and can be retrieved from and saved to xml.
+ * The days in the list are also kept in a sorted index, so that finding out whether
+ * a day is a day off doesn't require looking at every date in the list.
  * @author Kevin J. Burns
  *
  */
 public class DaysOffList extends ArrayListWithListModel<DateRecord> {
 	private static final long serialVersionUID = 1288675801079732118L;
 	private final SimpleDateFormat df = new SimpleDateFormat("yyyy.MM.dd");
+	
+	/*
+	 * Distinct days in the list, as epoch days in ascending order, and the number
+	 * of dates in the list which fall on each of them.
+	 */
+	private int[] days = new int[16];
+	private int[] dateCounts = new int[16];
+	private int dayCount = 0;
 
 	/**
 	 * Constructor. Creates an empty list of dates.
@@ -34,15 +47,20 @@ public class DaysOffList extends ArrayListWithListModel<DateRecord> {
 	 * @throws Exception if anything at all goes wrong.
 	 */
 	public DaysOffList(String fromFile) throws Exception {
-		Document doc = XmlHelper.readFile(fromFile);
-		XmlElementReader r = new XmlElementReader(doc.getDocumentElement());
-		ArrayList<Element> dateElements = r.getChildElements("date");
-		
-		for (Element dateElement : dateElements) {
-			XmlElementReader r2 = new XmlElementReader(dateElement);
-			Date date = this.df.parse(r2.getRequiredStringAttribute("date"));
-			this.add(new DateRecord(date));
-		}
+		XmlHelper.readFileAsStream(fromFile, "date", 
+				new XmlStreamElementReader.ElementHandler() {
+			@Override
+			public void handleElement(XmlStreamElementReader r) 
+					throws FileFormatException {
+				Date date;
+				try {
+					date = df.parse(r.getRequiredStringAttribute("date"));
+				} catch (ParseException e) {
+					throw new NumericParseException(r.getLocation(), "date", null);
+				}
+				add(new DateRecord(date));
+			}
+		});
 	}
 	
 	/**
@@ -51,17 +69,28 @@ public class DaysOffList extends ArrayListWithListModel<DateRecord> {
 	 * @throws Exception If anything at all goes wrong.
 	 */
 	public void saveToXml(String path) throws Exception {
-		Document doc = XmlHelper.newDocument("days-off");
-		Element docElement = doc.getDocumentElement();
-		
-		for (Date date : this) {
-			Element e = doc.createElement("date");
-			XmlElementWriter w = new XmlElementWriter(e);
-			w.writeStringAttribute("date", this.df.format(date));
-			docElement.appendChild(e);
-		}
-		
-		XmlHelper.saveFile(doc, path);
+		XmlHelper.saveFileAsStream(path, "days-off", this.getContentWriter());
+	}
+	
+	/**
+	 * Writes this list as an xml document to a stream, which is left open.
+	 * @param out The stream
+	 * @throws Exception if anything goes wrong
+	 */
+	public void saveToXml(OutputStream out) throws Exception {
+		XmlHelper.saveFileAsStream(out, "days-off", this.getContentWriter());
+	}
+	
+	private XmlStreamElementWriter.ContentWriter getContentWriter() {
+		return new XmlStreamElementWriter.ContentWriter() {
+			@Override
+			public void writeContent(XmlStreamElementWriter w) throws Exception {
+				for (Date date : DaysOffList.this) {
+					w.writeEmptyElement("date");
+					w.writeStringAttribute("date", df.format(date));
+				}
+			}
+		};
 	}
 
 	/* (non-Javadoc)
@@ -73,10 +102,100 @@ public class DaysOffList extends ArrayListWithListModel<DateRecord> {
 		if (!(o instanceof DateRecord)) return false;
 		
 		DateRecord find = (DateRecord)o;
-		for (DateRecord d : this) {
-			if (CalendarHelper.areDatesEqual(find, d)) return true;
+		return this.isDayOff(CalendarHelper.getEpochDay(find.getTime()));
+	}
+
+	/**
+	 * Returns whether a date is in this list.
+	 * @param date Date to look for. Only the date matters; the time is ignored.
+	 * @return <code>true</code> if the date is a day off; <code>false</code>
+	 * otherwise.
+	 */
+	public boolean isDayOff(GregorianCalendar date) {
+		return this.isDayOff(CalendarHelper.getEpochDay(date));
+	}
+
+	/**
+	 * Returns whether a day is in this list.
+	 * @param epochDay Day to look for, counted in days since January 1, 1970
+	 * @return <code>true</code> if the day is a day off; <code>false</code>
+	 * otherwise.
+	 */
+	public boolean isDayOff(int epochDay) {
+		return Arrays.binarySearch(this.days, 0, this.dayCount, epochDay) >= 0;
+	}
+
+	/**
+	 * Counts the days off in a range of dates. A day which is in the list more than
+	 * once is only counted once.
+	 * @param first First date of the range
+	 * @param last Last date of the range, which is included in the count
+	 * @return The number of days off in the range
+	 */
+	public int countDaysOffBetween(GregorianCalendar first, GregorianCalendar last) {
+		return this.countDaysOffBetween(
+				CalendarHelper.getEpochDay(first), CalendarHelper.getEpochDay(last));
+	}
+
+	/**
+	 * Counts the days off in a range of days. A day which is in the list more than
+	 * once is only counted once.
+	 * @param firstEpochDay First day of the range, counted in days since
+	 * January 1, 1970
+	 * @param lastEpochDay Last day of the range, which is included in the count
+	 * @return The number of days off in the range
+	 */
+	public int countDaysOffBetween(int firstEpochDay, int lastEpochDay) {
+		if (lastEpochDay < firstEpochDay) return 0;
+		return this.indexOfDay(lastEpochDay + 1) - this.indexOfDay(firstEpochDay);
+	}
+
+	/*
+	 * Gets the index in the day index of the first day on or after epochDay.
+	 */
+	private int indexOfDay(int epochDay) {
+		int ix = Arrays.binarySearch(this.days, 0, this.dayCount, epochDay);
+		return (ix >= 0) ? ix : -(ix + 1);
+	}
+
+	@Override
+	protected void elementAdded(DateRecord element) {
+		if (element == null) return;
+		
+		int day = CalendarHelper.getEpochDay(element.getTime());
+		int ix = Arrays.binarySearch(this.days, 0, this.dayCount, day);
+		if (ix >= 0) {
+			this.dateCounts[ix]++;
+			return;
+		}
+		
+		ix = -(ix + 1);
+		if (this.dayCount == this.days.length) {
+			this.days = Arrays.copyOf(this.days, this.dayCount * 2);
+			this.dateCounts = Arrays.copyOf(this.dateCounts, this.dayCount * 2);
 		}
+		System.arraycopy(this.days, ix, this.days, ix + 1, this.dayCount - ix);
+		System.arraycopy(this.dateCounts, ix, 
+				this.dateCounts, ix + 1, this.dayCount - ix);
+		this.days[ix] = day;
+		this.dateCounts[ix] = 1;
+		this.dayCount++;
+	}
+
+	@Override
+	protected void elementRemoved(DateRecord element) {
+		if (element == null) return;
+		
+		int day = CalendarHelper.getEpochDay(element.getTime());
+		int ix = Arrays.binarySearch(this.days, 0, this.dayCount, day);
+		if (ix < 0) return;
+		
+		this.dateCounts[ix]--;
+		if (this.dateCounts[ix] > 0) return;
 		
-		return false;
+		System.arraycopy(this.days, ix + 1, this.days, ix, this.dayCount - ix - 1);
+		System.arraycopy(this.dateCounts, ix + 1, 
+				this.dateCounts, ix, this.dayCount - ix - 1);
+		this.dayCount--;
 	}
 }
@@ -0,0 +1,88 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+/**
+ * The outcome of downloading a remote calendar.
+ * @author Kevin J. Burns
+ *
+ */
+public final class DownloadResult {
+	public enum StatusEnum {
+		/**
+		 * A new copy of the calendar was downloaded.
+		 */
+		DOWNLOADED,
+		/**
+		 * The server reported that the calendar hasn't changed since the copy on
+		 * disk was downloaded.
+		 */
+		NOT_MODIFIED,
+		/**
+		 * The calendar couldn't be downloaded.
+		 */
+		FAILED;
+	}
+
+	private static final DownloadResult failed =
+			new DownloadResult(StatusEnum.FAILED, null, null, null);
+
+	private final StatusEnum status;
+	private final String path;
+	private final String etag;
+	private final String lastModified;
+
+	private DownloadResult(StatusEnum status, String path, String etag, 
+			String lastModified) {
+		this.status = status;
+		this.path = path;
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	static DownloadResult downloaded(String path, String etag, String lastModified) {
+		return new DownloadResult(StatusEnum.DOWNLOADED, path, etag, lastModified);
+	}
+
+	static DownloadResult notModified(String path) {
+		return new DownloadResult(StatusEnum.NOT_MODIFIED, path, null, null);
+	}
+
+	static DownloadResult failed() {
+		return failed;
+	}
+
+	/**
+	 * Gets what happened when the calendar was downloaded.
+	 * @return the status
+	 */
+	public StatusEnum getStatus() {
+		return status;
+	}
+
+	/**
+	 * Gets the location of the calendar on disk. When the calendar hasn't changed,
+	 * this is the copy downloaded previously.
+	 * @return the path, or <code>null</code> if the download failed
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Gets the ETag header that the server sent with a new copy of the calendar.
+	 * @return the ETag, or <code>null</code> if the server didn't send one or no
+	 * new copy was downloaded
+	 */
+	String getEtag_rNull() {
+		return etag;
+	}
+
+	/**
+	 * Gets the Last-Modified header that the server sent with a new copy of the
+	 * calendar.
+	 * @return the header's value, or <code>null</code> if the server didn't send
+	 * one or no new copy was downloaded
+	 */
+	String getLastModified_rNull() {
+		return lastModified;
+	}
+}
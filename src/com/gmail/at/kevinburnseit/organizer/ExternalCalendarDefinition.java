@@ -1,20 +1,29 @@
 package com.gmail.at.kevinburnseit.organizer;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
 
-import javax.swing.SwingWorker;
+import javax.xml.stream.XMLStreamException;
 
-import org.apache.commons.io.FileUtils;
 import org.w3c.dom.Element;
 
 import com.gmail.at.kevinburnseit.organizer.gui.ExternalCalendarEditor;
 import com.gmail.at.kevinburnseit.records.Record;
 import com.gmail.at.kevinburnseit.records.RecordEditor;
 import com.gmail.at.kevinburnseit.xml.FileFormatException;
+import com.gmail.at.kevinburnseit.xml.XmlAttributeReader;
 import com.gmail.at.kevinburnseit.xml.XmlElementReader;
 import com.gmail.at.kevinburnseit.xml.XmlElementWriter;
+import com.gmail.at.kevinburnseit.xml.XmlStreamElementWriter;
 
 /**
  * Stores necessary information regarding external ics calendars.
@@ -41,11 +50,19 @@ public class ExternalCalendarDefinition implements Record {
 	 * @throws FileFormatException if the xml element is poorly structured
 	 */
 	public ExternalCalendarDefinition(Element from) throws FileFormatException {
-		XmlElementReader r = new XmlElementReader(from);
-		
+		this(new XmlElementReader(from));
+	}
+	
+	/**
+	 * Constructor. Creates an external calendar definition from an xml element,
+	 * which may come from either a DOM or a stream.
+	 * @param r reader for the xml element
+	 * @throws FileFormatException if the xml element is poorly structured
+	 */
+	public ExternalCalendarDefinition(XmlAttributeReader r) throws FileFormatException {
 		this.url = r.getRequiredStringAttribute("url");
 		this.name = r.getRequiredStringAttribute("name", 
-				XmlElementReader.nonEmptyStringValidator);
+				XmlAttributeReader.nonEmptyStringValidator);
 		this.uid = r.getOptionalIntAttribute("uid", this.generateUid());
 		this.alwaysAccept = r.getRequiredBooleanAttribute("auto-accept");
 	}
@@ -117,33 +134,68 @@ public class ExternalCalendarDefinition implements Record {
 	}
 	
 	/**
-	 * Creates a worker thread which, when executed, will download a copy of this
-	 * remote calendar and save it locally. After the download finishes, the worker
-	 * thread will return the location the downloaded calendar can be found on disk.
-	 * If the worker thread runs into problems, it will return <code>null</code>.
+	 * Downloads a copy of this remote calendar and saves it locally, on the calling
+	 * thread. The file is written under a temporary name and only moved into place
+	 * once the download is complete, so a failed download leaves any previous copy
+	 * untouched. If a feed cache is supplied and a previous copy exists, the server
+	 * is asked to send the calendar only if it has changed. The validators that the
+	 * server sends with a new copy are returned in the result, not recorded in the
+	 * cache; the caller records them once the copy has been merged. This is
+	 * normally called by {@link RemoteCalendarDownloader} rather than directly.
 	 * @param saveInFolder local folder where the calendar will be stored
-	 * @return A worker thread. Remember that a SwingWorker can only be executed
-	 * once, so do not store the return value with the intention of calling it again
-	 * in the future.
+	 * @param cache cache of validators for conditional downloads. May be
+	 * <code>null</code>.
+	 * @param listener listener to report progress to. May be <code>null</code>.
+	 * @return the outcome of the download
 	 */
-	public SwingWorker<String, Void> getRemoteCalendarFetcher(String saveInFolder) {
-		return new SwingWorker<String, Void>() {
-			@Override
-			protected String doInBackground() throws Exception {
-				String upstream = url;
-				File localFile = new File(saveInFolder, getLocalFilename());
-				String local = localFile.getAbsolutePath();
-				
-				try {
-					FileUtils.copyURLToFile(
-							new URL(upstream), localFile, 10000, 10000);
-				} catch (IOException e) {
-					return null;
+	public DownloadResult download(String saveInFolder, FeedCache cache,
+			RemoteCalendarDownloader.DownloadListener listener) {
+		File localFile = new File(saveInFolder, getLocalFilename());
+		File partFile = new File(saveInFolder, getLocalFilename() + ".part");
+		
+		try {
+			URLConnection conn = new URL(this.url).openConnection();
+			conn.setConnectTimeout(10000);
+			conn.setReadTimeout(10000);
+			conn.setRequestProperty("Accept-Encoding", "gzip");
+			if ((cache != null) && localFile.exists()) {
+				cache.addConditionalHeaders(this.uid, conn);
+			}
+			
+			if (conn instanceof HttpURLConnection) {
+				int status = ((HttpURLConnection)conn).getResponseCode();
+				if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+					return DownloadResult.notModified(localFile.getAbsolutePath());
+				}
+			}
+			
+			boolean gzipped = "gzip".equalsIgnoreCase(conn.getContentEncoding());
+			// the content length of a compressed response says nothing useful
+			long total = gzipped ? -1 : conn.getContentLengthLong();
+			
+			try (InputStream raw = conn.getInputStream();
+					InputStream in = gzipped ? new GZIPInputStream(raw) : raw;
+					OutputStream out = new FileOutputStream(partFile)) {
+				byte[] buffer = new byte[8192];
+				long done = 0;
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+					done += read;
+					if (listener != null) {
+						listener.downloadProgressed(this, done, total);
+					}
 				}
-				
-				return local;
 			}
-		};
+			
+			Files.move(partFile.toPath(), localFile.toPath(), 
+					StandardCopyOption.REPLACE_EXISTING);
+			return DownloadResult.downloaded(localFile.getAbsolutePath(), 
+					conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+		} catch (IOException e) {
+			partFile.delete();
+			return DownloadResult.failed();
+		}
 	}
 	
 	/**
@@ -167,16 +219,28 @@ public class ExternalCalendarDefinition implements Record {
 	 */
 	public Element saveToXml(Element attachTo) {
 		Element e = attachTo.getOwnerDocument().createElement(xmlTag);
-		XmlElementWriter w = new XmlElementWriter(e);
+		this.writeAttributes(new XmlElementWriter(e));
+		
+		attachTo.appendChild(e);
 		
+		return e;
+	}
+	
+	/**
+	 * Writes this calendar definition as the next element of an xml stream.
+	 * @param w writer for the stream
+	 * @throws XMLStreamException if the stream can't be written to
+	 */
+	public void saveToXml(XmlStreamElementWriter w) throws XMLStreamException {
+		w.writeEmptyElement(xmlTag);
+		this.writeAttributes(w);
+	}
+	
+	private void writeAttributes(XmlElementWriter w) {
 		w.writeBooleanAttribute("auto-accept", this.alwaysAccept);
 		w.writeStringAttribute("url", this.url);
 		w.writeStringAttribute("name", this.name);
 		w.writeIntAttribute("uid", this.uid);
-		
-		attachTo.appendChild(e);
-		
-		return e;
 	}
 
 	/* (non-Javadoc)
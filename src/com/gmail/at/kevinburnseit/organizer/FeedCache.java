@@ -0,0 +1,132 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.util.HashMap;
+
+import com.gmail.at.kevinburnseit.xml.FileFormatException;
+import com.gmail.at.kevinburnseit.xml.XmlHelper;
+import com.gmail.at.kevinburnseit.xml.XmlStreamElementReader;
+import com.gmail.at.kevinburnseit.xml.XmlStreamElementWriter;
+
+/**
+ * Remembers the validators (ETag and Last-Modified headers) that servers sent with
+ * each external calendar, so that the next download can ask the server to send the
+ * calendar only if it has changed. Entries are keyed by the uid of the external
+ * calendar definition, which changes whenever the url does. This class can be used
+ * from several download threads at once.
+ * @author Kevin J. Burns
+ *
+ */
+public class FeedCache {
+	private static final String xmlTag = "feed";
+
+	private static final class Validators {
+		private String etag;
+		private String lastModified;
+	}
+
+	private final HashMap<Integer, Validators> feeds = new HashMap<>();
+
+	/**
+	 * Constructor. Creates an empty cache.
+	 */
+	public FeedCache() {
+		// does nothing
+	}
+
+	/**
+	 * Constructor. Reads a cache from an xml file on disk.
+	 * @param path Path to the xml file
+	 * @throws Exception if anything goes wrong
+	 */
+	public FeedCache(String path) throws Exception {
+		XmlHelper.readFileAsStream(path, xmlTag,
+				new XmlStreamElementReader.ElementHandler() {
+			@Override
+			public void handleElement(XmlStreamElementReader r)
+					throws FileFormatException {
+				Validators v = new Validators();
+				int uid = r.getRequiredIntAttribute("uid");
+				v.etag = r.getOptionalStringAttribute("etag", null);
+				v.lastModified =
+						r.getOptionalStringAttribute("last-modified", null);
+				feeds.put(uid, v);
+			}
+		});
+	}
+
+	/**
+	 * Writes this cache as an xml document to a stream, which is left open.
+	 * @param out The stream
+	 * @throws Exception if anything goes wrong
+	 */
+	public synchronized void saveToXml(OutputStream out) throws Exception {
+		XmlHelper.saveFileAsStream(out, "feed-cache", 
+				new XmlStreamElementWriter.ContentWriter() {
+			@Override
+			public void writeContent(XmlStreamElementWriter w) throws Exception {
+				for (Integer uid : feeds.keySet()) {
+					Validators v = feeds.get(uid);
+					w.writeEmptyElement(xmlTag);
+					w.writeIntAttribute("uid", uid);
+					if (v.etag != null) w.writeStringAttribute("etag", v.etag);
+					if (v.lastModified != null) {
+						w.writeStringAttribute("last-modified", v.lastModified);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds conditional request headers for a calendar to a connection which hasn't
+	 * been opened yet. If nothing is known about the calendar, the connection is
+	 * left as it is.
+	 * @param uid uid of the external calendar definition
+	 * @param conn connection to add the headers to
+	 */
+	synchronized void addConditionalHeaders(int uid, URLConnection conn) {
+		Validators v = this.feeds.get(uid);
+		if (v == null) return;
+
+		if (v.etag != null) conn.setRequestProperty("If-None-Match", v.etag);
+		if (v.lastModified != null) {
+			conn.setRequestProperty("If-Modified-Since", v.lastModified);
+		}
+	}
+
+	/**
+	 * Records the validators that a server sent with a new copy of a calendar. This
+	 * should only be called once the calendar's contents have been merged and saved;
+	 * otherwise, the next download may be skipped even though the changes in this
+	 * copy were never kept.
+	 * @param uid uid of the external calendar definition
+	 * @param result outcome of downloading the calendar. Nothing is recorded unless
+	 * a new copy was downloaded.
+	 */
+	synchronized void update(int uid, DownloadResult result) {
+		if (result.getStatus() != DownloadResult.StatusEnum.DOWNLOADED) return;
+		
+		String etag = result.getEtag_rNull();
+		String lastModified = result.getLastModified_rNull();
+		if ((etag == null) && (lastModified == null)) {
+			this.feeds.remove(uid);
+			return;
+		}
+
+		Validators v = new Validators();
+		v.etag = etag;
+		v.lastModified = lastModified;
+		this.feeds.put(uid, v);
+	}
+
+	/**
+	 * Forgets everything known about a calendar, so that it will be downloaded in
+	 * full next time.
+	 * @param uid uid of the external calendar definition
+	 */
+	synchronized void remove(int uid) {
+		this.feeds.remove(uid);
+	}
+}
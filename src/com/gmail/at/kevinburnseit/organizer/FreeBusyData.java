@@ -0,0 +1,217 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.gmail.at.kevinburnseit.organizer.Appointment.Occurrence;
+import com.gmail.at.kevinburnseit.organizer.Appointment.TravelTimeEntry;
+import com.gmail.at.kevinburnseit.swing.calendar.CalendarEntry;
+import com.gmail.at.kevinburnseit.swing.calendar.CalendarEntryValue;
+
+/**
+ * The contents of a data folder as needed to answer free/busy queries: the work
+ * calendar and the appointments of every external calendar. Once built, the data
+ * is never changed; when the files change, new data is loaded in its place. It
+ * can therefore be queried on any number of threads at once, and the answers for
+ * the most recently asked about ranges are remembered for as long as the data is
+ * in use.
+ * @author Kevin J. Burns
+ *
+ */
+final class FreeBusyData {
+	private static final int maxCachedRanges = 1024;
+
+	/**
+	 * A range of time that has been asked about.
+	 */
+	private static final class Range {
+		private final long from;
+		private final long to;
+
+		private Range(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Range)) return false;
+			Range other = (Range)obj;
+			return (this.from == other.from) && (this.to == other.to);
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(this.from) * 31 + Long.hashCode(this.to);
+		}
+	}
+
+	private static final Comparator<long[]> startComparator = new Comparator<long[]>() {
+		@Override
+		public int compare(long[] x, long[] y) {
+			return Long.compare(x[0], y[0]);
+		}
+	};
+
+	private final WorkCalendar workCalendar;
+	private final Map<Integer, AppointmentList> calendars;
+	/*
+	 * Busy periods by range asked about. Guarded by itself.
+	 */
+	private final LinkedHashMap<Range, long[]> cache =
+			new LinkedHashMap<Range, long[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = -6040719337166393425L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Range, long[]> eldest) {
+			return this.size() > maxCachedRanges;
+		}
+	};
+
+	/**
+	 * Constructor. Neither the work calendar's sources nor the lists may be changed
+	 * after this is called.
+	 * @param workCalendar The user's work schedule
+	 * @param calendars The appointment lists, by the uid of their external calendar
+	 */
+	FreeBusyData(WorkCalendar workCalendar, Map<Integer, AppointmentList> calendars) {
+		this.workCalendar = workCalendar;
+		this.calendars = Collections.unmodifiableMap(calendars);
+	}
+
+	/**
+	 * Gets the appointment lists.
+	 * @return An unmodifiable map of the lists, by the uid of their external
+	 * calendar
+	 */
+	Map<Integer, AppointmentList> getCalendars() {
+		return this.calendars;
+	}
+
+	/**
+	 * Gets the work calendar.
+	 * @return the work calendar
+	 */
+	WorkCalendar getWorkCalendar() {
+		return this.workCalendar;
+	}
+
+	/**
+	 * Finds the periods within a range of time when the user is busy: when they
+	 * have an appointment which they haven't ignored, are travelling to or from
+	 * one, are at lunch, or aren't at work.
+	 * @param from Start of the range, in milliseconds since the epoch
+	 * @param to End of the range, in milliseconds since the epoch. The range stops
+	 * just before this time.
+	 * @return The start and end of each busy period, in milliseconds since the
+	 * epoch, in order. Overlapping periods are joined, and periods are cut off at
+	 * the ends of the range. This array is shared and must not be modified.
+	 */
+	long[] getBusy(long from, long to) {
+		Range r = new Range(from, to);
+		synchronized (this.cache) {
+			long[] ret = this.cache.get(r);
+			if (ret != null) return ret;
+		}
+
+		long[] ret = this.findBusy(from, to);
+		synchronized (this.cache) {
+			this.cache.put(r, ret);
+		}
+		return ret;
+	}
+
+	private long[] findBusy(long from, long to) {
+		ArrayList<long[]> periods = new ArrayList<>();
+		for (AppointmentList al : this.calendars.values()) {
+			for (CalendarEntryValue v : al.getSnapshot().query(from, to - 1)) {
+				// the lists never change, so their entries may be looked at here
+				if (isIgnored(v.getEntry())) continue;
+				periods.add(new long[] {v.getStartMillis(), v.getEndMillis()});
+			}
+		}
+		this.addTimeAwayFromWork(from, to, periods);
+		Collections.sort(periods, startComparator);
+
+		long[] ret = new long[periods.size() * 2];
+		int count = 0;
+		for (long[] p : periods) {
+			long start = Math.max(p[0], from);
+			long end = Math.min(p[1], to);
+			if (start >= end) continue;
+
+			if ((count > 0) && (start <= ret[count - 1])) {
+				ret[count - 1] = Math.max(ret[count - 1], end);
+			}
+			else {
+				ret[count++] = start;
+				ret[count++] = end;
+			}
+		}
+
+		long[] trimmed = new long[count];
+		System.arraycopy(ret, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	private static boolean isIgnored(CalendarEntry ce) {
+		if (ce instanceof Appointment) return ((Appointment)ce).isIgnored();
+		if (ce instanceof TravelTimeEntry) {
+			return ((TravelTimeEntry)ce).getLinkedAppointment().isIgnored();
+		}
+		if (ce instanceof Occurrence) {
+			return ((Occurrence)ce).getLinkedAppointment().isIgnored();
+		}
+		return false;
+	}
+
+	/*
+	 * Adds the parts of each day in the range that are outside working hours, or
+	 * at lunch, or the whole day if the user isn't at work.
+	 */
+	private void addTimeAwayFromWork(long from, long to, ArrayList<long[]> addTo) {
+		GregorianCalendar day = new GregorianCalendar();
+		day.setTimeInMillis(from);
+		day.set(Calendar.HOUR_OF_DAY, 0);
+		day.set(Calendar.MINUTE, 0);
+		day.set(Calendar.SECOND, 0);
+		day.set(Calendar.MILLISECOND, 0);
+
+		while (day.getTimeInMillis() < to) {
+			GregorianCalendar next = (GregorianCalendar)day.clone();
+			next.add(Calendar.DAY_OF_MONTH, 1);
+			long dayStart = day.getTimeInMillis();
+			long dayEnd = next.getTimeInMillis();
+
+			if (!this.workCalendar.isAtWorkOn(day)) {
+				addTo.add(new long[] {dayStart, dayEnd});
+			}
+			else {
+				addTo.add(new long[] {dayStart,
+						timeOfDay(day, this.workCalendar.getWorkStartTime(day))});
+				addTo.add(new long[] {
+						timeOfDay(day, this.workCalendar.getWorkEndTime(day)), dayEnd});
+				if (this.workCalendar.isTakingLunchOn(day)) {
+					addTo.add(new long[] {
+							timeOfDay(day, this.workCalendar.getLunchStartTime(day)),
+							timeOfDay(day, this.workCalendar.getLunchEndTime(day))});
+				}
+			}
+
+			day = next;
+		}
+	}
+
+	private static long timeOfDay(GregorianCalendar day, int secondOfDay) {
+		GregorianCalendar c = (GregorianCalendar)day.clone();
+		c.set(Calendar.HOUR_OF_DAY, secondOfDay / 3600);
+		c.set(Calendar.MINUTE, (secondOfDay / 60) % 60);
+		c.set(Calendar.SECOND, secondOfDay % 60);
+		return c.getTimeInMillis();
+	}
+}
@@ -0,0 +1,481 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.Preferences;
+
+import com.gmail.at.kevinburnseit.metrics.LatencyHistogram;
+import com.gmail.at.kevinburnseit.metrics.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers free/busy queries about the user from the organizer's data folder,
+ * without showing any windows, so that other tools can ask whether the user is
+ * free. The user is busy during appointments they haven't ignored, while
+ * travelling to and from them, at lunch, and outside working hours.
+ * <p>
+ * Queries are answered over http on the local machine:
+ * <pre>
+ * GET /freebusy?from=2026-10-19T09:00&amp;to=2026-10-19T17:00
+ * </pre>
+ * Times may be given as milliseconds since the epoch, or as local dates and times
+ * in the form <code>yyyy-MM-dd</code>, <code>yyyy-MM-dd'T'HH:mm</code> or
+ * <code>yyyy-MM-dd'T'HH:mm:ss</code>. The range stops just before
+ * <code>to</code>. The answer is a JSON object such as
+ * <pre>
+ * {"from":1792400400000,"to":1792429200000,"free":false,
+ *  "busy":[{"start":1792411200000,"end":1792414800000}]}
+ * </pre>
+ * The data folder is watched while the service runs, and whatever changes in it
+ * is read again; only the calendars whose files changed are reloaded. The files
+ * are only ever read, so the service can run alongside the organizer.
+ * @author Kevin J. Burns
+ *
+ */
+public class FreeBusyService {
+	private static final int defaultPort = 8742;
+	private static final long maxRangeMillis = 400L * 86400000L;
+	/*
+	 * How long to wait after the last of a burst of changes before reading the
+	 * files, so that the burst is read once.
+	 */
+	private static final long reloadDelayMillis = 250;
+	private static final String[] scheduleFiles = {
+			"schedule.xml", "holidays.xml", "days-off.xml", "external-calendars.xml"};
+
+	/**
+	 * Thrown when a query can't be understood. Its message is sent back to the
+	 * client as it is, so it is always one of a few fixed strings, and never
+	 * repeats anything from the query.
+	 */
+	private static final class BadQueryException extends Exception {
+		private static final long serialVersionUID = 2975513069327408718L;
+
+		private BadQueryException(String message) {
+			super(message);
+		}
+	}
+
+	private final File dataFolder;
+	private volatile FreeBusyData data;
+	private final ScheduledExecutorService reloader =
+			Executors.newSingleThreadScheduledExecutor(
+					new DaemonThreadFactory("freebusy-reloader-"));
+	/*
+	 * Names of the files which have changed since the last reload. Guarded by
+	 * itself.
+	 */
+	private final HashSet<String> changedFiles = new HashSet<>();
+	/*
+	 * The reload waiting for changes to stop, if any. Guarded by changedFiles.
+	 */
+	private ScheduledFuture<?> pendingReload = null;
+	private final LatencyHistogram queryTime = Metrics.histogram("freebusy", "query");
+	private WatchService watchService = null;
+	private HttpServer server = null;
+	private ExecutorService handlers = null;
+
+	/**
+	 * Starts the service. The arguments are optional: <code>-port n</code> sets the
+	 * port to listen on, and any other argument is taken as the data folder. If no
+	 * data folder is given, the one chosen in the organizer is used.
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		Preferences p = Preferences.userNodeForPackage(Organizer.class);
+		String folder = p.get(Organizer.STG_appDataPath,
+				System.getProperty("user.home") + File.separator + ".organizer");
+		int port = defaultPort;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port") && (i + 1 < args.length)) {
+				port = Integer.parseInt(args[++i]);
+			}
+			else {
+				folder = args[i];
+			}
+		}
+
+		try {
+			FreeBusyService service = new FreeBusyService(folder);
+			service.start(port);
+			System.out.println("Answering free/busy queries for " + folder +
+					" at http://localhost:" + port + "/freebusy");
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Constructor. Reads the data folder.
+	 * @param dataFolder Location of the organizer's data folder
+	 * @throws Exception if the work schedule or the calendar definitions can't be
+	 * read
+	 */
+	public FreeBusyService(String dataFolder) throws Exception {
+		this.dataFolder = new File(dataFolder);
+		this.data = this.load(null, null);
+	}
+
+	/**
+	 * Starts watching the data folder and answering queries over http. Only
+	 * connections from the local machine are accepted.
+	 * @param port Port to listen on
+	 * @throws IOException if the port can't be opened or the folder can't be
+	 * watched
+	 */
+	public void start(int port) throws IOException {
+		this.startWatching();
+
+		/*
+		 * Small answers otherwise wait for the client's delayed acknowledgement
+		 * before they are sent, which limits each connection to a few dozen
+		 * queries a second. This is read when the first server is created.
+		 */
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		this.handlers = Executors.newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors() * 2,
+				new DaemonThreadFactory("freebusy-http-"));
+		this.server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.server.createContext("/freebusy", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleQuery(exchange);
+			}
+		});
+		this.server.setExecutor(this.handlers);
+		this.server.start();
+	}
+
+	/**
+	 * Stops answering queries and watching the data folder.
+	 */
+	public void stop() {
+		if (this.server != null) {
+			this.server.stop(0);
+			this.handlers.shutdown();
+		}
+		if (this.watchService != null) {
+			try {
+				this.watchService.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		this.reloader.shutdown();
+	}
+
+	/**
+	 * Finds the periods within a range of time when the user is busy.
+	 * @param from Start of the range, in milliseconds since the epoch
+	 * @param to End of the range, in milliseconds since the epoch. The range stops
+	 * just before this time.
+	 * @return The start and end of each busy period, in milliseconds since the
+	 * epoch, in order. This array must not be modified.
+	 */
+	public long[] getBusy(long from, long to) {
+		return this.data.getBusy(from, to);
+	}
+
+	/**
+	 * Returns whether the user is free for the whole of a range of time.
+	 * @param from Start of the range, in milliseconds since the epoch
+	 * @param to End of the range, in milliseconds since the epoch. The range stops
+	 * just before this time.
+	 * @return <code>true</code> if the user isn't busy at any time in the range
+	 */
+	public boolean isFree(long from, long to) {
+		return this.getBusy(from, to).length == 0;
+	}
+
+	private void handleQuery(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				this.respond(exchange, 405, "{\"error\":\"Only GET is supported\"}");
+				return;
+			}
+
+			long from;
+			long to;
+			try {
+				HashMap<String, String> params =
+						parseQueryString(exchange.getRequestURI().getRawQuery());
+				from = parseTime(params.get("from"));
+				to = parseTime(params.get("to"));
+			} catch (BadQueryException e) {
+				this.respond(exchange, 400, "{\"error\":\"" + e.getMessage() + "\"}");
+				return;
+			}
+			if ((to <= from) || (to - from > maxRangeMillis)) {
+				this.respond(exchange, 400,
+						"{\"error\":\"to must be after from, and within 400 days\"}");
+				return;
+			}
+
+			long[] busy = this.getBusy(from, to);
+			StringBuilder sb = new StringBuilder(64 + busy.length * 24);
+			sb.append("{\"from\":").append(from);
+			sb.append(",\"to\":").append(to);
+			sb.append(",\"free\":").append(busy.length == 0);
+			sb.append(",\"busy\":[");
+			for (int i = 0; i < busy.length; i += 2) {
+				if (i > 0) sb.append(',');
+				sb.append("{\"start\":").append(busy[i]);
+				sb.append(",\"end\":").append(busy[i + 1]).append('}');
+			}
+			sb.append("]}");
+			this.respond(exchange, 200, sb.toString());
+		} finally {
+			exchange.close();
+			this.queryTime.recordSince(start);
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String json)
+			throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type",
+				"application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static HashMap<String, String> parseQueryString(String query)
+			throws UnsupportedEncodingException, BadQueryException {
+		HashMap<String, String> ret = new HashMap<>();
+		if (query == null) return ret;
+
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq < 0) continue;
+			try {
+				ret.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+						URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			} catch (IllegalArgumentException e) {
+				throw new BadQueryException("The query string is malformed");
+			}
+		}
+		return ret;
+	}
+
+	/*
+	 * Reads a time given as milliseconds since the epoch or as a local date and
+	 * time.
+	 */
+	private static long parseTime(String s) throws BadQueryException {
+		if ((s == null) || s.isEmpty()) {
+			throw new BadQueryException("from and to are required");
+		}
+		if (s.matches("-?\\d+")) {
+			try {
+				return Long.parseLong(s);
+			} catch (NumberFormatException e) {
+				throw new BadQueryException("from and to must be times");
+			}
+		}
+
+		String[] patterns = {"yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd"};
+		for (String pattern : patterns) {
+			SimpleDateFormat format = new SimpleDateFormat(pattern);
+			format.setLenient(false);
+			ParsePosition pos = new ParsePosition(0);
+			Date d = format.parse(s, pos);
+			if ((d != null) && (pos.getIndex() == s.length())) return d.getTime();
+		}
+		throw new BadQueryException("from and to must be times");
+	}
+
+	/*
+	 * Reads the data folder. If old data is given, only the calendars whose files
+	 * are among the changed files are read again, as long as none of the schedule
+	 * files or the calendar definitions changed.
+	 */
+	private FreeBusyData load(FreeBusyData old, HashSet<String> changed)
+			throws Exception {
+		long start = System.nanoTime();
+
+		boolean scheduleChanged = (old == null);
+		if (!scheduleChanged) {
+			for (String name : scheduleFiles) {
+				if (changed.contains(name)) scheduleChanged = true;
+			}
+		}
+
+		WorkCalendar workCalendar;
+		if (scheduleChanged) {
+			StandardWorkWeek workSchedule = new StandardWorkWeek(
+					new File(this.dataFolder, "schedule.xml").getAbsolutePath());
+			File f = new File(this.dataFolder, "holidays.xml");
+			HolidayRuleCollection holidays = f.exists() ?
+					HolidayRuleCollection.fromXmlFile(f.getAbsolutePath()) :
+					new HolidayRuleCollection();
+			f = new File(this.dataFolder, "days-off.xml");
+			DaysOffList daysOff = f.exists() ?
+					new DaysOffList(f.getAbsolutePath()) : new DaysOffList();
+			workCalendar = new WorkCalendar(workSchedule, daysOff, holidays);
+		}
+		else {
+			workCalendar = old.getWorkCalendar();
+		}
+
+		File f = new File(this.dataFolder, "external-calendars.xml");
+		ExternalCalendarCollection defs = f.exists() ?
+				new ExternalCalendarCollection(f.getAbsolutePath()) :
+				new ExternalCalendarCollection();
+
+		HashMap<Integer, AppointmentList> calendars = new HashMap<>();
+		for (ExternalCalendarDefinition def : defs) {
+			int uid = def.getUid();
+			AppointmentList al = null;
+			if (!scheduleChanged && !changed.contains(uid + ".appointments") &&
+					!changed.contains(uid + ".journal") &&
+					!changed.contains(uid + ".xml")) {
+				al = old.getCalendars().get(uid);
+			}
+			else {
+				al = this.readCalendar_rNull(uid);
+				// keep the old appointments if the new ones can't be read yet
+				if ((al == null) && (old != null)) al = old.getCalendars().get(uid);
+			}
+			if (al != null) calendars.put(uid, al);
+		}
+
+		Metrics.histogram("freebusy", "load").recordSince(start);
+		return new FreeBusyData(workCalendar, calendars);
+	}
+
+	/*
+	 * Reads a calendar the same way the organizer does, but leaves the journal as
+	 * it is. Returns null if the calendar hasn't been saved or can't be read.
+	 */
+	private AppointmentList readCalendar_rNull(int uid) {
+		try {
+			AppointmentList al;
+			File snapshot = new File(this.dataFolder, uid + ".appointments");
+			File xml = new File(this.dataFolder, uid + ".xml");
+			if (snapshot.exists()) {
+				al = AppointmentList.fromSnapshot(snapshot.getAbsolutePath());
+			}
+			else if (xml.exists()) {
+				al = new AppointmentList(xml.getAbsolutePath());
+			}
+			else {
+				return null;
+			}
+			AppointmentJournal.read(
+					new File(this.dataFolder, uid + ".journal").getAbsolutePath(),
+					snapshot.getAbsolutePath(), al);
+			return al;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private void startWatching() throws IOException {
+		Path folder = this.dataFolder.toPath();
+		this.watchService = FileSystems.getDefault().newWatchService();
+		folder.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+		Thread watcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "freebusy-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/*
+	 * Runs on the watcher thread until the watch service is closed.
+	 */
+	private void watch() {
+		for (;;) {
+			WatchKey key;
+			try {
+				key = this.watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+
+			for (WatchEvent<?> ev : key.pollEvents()) {
+				if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+					// changes were missed, so read everything again
+					this.fileChanged(scheduleFiles[0]);
+					continue;
+				}
+				String name = ((Path)ev.context()).getFileName().toString();
+				if (name.endsWith(".xml") || name.endsWith(".appointments") ||
+						name.endsWith(".journal")) {
+					this.fileChanged(name);
+				}
+			}
+			if (!key.reset()) return;
+		}
+	}
+
+	private void fileChanged(String name) {
+		synchronized (this.changedFiles) {
+			this.changedFiles.add(name);
+			// start the wait again, so the files are read once the burst is over
+			if (this.pendingReload != null) this.pendingReload.cancel(false);
+			this.pendingReload = this.reloader.schedule(new Runnable() {
+				@Override
+				public void run() {
+					reload();
+				}
+			}, reloadDelayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/*
+	 * Runs on the reloader thread. If the files can't be read, perhaps because one
+	 * is being written, the old data is kept until they change again.
+	 */
+	private void reload() {
+		HashSet<String> changed;
+		synchronized (this.changedFiles) {
+			changed = new HashSet<>(this.changedFiles);
+			this.changedFiles.clear();
+		}
+
+		try {
+			this.data = this.load(this.data, changed);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -3,12 +3,14 @@ package com.gmail.at.kevinburnseit.organizer;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
-import org.w3c.dom.Document;
+import javax.xml.stream.XMLStreamException;
+
 import org.w3c.dom.Element;
 
 import com.gmail.at.kevinburnseit.records.Record;
 import com.gmail.at.kevinburnseit.records.RecordEditor;
 import com.gmail.at.kevinburnseit.xml.XmlElementWriter;
+import com.gmail.at.kevinburnseit.xml.XmlStreamElementWriter;
 
 /**
  * Base class for defining a holiday. Because the day that a holiday falls on varies
@@ -103,24 +105,50 @@ public abstract class HolidayRule implements Record {
 	}
 	
 	/**
-	 * Begins the process for saving this rule to XML. This function saves the
-	 * common elements for any holiday rule to an XML element, and then passes that
-	 * element back as a return value for saving the specifics in subclasses.
-	 * @param doc Document that this element will be saved to
-	 * @param ruleType the rule type, which will be saved in the 'type' attribute
-	 * @return An element with the common parts of all holiday rules already stored.
+	 * Saves this rule to an xml document fragment, and attaches it to its parent.
+	 * @param attachTo element to attach to
+	 * @return the element which was created
 	 */
-	protected final Element beginSaveToXml(Document doc, String ruleType) {
-		Element ret = doc.createElement(xmlTag);
-		XmlElementWriter w = new XmlElementWriter(ret);
+	public final Element saveToXml(Element attachTo) {
+		Element e = attachTo.getOwnerDocument().createElement(xmlTag);
+		this.writeAttributes(new XmlElementWriter(e));
 		
+		attachTo.appendChild(e);
+		return e;
+	}
+	
+	/**
+	 * Writes this rule as the next element of an xml stream.
+	 * @param w Writer for the stream
+	 * @throws XMLStreamException if the stream can't be written to
+	 */
+	public final void saveToXml(XmlStreamElementWriter w) throws XMLStreamException {
+		w.writeEmptyElement(xmlTag);
+		this.writeAttributes(w);
+	}
+	
+	private void writeAttributes(XmlElementWriter w) {
 		w.writeStringAttribute("name", this.name);
 		w.writeBooleanAttribute("observe-on-weekday-only", 
 				this.alwaysObservedOnWeekday);
-		w.writeStringAttribute("type", ruleType);
+		w.writeStringAttribute("type", this.getRuleType());
 		
-		return ret;
+		this.writeRuleAttributes(w);
 	}
+	
+	/**
+	 * Gets the rule type, which is saved in the 'type' attribute so that
+	 * {@link HolidayRuleFactory} can tell which kind of rule to create.
+	 * @return the rule type
+	 */
+	protected abstract String getRuleType();
+	
+	/**
+	 * Writes the attributes which are specific to this kind of rule. The common
+	 * attributes of all holiday rules have already been written.
+	 * @param w writer for the element representing this rule
+	 */
+	protected abstract void writeRuleAttributes(XmlElementWriter w);
 
 	/* (non-Javadoc)
 	 * @see com.gmail.at.kevinburnseit.records.Record#getEditorClass()
@@ -128,8 +156,6 @@ public abstract class HolidayRule implements Record {
 	@Override
 	public abstract Class<? extends RecordEditor<? extends Record>> getEditorClass();
 
-	public abstract Element saveToXml(Element attachTo);
-
 	@Override
 	public final String toString() {
 		return this.getName();
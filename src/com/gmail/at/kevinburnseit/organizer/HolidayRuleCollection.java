@@ -1,19 +1,21 @@
 package com.gmail.at.kevinburnseit.organizer;
 
-import java.util.ArrayList;
+import java.io.OutputStream;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import java.util.HashMap;
 
 import com.gmail.at.kevinburnseit.records.ArrayListWithListModel;
-import com.gmail.at.kevinburnseit.swing.calendar.CalendarHelper;
-import com.gmail.at.kevinburnseit.xml.XmlElementReader;
+import com.gmail.at.kevinburnseit.xml.FileFormatException;
 import com.gmail.at.kevinburnseit.xml.XmlHelper;
+import com.gmail.at.kevinburnseit.xml.XmlStreamElementReader;
+import com.gmail.at.kevinburnseit.xml.XmlStreamElementWriter;
 
 /**
- * A collection of holiday rules.
+ * A collection of holiday rules. The dates that the holidays are observed on are
+ * worked out once per year, the first time that year is asked about, and kept
+ * until the rules in the collection change.
  * @author Kevin J. Burns
  *
  */
@@ -23,6 +25,13 @@ public class HolidayRuleCollection extends ArrayListWithListModel<HolidayRule> {
 	 */
 	private static final long serialVersionUID = 2214257369395648543L;
 	
+	/*
+	 * Observed holidays by year. Bit n of each set is on if the (n + 1)th day of
+	 * that year is observed as a holiday.
+	 */
+	private HashMap<Integer, BitSet> observedDatesByYear = 
+			new HashMap<>();
+	
 	/**
 	 * Loads the list of holidays from an xml file on disk.
 	 * @param path Path to xml file
@@ -32,17 +41,17 @@ public class HolidayRuleCollection extends ArrayListWithListModel<HolidayRule> {
 	 */
 	public static HolidayRuleCollection fromXmlFile(String path) throws Exception {
 		HolidayRuleCollection ret = new HolidayRuleCollection();
-		Document doc = XmlHelper.readFile(path);
-		
-		Element docElement = doc.getDocumentElement();
-		XmlElementReader r = new XmlElementReader(docElement);
-		ArrayList<Element> ruleElements = r.getChildElements(HolidayRule.xmlTag);
-		
 		HolidayRuleFactory factory = new HolidayRuleFactory(ret);
-		for (Element e : ruleElements) {
-			HolidayRule rule = factory.fromXml(e);
-			ret.add(rule);
-		}
+		
+		XmlHelper.readFileAsStream(path, HolidayRule.xmlTag, 
+				new XmlStreamElementReader.ElementHandler() {
+			@Override
+			public void handleElement(XmlStreamElementReader r) 
+					throws FileFormatException {
+				HolidayRule rule = factory.fromXml(r);
+				ret.add(rule);
+			}
+		});
 		
 		return ret;
 	}
@@ -53,13 +62,27 @@ public class HolidayRuleCollection extends ArrayListWithListModel<HolidayRule> {
 	 * @throws Exception if anything goes wrong
 	 */
 	public void saveToXml(String path) throws Exception {
-		Document doc = XmlHelper.newDocument("holiday-rules");
-		
-		for (HolidayRule rule : this) {
-			rule.saveToXml(doc.getDocumentElement());
-		}
-		
-		XmlHelper.saveFile(doc, path);
+		XmlHelper.saveFileAsStream(path, "holiday-rules", this.getContentWriter());
+	}
+	
+	/**
+	 * Writes this collection as an xml document to a stream, which is left open.
+	 * @param out The stream
+	 * @throws Exception if anything goes wrong
+	 */
+	public void saveToXml(OutputStream out) throws Exception {
+		XmlHelper.saveFileAsStream(out, "holiday-rules", this.getContentWriter());
+	}
+	
+	private XmlStreamElementWriter.ContentWriter getContentWriter() {
+		return new XmlStreamElementWriter.ContentWriter() {
+			@Override
+			public void writeContent(XmlStreamElementWriter w) throws Exception {
+				for (HolidayRule rule : HolidayRuleCollection.this) {
+					rule.saveToXml(w);
+				}
+			}
+		};
 	}
 
 	/**
@@ -84,13 +107,59 @@ public class HolidayRuleCollection extends ArrayListWithListModel<HolidayRule> {
 	 * <code>false</code> otherwise.
 	 */
 	public boolean isHoliday(GregorianCalendar date) {
-		int year = date.get(Calendar.YEAR);
+		return this.isHoliday(
+				date.get(Calendar.YEAR), date.get(Calendar.DAY_OF_YEAR));
+	}
+
+	/**
+	 * Determines if a day is a holiday based on the holiday rules programmed here.
+	 * @param year Year of the day to examine
+	 * @param dayOfYear Day of the year to examine, where 1 is January 1
+	 * @return <code>true</code> if the day is observed as a holiday;
+	 * <code>false</code> otherwise.
+	 */
+	public boolean isHoliday(int year, int dayOfYear) {
+		return this.getObservedDates(year).get(dayOfYear - 1);
+	}
+
+	/**
+	 * Discards all observed dates worked out so far. This happens automatically
+	 * whenever a rule is added to or removed from this collection; it only needs
+	 * to be called directly after a rule already in the collection is modified.
+	 */
+	public void invalidateObservedDates() {
+		this.observedDatesByYear.clear();
+	}
+
+	private BitSet getObservedDates(int year) {
+		BitSet ret = this.observedDatesByYear.get(year);
+		if (ret != null) return ret;
+		
+		ret = new BitSet(366);
+		/*
+		 * A holiday shifted off a weekend can be observed in the year before or
+		 * after the one it belongs to, e.g. January 1 observed on December 31.
+		 */
 		for (HolidayRule rule : this) {
-			GregorianCalendar obsDate = rule.getObservedDateOfHoliday(year);
-			if (CalendarHelper.areDatesEqual(obsDate, date)) {
-				return true;
+			for (int y = year - 1; y <= year + 1; y++) {
+				GregorianCalendar obsDate = rule.getObservedDateOfHoliday(y);
+				if (obsDate.get(Calendar.YEAR) == year) {
+					ret.set(obsDate.get(Calendar.DAY_OF_YEAR) - 1);
+				}
 			}
 		}
-		return false;
+		
+		this.observedDatesByYear.put(year, ret);
+		return ret;
+	}
+
+	@Override
+	protected void elementAdded(HolidayRule element) {
+		this.invalidateObservedDates();
+	}
+
+	@Override
+	protected void elementRemoved(HolidayRule element) {
+		this.invalidateObservedDates();
 	}
 }
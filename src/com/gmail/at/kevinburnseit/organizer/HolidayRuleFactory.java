@@ -4,8 +4,9 @@ import org.w3c.dom.Element;
 
 import com.gmail.at.kevinburnseit.swing.calendar.CalendarHelper;
 import com.gmail.at.kevinburnseit.xml.FileFormatException;
+import com.gmail.at.kevinburnseit.xml.XmlAttributeReader;
 import com.gmail.at.kevinburnseit.xml.XmlElementReader;
-import com.gmail.at.kevinburnseit.xml.XmlElementReader.AttributeValidator;
+import com.gmail.at.kevinburnseit.xml.XmlAttributeReader.AttributeValidator;
 
 /**
  * A utility class for loading holiday rules from xml elements. This class is
@@ -101,10 +102,20 @@ public class HolidayRuleFactory {
 	 * @throws FileFormatException If there are issues with the document structure
 	 */
 	public HolidayRule fromXml(Element from) throws FileFormatException {
-		XmlElementReader r = new XmlElementReader(from);
-		
+		return this.fromXml(new XmlElementReader(from));
+	}
+	
+	/**
+	 * Reads a holiday rule from an xml element, which may come from either a DOM
+	 * or a stream.
+	 * @param r reader for the xml element
+	 * @return A holiday rule, if a valid one can be created from the supplied 
+	 * xml element. If no rule can be created, returns <code>null</code>.
+	 * @throws FileFormatException If there are issues with the document structure
+	 */
+	public HolidayRule fromXml(XmlAttributeReader r) throws FileFormatException {
 		String name = r.getRequiredStringAttribute("name", 
-				XmlElementReader.nonEmptyStringValidator);
+				XmlAttributeReader.nonEmptyStringValidator);
 		boolean weekdayOnly = r.getRequiredBooleanAttribute("observe-on-weekday-only");
 		String type = r.getRequiredStringAttribute("type");
 		
@@ -2,8 +2,6 @@ package com.gmail.at.kevinburnseit.organizer;
 
 import java.util.GregorianCalendar;
 
-import org.w3c.dom.Element;
-
 import com.gmail.at.kevinburnseit.organizer.gui.HolidayEditorFixedDay;
 import com.gmail.at.kevinburnseit.records.Record;
 import com.gmail.at.kevinburnseit.records.RecordEditor;
@@ -29,16 +27,14 @@ public class HolidayRuleFixedDay extends HolidayRule {
 	}
 	
 	@Override
-	public Element saveToXml(Element attachTo) {
-		Element e = this.beginSaveToXml(attachTo.getOwnerDocument(), ruleType);
-		
-		XmlElementWriter w = new XmlElementWriter(e);
+	protected String getRuleType() {
+		return ruleType;
+	}
+	
+	@Override
+	protected void writeRuleAttributes(XmlElementWriter w) {
 		w.writeIntAttribute("month", this.month);
 		w.writeIntAttribute("day", this.day);
-		
-		attachTo.appendChild(e);
-		
-		return e;
 	}
 
 	@Override
@@ -3,8 +3,6 @@ package com.gmail.at.kevinburnseit.organizer;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
-import org.w3c.dom.Element;
-
 import com.gmail.at.kevinburnseit.organizer.gui.HolidayEditorNthDay;
 import com.gmail.at.kevinburnseit.records.Record;
 import com.gmail.at.kevinburnseit.records.RecordEditor;
@@ -55,15 +53,15 @@ public class HolidayRuleNthDay extends HolidayRule {
 	}
 
 	@Override
-	public Element saveToXml(Element attachTo) {
-		Element e = this.beginSaveToXml(attachTo.getOwnerDocument(), ruleType);
-		XmlElementWriter w = new XmlElementWriter(e);
+	protected String getRuleType() {
+		return ruleType;
+	}
+
+	@Override
+	protected void writeRuleAttributes(XmlElementWriter w) {
 		w.writeIntAttribute("month", this.month);
 		w.writeIntAttribute("day-of-week", this.dayOfWeek);
 		w.writeIntAttribute("which", this.whichOccurence);
-		
-		attachTo.appendChild(e);
-		return e;
 	}
 
 	/**
@@ -3,8 +3,6 @@ package com.gmail.at.kevinburnseit.organizer;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
-import org.w3c.dom.Element;
-
 import com.gmail.at.kevinburnseit.organizer.gui.HolidayEditorRelative;
 import com.gmail.at.kevinburnseit.records.Record;
 import com.gmail.at.kevinburnseit.records.RecordEditor;
@@ -34,15 +32,14 @@ public class HolidayRuleRelative extends HolidayRule {
 	}
 
 	@Override
-	public Element saveToXml(Element attachTo) {
-		Element e = this.beginSaveToXml(attachTo.getOwnerDocument(), ruleType);
-		XmlElementWriter w = new XmlElementWriter(e);
-		
+	protected String getRuleType() {
+		return ruleType;
+	}
+
+	@Override
+	protected void writeRuleAttributes(XmlElementWriter w) {
 		w.writeStringAttribute("ref", this.reference.getName());
 		w.writeIntAttribute("days-after", this.daysAfterReference);
-		
-		attachTo.appendChild(e);
-		return e;
 	}
 
 	/**
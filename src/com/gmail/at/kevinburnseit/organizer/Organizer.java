@@ -7,29 +7,35 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.concurrent.ExecutionException;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
 import javax.swing.BorderFactory;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
-import javax.swing.SwingWorker;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
-import javax.swing.SwingWorker.StateValue;
 
-import com.gmail.at.kevinburnseit.organizer.Appointment.TravelTimeEntry;
+import com.gmail.at.kevinburnseit.metrics.EventQueueMonitor;
+import com.gmail.at.kevinburnseit.metrics.Metrics;
 import com.gmail.at.kevinburnseit.organizer.gui.AbortOrContinueSetupDialog;
 import com.gmail.at.kevinburnseit.organizer.gui.AbortOrContinueSetupDialog.ResultEnum;
 import com.gmail.at.kevinburnseit.organizer.gui.DataFolderDialog;
@@ -41,14 +47,11 @@ import com.gmail.at.kevinburnseit.organizer.gui.MenuLabel.MenuLabelAction;
 import com.gmail.at.kevinburnseit.organizer.gui.MenuPane;
 import com.gmail.at.kevinburnseit.organizer.gui.StandardWorkWeekEditor;
 import com.gmail.at.kevinburnseit.swing.DialogResult;
-import com.gmail.at.kevinburnseit.swing.calendar.CalendarEntry;
 import com.gmail.at.kevinburnseit.swing.calendar.CalendarWidget;
 import com.gmail.at.kevinburnseit.swing.calendar.DailyScheduleProvider;
 
 import net.fortuna.ical4j.data.CalendarBuilder;
 import net.fortuna.ical4j.data.ParserException;
-import net.fortuna.ical4j.model.component.CalendarComponent;
-import net.fortuna.ical4j.model.component.VEvent;
 import net.fortuna.ical4j.util.CompatibilityHints;
 
 /**
@@ -62,7 +65,7 @@ public class Organizer extends JFrame
 	 * 
 	 */
 	private static final long serialVersionUID = -1532652861021682522L;
-	private static final String STG_appDataPath = "data-folder";
+	static final String STG_appDataPath = "data-folder";
 	private static final String STG_initialSetupComplete = "init-setup-complete";
 
 	private String appDataPath =
@@ -74,9 +77,23 @@ public class Organizer extends JFrame
 	private boolean initialSetupComplete = false;
 	private static final String scheduleFilename = "schedule.xml";
 	private ArrayList<DailyScheduleListener> scheduleListeners = new ArrayList<>();
+	private WorkCalendar workCalendar = null;
+	private final RemoteCalendarDownloader downloader = 
+			new RemoteCalendarDownloader(8, 2);
+	private FeedCache feedCache = new FeedCache();
+	private final ExecutorService parser = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), 
+			new DaemonThreadFactory("calendar-parser-"));
 	private HashMap<ExternalCalendarDefinition, AppointmentList> appointments = 
 			new HashMap<>();
+	/*
+	 * Completes on the event dispatch thread once each calendar has been read from
+	 * disk, with its list, or with null if it hadn't been saved or couldn't be read.
+	 */
+	private HashMap<ExternalCalendarDefinition, CompletableFuture<AppointmentList>>
+			loads = new HashMap<>();
 	private CalendarWidget calendarWidget;
+	private final PersistenceService persistence = new PersistenceService(500);
 	
 	public static void main(String[] args) {
 		try {
@@ -85,6 +102,7 @@ public class Organizer extends JFrame
 				| UnsupportedLookAndFeelException e) {
 			e.printStackTrace();
 		}
+		EventQueueMonitor.install();
 		Organizer org = new Organizer();
 		org.setVisible(true);
 	}
@@ -103,9 +121,26 @@ public class Organizer extends JFrame
 			}
 		}
 		
+		this.persistence.setFailureListener(new PersistenceService.FailureListener() {
+			@Override
+			public void saveFailed(final String path, Exception e) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						JOptionPane.showMessageDialog(Organizer.this, 
+								"Could not write " + path + " to disk.");
+					}
+				});
+			}
+		});
+		
 		this.addWindowListener(new WindowAdapter() {
 			@Override
 			public void windowClosing(WindowEvent e) {
+				for (AppointmentList al : appointments.values()) {
+					al.getJournal_rNull().close();
+				}
+				persistence.shutdown();
 				try {
 					saveSettings();
 				} catch (BackingStoreException e1) {
@@ -118,9 +153,7 @@ public class Organizer extends JFrame
 		
 		this.loadNecessaryFiles();
 		
-		this.buildUI();
-		
-		this.loadCalendarsFromXml();
+		this.loadCalendarsFromDisk();
 		
 		this.addScheduleListener(new DailyScheduleListener() {
 			@Override
@@ -130,68 +163,220 @@ public class Organizer extends JFrame
 		});
 	}
 	
+	/*
+	 * The files are read at the same time on the parser pool, while the window is
+	 * built. Nothing is shown until they have all been read, since the calendar
+	 * views need the work schedule to lay themselves out.
+	 */
 	private void loadNecessaryFiles() {
+		CompletableFuture<StandardWorkWeek> schedule = 
+				this.loadAsync(new Callable<StandardWorkWeek>() {
+			@Override
+			public StandardWorkWeek call() throws Exception {
+				return readWorkSchedule();
+			}
+		});
+		CompletableFuture<HolidayRuleCollection> holidays = 
+				this.loadAsync(new Callable<HolidayRuleCollection>() {
+			@Override
+			public HolidayRuleCollection call() throws Exception {
+				return readHolidays();
+			}
+		});
+		CompletableFuture<DaysOffList> daysOff = 
+				this.loadAsync(new Callable<DaysOffList>() {
+			@Override
+			public DaysOffList call() throws Exception {
+				return readDaysOff();
+			}
+		});
+		CompletableFuture<ExternalCalendarCollection> extCalendars = 
+				this.loadAsync(new Callable<ExternalCalendarCollection>() {
+			@Override
+			public ExternalCalendarCollection call() throws Exception {
+				return readExternalCalendarDefinitions();
+			}
+		});
+		CompletableFuture<FeedCache> feedCache = 
+				this.loadAsync(new Callable<FeedCache>() {
+			@Override
+			public FeedCache call() throws Exception {
+				return readFeedCache();
+			}
+		});
+		
+		this.buildUI();
+		
 		try {
-			this.loadWorkSchedule();
-		} catch (Exception e) {
+			this.workSchedule = schedule.join();
+		} catch (CompletionException e) {
 			JOptionPane.showMessageDialog(this, 
 					"Could not load work schedule from file.");
 		}
 		
 		try {
-			this.loadHolidaysFromDisk();
-		} catch (Exception e) {
+			this.holidays = holidays.join();
+		} catch (CompletionException e) {
 			JOptionPane.showMessageDialog(this, 
 					"Could not load holidays from file.");
 		}
 		
 		try {
-			this.loadDaysOffFromDisk();
-		} catch (Exception e) {
+			this.daysOff = daysOff.join();
+		} catch (CompletionException e) {
 			JOptionPane.showMessageDialog(this, "Could not load days off from file.");
 		}
+		this.workCalendar = null;
 		
 		try {
-			this.loadExternalCalendarDefinitions();
-		} catch (Exception e) {
+			this.extCalendars = extCalendars.join();
+		} catch (CompletionException e) {
 			JOptionPane.showMessageDialog(this, 
 					"Could not load external calendar definitions from file.");
 		}
-	}
-
-	private void loadCalendarsFromXml() {
-		for (ExternalCalendarDefinition def : this.extCalendars) {
-			String localFile = def.getUid() + ".xml";
-			String path = (new File(this.appDataPath, localFile)).getAbsolutePath();
-			try {
-				AppointmentList al = new AppointmentList(path);
-				this.appointments.put(def, al);
-				this.calendarWidget.addCalendarEntryProvider(al);
-			} catch (Exception e) {
-				// TODO reload from ics file
-			}
+		
+		try {
+			this.feedCache = feedCache.join();
+		} catch (CompletionException e) {
+			/*
+			 * The cache only saves time; without it, every calendar is simply
+			 * downloaded in full.
+			 */
+			this.feedCache = new FeedCache();
 		}
+		this.downloader.setFeedCache(this.feedCache);
 		
+		this.calendarWidget.setScheduleProvider(this);
 		this.calendarWidget.rebuildAllCalendars();
 	}
+	
+	private <T> CompletableFuture<T> loadAsync(final Callable<T> loader) {
+		return CompletableFuture.supplyAsync(new Supplier<T>() {
+			@Override
+			public T get() {
+				try {
+					return loader.call();
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, this.parser);
+	}
 
-	private void loadExternalCalendarDefinitions() throws Exception {
+	/*
+	 * Each calendar is read on the parser pool, and shown as soon as it has been
+	 * read, so the window doesn't wait for the calendars, and a large calendar
+	 * doesn't hold up the others. A calendar which is downloaded before it has been
+	 * read is merged once it has been.
+	 */
+	private void loadCalendarsFromDisk() {
+		for (final ExternalCalendarDefinition def : this.extCalendars) {
+			final CompletableFuture<AppointmentList> load = new CompletableFuture<>();
+			this.loads.put(def, load);
+			this.parser.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						final AppointmentList al = readCalendar_rNull(def);
+						SwingUtilities.invokeLater(new Runnable() {
+							@Override
+							public void run() {
+								if (al != null) showLoadedCalendar(def, al);
+								load.complete(al);
+							}
+						});
+					} catch (Exception e) {
+						e.printStackTrace();
+						/*
+						 * Nothing is merged into a calendar which couldn't be read, so
+						 * that its saved files, and the user's changes in them, are
+						 * left for the next start rather than replaced.
+						 */
+						SwingUtilities.invokeLater(new Runnable() {
+							@Override
+							public void run() {
+								load.completeExceptionally(e);
+							}
+						});
+					}
+				}
+			});
+		}
+	}
+	
+	/*
+	 * Runs on the parser pool. Each calendar's appointments are kept in a binary
+	 * snapshot. Calendars saved before snapshots were introduced are imported from
+	 * their xml files. Returns null if the calendar hasn't been saved yet.
+	 */
+	private AppointmentList readCalendar_rNull(ExternalCalendarDefinition def) 
+			throws Exception {
+		AppointmentList al;
+		File snapshot = this.getSnapshotFile(def);
+		File xml = new File(this.appDataPath, def.getUid() + ".xml");
+		if (snapshot.exists()) {
+			al = AppointmentList.fromSnapshot(snapshot.getAbsolutePath());
+		}
+		else if (xml.exists()) {
+			al = new AppointmentList(xml.getAbsolutePath());
+		}
+		else {
+			return null;
+		}
+		AppointmentJournal journal = this.createJournal(def);
+		journal.replay(al);
+		al.setJournal(journal);
+		if (!snapshot.exists()) journal.compact(al);
+		Metrics.gauge("entries", String.valueOf(def.getUid())).set(al.size());
+		return al;
+	}
+	
+	private void showLoadedCalendar(ExternalCalendarDefinition def, 
+			AppointmentList al) {
+		this.appointments.put(def, al);
+		this.calendarWidget.addAndShowCalendarEntryProvider(al);
+	}
+
+	private ExternalCalendarCollection readExternalCalendarDefinitions() 
+			throws Exception {
 		File f = new File(this.appDataPath, "external-calendars.xml");
-		if (!f.exists()) return;
+		if (!f.exists()) return new ExternalCalendarCollection();
 		
-		this.extCalendars = new ExternalCalendarCollection(f.getAbsolutePath());
+		return new ExternalCalendarCollection(f.getAbsolutePath());
+	}
+	
+	private FeedCache readFeedCache() throws Exception {
+		File f = new File(this.appDataPath, "feed-cache.xml");
+		if (!f.exists()) return new FeedCache();
+		
+		return new FeedCache(f.getAbsolutePath());
+	}
+	
+	private void saveFeedCache() throws Exception {
+		File f = new File(this.appDataPath, "feed-cache.xml");
+		this.persistence.save(f.getAbsolutePath(), new PersistenceService.ContentWriter() {
+			@Override
+			public void writeContent(OutputStream out) throws Exception {
+				feedCache.saveToXml(out);
+			}
+		});
 	}
 	
 	private void saveExternalCalendarDefinitions() throws Exception {
 		File f = new File(this.appDataPath, "external-calendars.xml");
-		this.extCalendars.saveToXml(f.getAbsolutePath());
+		this.persistence.save(f.getAbsolutePath(), new PersistenceService.ContentWriter() {
+			@Override
+			public void writeContent(OutputStream out) throws Exception {
+				extCalendars.saveToXml(out);
+			}
+		});
 	}
 
-	private void loadDaysOffFromDisk() throws Exception {
+	private DaysOffList readDaysOff() throws Exception {
 		File f = new File(this.appDataPath, "days-off.xml");
-		if (!f.exists()) return;
+		if (!f.exists()) return new DaysOffList();
 		
-		this.daysOff = new DaysOffList(f.getAbsolutePath());
+		return new DaysOffList(f.getAbsolutePath());
 	}
 
 	private void buildUI() {
@@ -291,7 +476,6 @@ public class Organizer extends JFrame
 		menu.add(externalCalendarsLabel);
 
 		this.calendarWidget = new CalendarWidget();
-		calendarWidget.setScheduleProvider(this);
 		c = new GridBagConstraints();
 		c.gridx = 1;
 		c.gridy = 0;
@@ -303,118 +487,187 @@ public class Organizer extends JFrame
 		this.pack();
 	}
 
+	/**
+	 * Downloads all external calendars and merges their events into the calendar
+	 * views. Each calendar is parsed as soon as its own download finishes, and
+	 * merged as soon as it has been parsed, so a slow feed doesn't hold up the
+	 * others.
+	 */
 	protected void doFullRefresh() {
-		SwingWorker<HashMap<ExternalCalendarDefinition, String>, Void> sw = 
-				this.extCalendars.getRemoteCalendarFetcher(appDataPath);
-		sw.execute();
-		sw.addPropertyChangeListener(new PropertyChangeListener() {
+		CompatibilityHints.setHintEnabled(CompatibilityHints.KEY_RELAXED_PARSING, true);
+		/*
+		 * The worker threads mustn't look at the appointment lists, which belong to
+		 * the event dispatch thread, so note which calendars have one now.
+		 */
+		HashSet<ExternalCalendarDefinition> loaded = 
+				new HashSet<>(this.appointments.keySet());
+		
+		ArrayList<CompletableFuture<Void>> stages = new ArrayList<>();
+		for (ExternalCalendarDefinition def : this.extCalendars) {
+			CompletableFuture<DownloadResult> download = 
+					this.downloader.download(def, this.appDataPath, null);
+			CompletableFuture<Void> stage = download.thenApplyAsync(
+					new Function<DownloadResult, net.fortuna.ical4j.model.Calendar>() {
+				@Override
+				public net.fortuna.ical4j.model.Calendar apply(DownloadResult result) {
+					return parseIcsFile(def, result, loaded.contains(def));
+				}
+			}, this.parser).thenCompose(new Function<net.fortuna.ical4j.model.Calendar,
+					CompletionStage<Void>>() {
+				@Override
+				public CompletionStage<Void> apply(net.fortuna.ical4j.model.Calendar ics) {
+					if (ics == null) return CompletableFuture.completedFuture(null);
+					return mergeOnEventThread(def, ics).thenRun(new Runnable() {
+						@Override
+						public void run() {
+							/*
+							 * Only now that the merged appointments are on disk may
+							 * the server be told that this copy has been seen.
+							 */
+							feedCache.update(def.getUid(), download.join());
+						}
+					});
+				}
+			});
+			stages.add(stage);
+		}
+		
+		CompletableFuture.allOf(stages.toArray(new CompletableFuture<?>[stages.size()]))
+				.whenComplete(new BiConsumer<Void, Throwable>() {
 			@Override
-			public void propertyChange(PropertyChangeEvent ev) {
-				if ("state".equals(ev.getPropertyName())) {
-					if (ev.getNewValue().equals(StateValue.DONE)) {
+			public void accept(Void v, Throwable t) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
 						try {
-							readIcsFiles(sw.get());
-						} catch (InterruptedException | ExecutionException e) {
-							JOptionPane.showMessageDialog(null, "Refresh failed.");
+							saveFeedCache();
+						} catch (Exception e) {
+							e.printStackTrace();
 						}
 					}
-				}
+				});
 			}
 		});
 	}
 	
-	private void readIcsFiles(HashMap<ExternalCalendarDefinition, String> files) {
-		HashMap<ExternalCalendarDefinition, net.fortuna.ical4j.model.Calendar> icsMap =
-				new HashMap<>();
-		CompatibilityHints.setHintEnabled(CompatibilityHints.KEY_RELAXED_PARSING, true);
-		for (ExternalCalendarDefinition key : files.keySet()) {
-			try (FileInputStream fis = new FileInputStream(files.get(key))) {
-				CalendarBuilder builder = new CalendarBuilder();
-				net.fortuna.ical4j.model.Calendar ics = builder.build(fis);
-				icsMap.put(key, ics);
-			} catch (FileNotFoundException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				continue;
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				continue;
-			} catch (ParserException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-				continue;
-			} catch (NullPointerException e) {
-				/*
-				 * An attempt has been made to download this calendar and the 
-				 * download failed. Use null as a placeholder for the expected
-				 * ics calendar so the program knows not to change any items
-				 * from this calendar.
-				 */
-				JOptionPane.showMessageDialog(null, 
-						"Could not download external calendar '" + key.getName() + 
-						"' from the internet.");
-				icsMap.put(key, null);
-			}
-		}
-		
-		this.createCalendarEntries(icsMap);
-	}
-
-	private void createCalendarEntries(HashMap<ExternalCalendarDefinition, 
-			net.fortuna.ical4j.model.Calendar> icsMap) {
-		
-		for (ExternalCalendarDefinition def : icsMap.keySet()) {
-			if (!this.appointments.containsKey(def)) {
-				AppointmentList al = new AppointmentList();
-				this.appointments.put(def, al);
-				this.calendarWidget.addCalendarEntryProvider(al);
-			}
-			
-			net.fortuna.ical4j.model.Calendar cal = icsMap.get(def);
-			AppointmentList al = this.appointments.get(def);
-			
-			for (CalendarComponent c : cal.getComponents()) {
-				if (!(c instanceof VEvent)) continue;
-				VEvent ve = (VEvent)c;
-				String uid = ve.getUid().getValue();
-				Appointment a = al.getByUid_rNull(uid);
-				if (a == null) {
-					if (def.isAlwaysAccept()) {
-						a = new Appointment(ve);
-						al.add(a);
-						for (CalendarEntry tte : a.getTravelEntries()) {
-							al.add(tte);
+	/*
+	 * Merges a calendar on the event dispatch thread, once it has been read from
+	 * disk, so that the user's changes to the saved appointments are kept. The
+	 * future completes once the merged appointments have been saved, or completes
+	 * exceptionally if they couldn't be.
+	 */
+	private CompletableFuture<Void> mergeOnEventThread(ExternalCalendarDefinition def,
+			net.fortuna.ical4j.model.Calendar cal) {
+		CompletableFuture<Void> ret = new CompletableFuture<>();
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				CompletableFuture<AppointmentList> load = loads.get(def);
+				if (load == null) load = CompletableFuture.completedFuture(null);
+				// loads complete on this thread, so the merge runs here too
+				load.thenCompose(new Function<AppointmentList, CompletionStage<Void>>() {
+					@Override
+					public CompletionStage<Void> apply(AppointmentList al) {
+						try {
+							return mergeCalendar(def, cal);
+						} catch (RuntimeException e) {
+							e.printStackTrace();
+							throw e;
 						}
 					}
-					else {
-						/*
-						 * TODO add to notification queue for user acceptance
-						 */
-					}
-				}
-				else {
-					a.update(ve);
-					ArrayList<CalendarEntry> keepTravelEntries = a.getTravelEntries();
-					for (TravelTimeEntry tte : al.getTravelEntriesLinkedTo(a)) {
-						if (!keepTravelEntries.contains(tte)) {
-							al.remove(tte);
+				}).whenComplete(new BiConsumer<Void, Throwable>() {
+					@Override
+					public void accept(Void v, Throwable t) {
+						if (t == null) {
+							ret.complete(null);
+						}
+						else {
+							ret.completeExceptionally(t);
 						}
 					}
-				}
-			}
-			
-			String filename = "" + def.getUid() + ".xml";
-			String path = (new File(this.appDataPath, filename)).getAbsolutePath();
-			try {
-				al.saveToXml(path);
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				});
 			}
+		});
+		return ret;
+	}
+	
+	/*
+	 * Runs on the parser pool. Returns null if there is nothing to merge.
+	 */
+	private net.fortuna.ical4j.model.Calendar parseIcsFile(
+			ExternalCalendarDefinition def, DownloadResult result, boolean loaded) {
+		if (result.getStatus() == DownloadResult.StatusEnum.FAILED) {
+			/*
+			 * Leave this calendar's items alone until it can be downloaded.
+			 */
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					JOptionPane.showMessageDialog(null, 
+							"Could not download external calendar '" + 
+							def.getName() + "' from the internet.");
+				}
+			});
+			return null;
+		}
+		if ((result.getStatus() == DownloadResult.StatusEnum.NOT_MODIFIED) && 
+				loaded) {
+			/*
+			 * The items from the unchanged calendar were merged and saved the last
+			 * time it was downloaded.
+			 */
+			return null;
 		}
 		
+		long start = System.nanoTime();
+		try (FileInputStream fis = new FileInputStream(result.getPath())) {
+			CalendarBuilder builder = new CalendarBuilder();
+			net.fortuna.ical4j.model.Calendar ret = builder.build(fis);
+			Metrics.histogram("parse", String.valueOf(def.getUid()))
+					.recordSince(start);
+			return ret;
+		} catch (IOException | ParserException | RuntimeException e) {
+			e.printStackTrace();
+			// make sure the calendar is downloaded and parsed again next time
+			this.feedCache.remove(def.getUid());
+			return null;
+		}
+	}
+
+	/*
+	 * Returns a future which completes once the merged list has been saved. A new
+	 * list is only made if the calendar has finished loading without one, because
+	 * it had never been saved.
+	 */
+	private CompletableFuture<Void> mergeCalendar(ExternalCalendarDefinition def, 
+			net.fortuna.ical4j.model.Calendar cal) {
+		if (!this.appointments.containsKey(def)) {
+			AppointmentList al = new AppointmentList();
+			al.setJournal(this.createJournal(def));
+			this.appointments.put(def, al);
+			this.calendarWidget.addCalendarEntryProvider(al);
+		}
 		
+		AppointmentList al = this.appointments.get(def);
+		long start = System.nanoTime();
+		al.merge(cal, def.isAlwaysAccept());
+		Metrics.histogram("merge", String.valueOf(def.getUid())).recordSince(start);
+		Metrics.gauge("entries", String.valueOf(def.getUid())).set(al.size());
+		return al.getJournal_rNull().compact(al);
+	}
+
+	private File getSnapshotFile(ExternalCalendarDefinition def) {
+		return new File(this.appDataPath, def.getUid() + ".appointments");
+	}
+	
+	/*
+	 * Changes to a calendar's appointments are journaled until the next merge
+	 * writes a new snapshot.
+	 */
+	private AppointmentJournal createJournal(ExternalCalendarDefinition def) {
+		File f = new File(this.appDataPath, def.getUid() + ".journal");
+		return new AppointmentJournal(f.getAbsolutePath(), 
+				this.getSnapshotFile(def).getAbsolutePath());
 	}
 
 	private boolean doInitialSetup() {
@@ -536,85 +789,94 @@ public class Organizer extends JFrame
 	 */
 	public void setWorkSchedule(StandardWorkWeek workSchedule) {
 		this.workSchedule = workSchedule;
+		this.workCalendar = null;
 	}
 	
-	private void loadWorkSchedule() throws Exception {
+	private StandardWorkWeek readWorkSchedule() throws Exception {
 		File f = new File(this.getAppDataPath(), Organizer.scheduleFilename);
-		this.workSchedule = new StandardWorkWeek(f.getAbsolutePath());
+		return new StandardWorkWeek(f.getAbsolutePath());
 	}
 	
 	private void saveWorkSchedule() throws Exception {
 		File f = new File(this.getAppDataPath(), Organizer.scheduleFilename);
-		this.workSchedule.saveToXmlFile(f.getAbsolutePath());
+		this.persistence.save(f.getAbsolutePath(), new PersistenceService.ContentWriter() {
+			@Override
+			public void writeContent(OutputStream out) throws Exception {
+				workSchedule.saveToXml(out);
+			}
+		});
 	}
 	
 	private void saveDaysOffToDisk() throws Exception {
 		File f = new File(Organizer.this.getAppDataPath(), "days-off.xml");
-		this.daysOff.saveToXml(f.getAbsolutePath());
+		this.persistence.save(f.getAbsolutePath(), new PersistenceService.ContentWriter() {
+			@Override
+			public void writeContent(OutputStream out) throws Exception {
+				daysOff.saveToXml(out);
+			}
+		});
 	}
 
 	private void saveHolidaysToDisk() throws Exception {
 		File f = new File(Organizer.this.getAppDataPath(), "holidays.xml");
-		this.holidays.saveToXml(f.getAbsolutePath());
+		this.persistence.save(f.getAbsolutePath(), new PersistenceService.ContentWriter() {
+			@Override
+			public void writeContent(OutputStream out) throws Exception {
+				holidays.saveToXml(out);
+			}
+		});
 	}
 	
-	private void loadHolidaysFromDisk() throws Exception {
+	private HolidayRuleCollection readHolidays() throws Exception {
 		File f = new File(Organizer.this.getAppDataPath(), "holidays.xml");
 		if (!f.exists()) {
-			this.holidays = new HolidayRuleCollection();
+			return new HolidayRuleCollection();
 		}
 		else {
-			this.holidays = HolidayRuleCollection.fromXmlFile(f.getAbsolutePath());
+			return HolidayRuleCollection.fromXmlFile(f.getAbsolutePath());
 		}
 	}
 
-	@Override
-	public boolean isAtWorkOn(GregorianCalendar date) {
-		if (this.daysOff.contains(new DateRecord(date.getTime()))) return false;
-		if (this.holidays.isHoliday(date)) return false;
-		
-		DayEnum dow = getDayOfWeek(date);
-		return this.workSchedule.get(dow).isWorkingToday();
+	/*
+	 * The work calendar is compiled from the work schedule, days off and holidays,
+	 * and has to be thrown away whenever one of them is replaced.
+	 */
+	private WorkCalendar getWorkCalendar() {
+		if (this.workCalendar == null) {
+			this.workCalendar = 
+					new WorkCalendar(this.workSchedule, this.daysOff, this.holidays);
+		}
+		return this.workCalendar;
 	}
 
-	private DayEnum getDayOfWeek(GregorianCalendar date) {
-		int javaDOW = date.get(Calendar.DAY_OF_WEEK);
-		int dow = javaDOW - 2;
-		if (dow < 0) {
-			dow += 7;
-		}
-		return DayEnum.values()[dow];
+	@Override
+	public boolean isAtWorkOn(GregorianCalendar date) {
+		return this.getWorkCalendar().isAtWorkOn(date);
 	}
 
 	@Override
 	public boolean isTakingLunchOn(GregorianCalendar date) {
-		DayEnum dow = this.getDayOfWeek(date);
-		return this.workSchedule.get(dow).isTakingLunchToday();
+		return this.getWorkCalendar().isTakingLunchOn(date);
 	}
 
 	@Override
 	public int getWorkStartTime(GregorianCalendar date) {
-		DayEnum dow = this.getDayOfWeek(date);
-		return this.workSchedule.get(dow).getStartTime();
+		return this.getWorkCalendar().getWorkStartTime(date);
 	}
 
 	@Override
 	public int getWorkEndTime(GregorianCalendar date) {
-		DayEnum dow = this.getDayOfWeek(date);
-		return this.workSchedule.get(dow).getEndTime();
+		return this.getWorkCalendar().getWorkEndTime(date);
 	}
 
 	@Override
 	public int getLunchStartTime(GregorianCalendar date) {
-		DayEnum dow = this.getDayOfWeek(date);
-		return this.workSchedule.get(dow).getLunchTime();
+		return this.getWorkCalendar().getLunchStartTime(date);
 	}
 
 	@Override
 	public int getLunchEndTime(GregorianCalendar date) {
-		DayEnum dow = this.getDayOfWeek(date);
-		StandardWorkDay workDay = this.workSchedule.get(dow);
-		return workDay.getLunchTime() + workDay.getLunchDurationMinutes() * 60;
+		return this.getWorkCalendar().getLunchEndTime(date);
 	}
 	
 	public void addScheduleListener(DailyScheduleListener l) {
@@ -626,6 +888,9 @@ public class Organizer extends JFrame
 	}
 	
 	private void notifyScheduleListeners() {
+		if (this.workCalendar != null) {
+			this.workCalendar.invalidate();
+		}
 		for (DailyScheduleListener l : this.scheduleListeners) {
 			l.dailyScheduleChanged(this);
 		}
@@ -0,0 +1,223 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.gmail.at.kevinburnseit.metrics.Metrics;
+
+/**
+ * Saves files in the background, so that a slow disk doesn't hold up the user
+ * interface. The contents of a file are captured when it is saved, on the calling
+ * thread, and written a short time later by a single background writer. If the
+ * same file is saved again before then, only the newest contents are written.
+ * <p>
+ * Each file is written to a temporary file in the same folder, forced to disk,
+ * and then moved over the old file in one step, so a crash leaves either the old
+ * contents or the new ones, never a mixture.
+ * @author Kevin J. Burns
+ *
+ */
+public class PersistenceService {
+	/**
+	 * Writes the contents of a file.
+	 * @author Kevin J. Burns
+	 *
+	 */
+	public interface ContentWriter {
+		/**
+		 * Writes the contents of the file to a stream.
+		 * @param out The stream, which must be left open
+		 * @throws Exception if anything goes wrong
+		 */
+		void writeContent(OutputStream out) throws Exception;
+	}
+
+	/**
+	 * Is told when a file can't be written.
+	 * @author Kevin J. Burns
+	 *
+	 */
+	public interface FailureListener {
+		/**
+		 * Called on the writer thread when a file can't be written.
+		 * @param path Location of the file
+		 * @param e What went wrong
+		 */
+		void saveFailed(String path, Exception e);
+	}
+
+	private final long delayMillis;
+	private final ScheduledExecutorService writer =
+			Executors.newSingleThreadScheduledExecutor(
+					new DaemonThreadFactory("persistence-"));
+	/*
+	 * Contents waiting to be written, by file. Guarded by this.
+	 */
+	private final LinkedHashMap<Path, byte[]> pending = new LinkedHashMap<>();
+	private FailureListener failureListener = null;
+
+	/**
+	 * Constructor.
+	 * @param delayMillis How long to wait after a file is first saved before
+	 * writing it, so that further saves of it can be folded into one write
+	 */
+	public PersistenceService(long delayMillis) {
+		this.delayMillis = delayMillis;
+	}
+
+	/**
+	 * Sets the listener to be told when a file can't be written.
+	 * @param l the listener, or <code>null</code> for none
+	 */
+	public synchronized void setFailureListener(FailureListener l) {
+		this.failureListener = l;
+	}
+
+	/**
+	 * Saves a file. The contents are written into memory now, and to disk later.
+	 * @param path Location of the file
+	 * @param content Writes the contents of the file
+	 * @throws Exception if the contents can't be written into memory
+	 */
+	public void save(String path, ContentWriter content) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+		content.writeContent(out);
+		final Path p = Paths.get(path);
+
+		synchronized (this) {
+			boolean scheduled = this.pending.containsKey(p);
+			this.pending.put(p, out.toByteArray());
+			if (scheduled) return;
+		}
+
+		this.writer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				writePending(p);
+			}
+		}, this.delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes every file saved so far without waiting any longer, and waits until
+	 * they have been written.
+	 */
+	public void flush() {
+		try {
+			this.writer.submit(new Runnable() {
+				@Override
+				public void run() {
+					ArrayList<Path> paths;
+					synchronized (PersistenceService.this) {
+						paths = new ArrayList<>(pending.keySet());
+					}
+					for (Path p : paths) {
+						writePending(p);
+					}
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/*
+	 * Runs on the writer thread. Does nothing if the file has already been written
+	 * by a flush.
+	 */
+	private void writePending(Path p) {
+		byte[] bytes;
+		synchronized (this) {
+			bytes = this.pending.remove(p);
+		}
+		if (bytes == null) return;
+
+		long start = System.nanoTime();
+		try {
+			writeAtomically(p, ByteBuffer.wrap(bytes));
+			Metrics.histogram("persist", p.getFileName().toString()).recordSince(start);
+		} catch (IOException e) {
+			e.printStackTrace();
+			FailureListener l;
+			synchronized (this) {
+				l = this.failureListener;
+			}
+			if (l != null) l.saveFailed(p.toString(), e);
+		}
+	}
+
+	/**
+	 * Replaces a file in one step. The new contents are written to a temporary file
+	 * in the same folder and forced to disk, and the temporary file is then moved
+	 * over the old one. The folder is forced to disk afterwards as well, where the
+	 * platform allows it, so that the move itself survives a crash.
+	 * @param target Location of the file
+	 * @param buffers The new contents. They are used up by this call.
+	 * @throws IOException if the file can't be written
+	 */
+	public static void writeAtomically(Path target, ByteBuffer... buffers)
+			throws IOException {
+		Path folder = target.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(folder,
+				target.getFileName().toString() + ".", ".tmp");
+		try {
+			long remaining = 0;
+			for (ByteBuffer b : buffers) {
+				remaining += b.remaining();
+			}
+			try (FileChannel fc = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while (remaining > 0) {
+					remaining -= fc.write(buffers);
+				}
+				fc.force(true);
+			}
+
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			forceFolder(folder);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/*
+	 * Some platforms, Windows among them, can't open a folder to force it; there
+	 * the move is as durable as the file system makes it.
+	 */
+	private static void forceFolder(Path folder) {
+		try (FileChannel fc = FileChannel.open(folder, StandardOpenOption.READ)) {
+			fc.force(true);
+		} catch (IOException e) {
+			// nothing more can be done
+		}
+	}
+
+	/**
+	 * Writes any files still waiting, and stops the writer.
+	 */
+	public void shutdown() {
+		this.flush();
+		this.writer.shutdown();
+	}
+}
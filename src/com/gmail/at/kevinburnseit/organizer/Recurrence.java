@@ -0,0 +1,205 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.fortuna.ical4j.model.Date;
+import net.fortuna.ical4j.model.DateList;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Recur;
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.TimeZoneRegistry;
+import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
+import net.fortuna.ical4j.model.parameter.Value;
+
+/**
+ * The rule by which a recurring appointment repeats, along with the occurrences
+ * which are left out of it, either because the calendar excludes them (EXDATE) or
+ * because the calendar replaces them with separate events (RECURRENCE-ID).
+ * Occurrences are never stored; they are worked out for a range of time when that
+ * range is asked about. The most recently asked about ranges are remembered, as
+ * views ask about the same few weeks over and over. Apart from that cache, objects
+ * of this class don't change, so an appointment whose rule changes gets a new one.
+ * @author Kevin J. Burns
+ *
+ */
+final class Recurrence {
+	private static final int maxCachedWindows = 8;
+	/*
+	 * Made the first time a seed in a time zone is read. Guarded by the class.
+	 */
+	private static TimeZoneRegistry timeZones = null;
+
+	/**
+	 * A range of time that occurrences have been worked out for.
+	 */
+	private static final class Window {
+		private final long from;
+		private final long to;
+
+		private Window(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Window)) return false;
+			Window other = (Window)obj;
+			return (this.from == other.from) && (this.to == other.to);
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(this.from) * 31 + Long.hashCode(this.to);
+		}
+	}
+
+	private final Recur rule;
+	private final Date seed;
+	private final long[] excluded;
+	private final LinkedHashMap<Window, long[]> windows =
+			new LinkedHashMap<Window, long[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 3512283542861911402L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Window, long[]> eldest) {
+			return this.size() > maxCachedWindows;
+		}
+	};
+
+	/**
+	 * Constructor.
+	 * @param rule The recurrence rule
+	 * @param seed The start of the first occurrence, as given in the calendar. Its
+	 * time zone, if any, is used to work out the other occurrences.
+	 * @param excluded The starts of occurrences which are to be left out, in
+	 * milliseconds since the epoch, in any order
+	 */
+	Recurrence(Recur rule, Date seed, long[] excluded) {
+		this.rule = rule;
+		this.seed = seed;
+		this.excluded = excluded.clone();
+		Arrays.sort(this.excluded);
+	}
+
+	/**
+	 * Constructor. Reads a recurrence in the form written by {@link #getRuleString()}
+	 * and {@link #getSeedString()}.
+	 * @param rule The recurrence rule, as text
+	 * @param seed The start of the first occurrence, as text
+	 * @param excluded The starts of occurrences which are to be left out
+	 * @throws ParseException if the rule or the seed can't be read
+	 */
+	Recurrence(String rule, String seed, long[] excluded) throws ParseException {
+		this(new Recur(rule), parseSeed(seed), excluded);
+	}
+
+	/**
+	 * Constructor. Reads a recurrence saved before the seed's time zone was kept.
+	 * @param rule The recurrence rule, as text
+	 * @param seedMillis The start of the first occurrence, in milliseconds since the
+	 * epoch. Other occurrences are worked out in the local time zone.
+	 * @param excluded The starts of occurrences which are to be left out
+	 * @throws ParseException if the rule can't be read
+	 */
+	Recurrence(String rule, long seedMillis, long[] excluded) throws ParseException {
+		this(new Recur(rule), new DateTime(seedMillis), excluded);
+	}
+
+	/**
+	 * Gets the recurrence rule as text, in the form used in ics files.
+	 * @return the rule
+	 */
+	String getRuleString() {
+		return this.rule.toString();
+	}
+
+	/**
+	 * Gets the start of the first occurrence as text, in the form of the value of a
+	 * DTSTART property with its parameters: a date is written as
+	 * <code>VALUE=DATE:20260302</code>, a time in a time zone as
+	 * <code>TZID=America/New_York:20260302T090000</code>, and a time in UTC or in
+	 * local time as <code>20260302T140000Z</code> or <code>20260302T090000</code>.
+	 * Occurrences are worked out in the same time zone when the text is read back.
+	 * @return the seed
+	 */
+	String getSeedString() {
+		if (!(this.seed instanceof DateTime)) return "VALUE=DATE:" + this.seed;
+
+		DateTime dt = (DateTime)this.seed;
+		if (!dt.isUtc() && (dt.getTimeZone() != null)) {
+			return "TZID=" + dt.getTimeZone().getID() + ":" + dt;
+		}
+		return dt.toString();
+	}
+
+	private static Date parseSeed(String text) throws ParseException {
+		if (text.startsWith("VALUE=DATE:")) {
+			return new Date(text.substring("VALUE=DATE:".length()));
+		}
+		if (text.startsWith("TZID=")) {
+			int colon = text.indexOf(':');
+			if (colon < 0) throw new ParseException(text, 0);
+			// a zone this system doesn't know is read as local time
+			TimeZone tz = getTimeZone_rNull(text.substring("TZID=".length(), colon));
+			return new DateTime(text.substring(colon + 1), tz);
+		}
+		return new DateTime(text);
+	}
+
+	private static synchronized TimeZone getTimeZone_rNull(String id) {
+		if (timeZones == null) {
+			timeZones = TimeZoneRegistryFactory.getInstance().createRegistry();
+		}
+		return timeZones.getTimeZone(id);
+	}
+
+	/**
+	 * Gets the starts of the occurrences which are left out.
+	 * @return A new array of the starts, in milliseconds since the epoch, in order
+	 */
+	long[] getExcluded() {
+		return this.excluded.clone();
+	}
+
+	/**
+	 * Finds the occurrences which start within a range of time. The first
+	 * occurrence, at the seed, is included if it falls within the range.
+	 * @param from Earliest start to find, in milliseconds since the epoch
+	 * @param to Latest start to find, in milliseconds since the epoch
+	 * @return The starts of the occurrences, in order. This array is shared and must
+	 * not be modified.
+	 */
+	synchronized long[] getStartsBetween(long from, long to) {
+		Window w = new Window(from, to);
+		long[] ret = this.windows.get(w);
+		if (ret != null) return ret;
+
+		if (to < this.seed.getTime()) {
+			ret = new long[0];
+		}
+		else {
+			Value value = (this.seed instanceof DateTime) ?
+					Value.DATE_TIME : Value.DATE;
+			DateList dates = this.rule.getDates(this.seed,
+					new DateTime(from), new DateTime(to), value);
+
+			ret = new long[dates.size()];
+			int count = 0;
+			for (Object o : dates) {
+				long start = ((java.util.Date)o).getTime();
+				if (Arrays.binarySearch(this.excluded, start) >= 0) continue;
+				ret[count] = start;
+				count++;
+			}
+			ret = Arrays.copyOf(ret, count);
+			Arrays.sort(ret);
+		}
+
+		this.windows.put(w, ret);
+		return ret;
+	}
+}
@@ -0,0 +1,266 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import com.gmail.at.kevinburnseit.metrics.Metrics;
+
+/**
+ * Downloads remote calendars in parallel on a dedicated pool of threads. The number
+ * of downloads running against any one host at a time is limited, so that a user
+ * with many calendars on the same server doesn't flood it; downloads beyond the
+ * limit wait in a queue and are started as earlier ones finish.
+ * @author Kevin J. Burns
+ *
+ */
+public class RemoteCalendarDownloader {
+	/**
+	 * Receives progress reports for downloads. All methods are called on the
+	 * download threads, so implementations which touch Swing components need to
+	 * pass the work on to the event dispatch thread.
+	 * @author Kevin J. Burns
+	 *
+	 */
+	public interface DownloadListener {
+		/**
+		 * Called when a download leaves the queue and starts running.
+		 * @param def calendar being downloaded
+		 */
+		void downloadStarted(ExternalCalendarDefinition def);
+		/**
+		 * Called each time more of a calendar has been received.
+		 * @param def calendar being downloaded
+		 * @param bytesRead number of bytes received so far
+		 * @param totalBytes size of the calendar, or -1 if the server didn't say
+		 */
+		void downloadProgressed(ExternalCalendarDefinition def,
+				long bytesRead, long totalBytes);
+		/**
+		 * Called when a download has finished, successfully or not.
+		 * @param def calendar which was downloaded
+		 * @param result outcome of the download
+		 */
+		void downloadFinished(ExternalCalendarDefinition def, DownloadResult result);
+	}
+
+	/**
+	 * Downloads for one host which are running or waiting to run.
+	 */
+	private static final class HostQueue {
+		private int running = 0;
+		private final ArrayDeque<DownloadTask> waiting = new ArrayDeque<>();
+	}
+
+	/**
+	 * A download of one calendar, and the future which reports its outcome. The
+	 * future is completed however the task ends: normally, by a listener throwing,
+	 * or by being abandoned when the downloader shuts down.
+	 */
+	private final class DownloadTask implements Runnable {
+		private final ExternalCalendarDefinition def;
+		private final String host;
+		private final String saveInFolder;
+		private final DownloadListener listener;
+		private final CompletableFuture<DownloadResult> future = 
+				new CompletableFuture<>();
+
+		private DownloadTask(ExternalCalendarDefinition def, String host, 
+				String saveInFolder, DownloadListener listener) {
+			this.def = def;
+			this.host = host;
+			this.saveInFolder = saveInFolder;
+			this.listener = listener;
+		}
+
+		@Override
+		public void run() {
+			DownloadResult result = DownloadResult.failed();
+			long start = System.nanoTime();
+			try {
+				try {
+					if (this.listener != null) this.listener.downloadStarted(this.def);
+					result = this.def.download(
+							this.saveInFolder, feedCache, this.listener);
+				} catch (RuntimeException e) {
+					result = DownloadResult.failed();
+				} finally {
+					downloadFinished(this.host);
+				}
+				Metrics.histogram("download", String.valueOf(this.def.getUid()))
+						.recordSince(start);
+
+				if (this.listener != null) {
+					this.listener.downloadFinished(this.def, result);
+				}
+			} catch (RuntimeException e) {
+				this.future.completeExceptionally(e);
+				e.printStackTrace();
+			} finally {
+				this.future.complete(result);
+			}
+		}
+
+		/*
+		 * Called instead of run when the task will never be run.
+		 */
+		private void abandon() {
+			this.future.cancel(false);
+		}
+	}
+
+	private final ExecutorService executor;
+	private final int maxDownloadsPerHost;
+	private final HashMap<String, HostQueue> hosts = new HashMap<>();
+	private volatile FeedCache feedCache = null;
+
+	/**
+	 * Constructor.
+	 * @param threads the most downloads that may run at the same time
+	 * @param maxDownloadsPerHost the most downloads that may run at the same time
+	 * against any one host
+	 */
+	public RemoteCalendarDownloader(int threads, int maxDownloadsPerHost) {
+		if (threads < 1) throw new IllegalArgumentException("threads");
+		if (maxDownloadsPerHost < 1) {
+			throw new IllegalArgumentException("maxDownloadsPerHost");
+		}
+
+		this.maxDownloadsPerHost = maxDownloadsPerHost;
+		this.executor = Executors.newFixedThreadPool(threads, 
+				new DaemonThreadFactory("calendar-download-"));
+	}
+
+	/**
+	 * Sets the cache used to avoid downloading calendars which haven't changed.
+	 * @param feedCache the cache to use, or <code>null</code> to always download
+	 * calendars in full
+	 */
+	public void setFeedCache(FeedCache feedCache) {
+		this.feedCache = feedCache;
+	}
+
+	/**
+	 * Starts downloading a calendar, or queues it if its host is already busy.
+	 * @param def calendar to download
+	 * @param saveInFolder folder in which the downloaded file is to be saved
+	 * @param listener listener for progress reports. May be <code>null</code>.
+	 * @return A future which completes with the outcome of the download.
+	 */
+	public CompletableFuture<DownloadResult> download(ExternalCalendarDefinition def,
+			String saveInFolder, DownloadListener listener) {
+		String host = getHost(def.getUrl());
+		DownloadTask task = new DownloadTask(def, host, saveInFolder, listener);
+		this.submit(host, task);
+		return task.future;
+	}
+
+	/**
+	 * Downloads a group of calendars.
+	 * @param defs calendars to download
+	 * @param saveInFolder folder in which all downloaded files are to be saved
+	 * @param listener listener for progress reports. May be <code>null</code>.
+	 * @return A future which completes when all of the downloads have finished. Its
+	 * value is a map with the calendar definitions as the keys and the outcomes of
+	 * their downloads as the values.
+	 */
+	public CompletableFuture<HashMap<ExternalCalendarDefinition, DownloadResult>> 
+			downloadAll(
+			Collection<ExternalCalendarDefinition> defs, String saveInFolder,
+			DownloadListener listener) {
+		HashMap<ExternalCalendarDefinition, CompletableFuture<DownloadResult>> futures =
+				new HashMap<>();
+		for (ExternalCalendarDefinition def : defs) {
+			futures.put(def, this.download(def, saveInFolder, listener));
+		}
+
+		return CompletableFuture.allOf(
+				futures.values().toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(new Function<Void, 
+						HashMap<ExternalCalendarDefinition, DownloadResult>>() {
+					@Override
+					public HashMap<ExternalCalendarDefinition, DownloadResult> apply(
+							Void v) {
+						HashMap<ExternalCalendarDefinition, DownloadResult> ret = 
+								new HashMap<>();
+						for (ExternalCalendarDefinition def : futures.keySet()) {
+							ret.put(def, futures.get(def).join());
+						}
+						return ret;
+					}
+				});
+	}
+
+	/**
+	 * Stops the download threads. Downloads which haven't started yet are abandoned,
+	 * and their futures are cancelled.
+	 */
+	public void shutdown() {
+		ArrayList<DownloadTask> abandoned = new ArrayList<>();
+		synchronized (this) {
+			for (Runnable r : this.executor.shutdownNow()) {
+				abandoned.add((DownloadTask)r);
+			}
+			for (HostQueue q : this.hosts.values()) {
+				abandoned.addAll(q.waiting);
+				q.waiting.clear();
+			}
+		}
+		for (DownloadTask task : abandoned) {
+			task.abandon();
+		}
+	}
+
+	private void submit(String host, DownloadTask task) {
+		synchronized (this) {
+			if (!this.executor.isShutdown()) {
+				HostQueue q = this.hosts.get(host);
+				if (q == null) {
+					q = new HostQueue();
+					this.hosts.put(host, q);
+				}
+	
+				if (q.running < this.maxDownloadsPerHost) {
+					q.running++;
+					this.executor.execute(task);
+				}
+				else {
+					q.waiting.add(task);
+				}
+				return;
+			}
+		}
+		task.abandon();
+	}
+
+	private synchronized void downloadFinished(String host) {
+		HostQueue q = this.hosts.get(host);
+		DownloadTask next = q.waiting.poll();
+		if (next != null) {
+			// the finished download's slot passes straight to the next one
+			this.executor.execute(next);
+			return;
+		}
+
+		q.running--;
+		if (q.running == 0) {
+			this.hosts.remove(host);
+		}
+	}
+
+	private static String getHost(String url) {
+		try {
+			String host = new URI(url).getHost();
+			return (host == null) ? "" : host.toLowerCase();
+		} catch (URISyntaxException e) {
+			return "";
+		}
+	}
+}
@@ -4,7 +4,7 @@ import org.w3c.dom.Element;
 
 import com.gmail.at.kevinburnseit.xml.FileFormatException;
 import com.gmail.at.kevinburnseit.xml.XmlElementReader;
-import com.gmail.at.kevinburnseit.xml.XmlElementReader.AttributeValidator;
+import com.gmail.at.kevinburnseit.xml.XmlAttributeReader.AttributeValidator;
 import com.gmail.at.kevinburnseit.xml.XmlElementWriter;
 
 /**
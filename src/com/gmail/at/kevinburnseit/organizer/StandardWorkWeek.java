@@ -1,5 +1,6 @@
 package com.gmail.at.kevinburnseit.organizer;
 
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -43,6 +44,19 @@ public class StandardWorkWeek extends HashMap<DayEnum, StandardWorkDay>{
 	}
 	
 	public void saveToXmlFile(String pathToXmlFile) throws Exception {
+		XmlHelper.saveFile(this.toXmlDocument(), pathToXmlFile);
+	}
+	
+	/**
+	 * Writes this work week as an xml document to a stream, which is left open.
+	 * @param out The stream
+	 * @throws Exception if anything goes wrong
+	 */
+	public void saveToXml(OutputStream out) throws Exception {
+		XmlHelper.saveFile(this.toXmlDocument(), out);
+	}
+	
+	private Document toXmlDocument() throws Exception {
 		Document doc = XmlHelper.newDocument("work-week");
 		Element documentElement = doc.getDocumentElement();
 
@@ -50,6 +64,6 @@ public class StandardWorkWeek extends HashMap<DayEnum, StandardWorkDay>{
 			day.toXml(documentElement);
 		}
 		
-		XmlHelper.saveFile(doc, pathToXmlFile);
+		return doc;
 	}
 }
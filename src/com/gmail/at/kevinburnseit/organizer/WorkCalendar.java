@@ -0,0 +1,137 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+
+import com.gmail.at.kevinburnseit.swing.calendar.CalendarHelper;
+
+/**
+ * The user's work schedule compiled into a table of days, so that the schedule for
+ * any date can be read without consulting the standard work week, the days off and
+ * the holidays each time. A year's table is built the first time that year is asked
+ * about, and all tables are thrown away by {@link #invalidate()}. A work calendar
+ * may be read on several threads at once, as long as its sources aren't changed.
+ * @author Kevin J. Burns
+ *
+ */
+class WorkCalendar {
+	/**
+	 * The schedule for each day of one year, indexed by day of year - 1.
+	 */
+	private static final class Year {
+		private final BitSet atWork = new BitSet(366);
+		private final BitSet takingLunch = new BitSet(366);
+		private final int[] workStart = new int[366];
+		private final int[] workEnd = new int[366];
+		private final int[] lunchStart = new int[366];
+		private final int[] lunchEnd = new int[366];
+	}
+
+	private final StandardWorkWeek workSchedule;
+	private final DaysOffList daysOff;
+	private final HolidayRuleCollection holidays;
+	private final HashMap<Integer, Year> years = new HashMap<>();
+	/*
+	 * The most recently used year; views ask about the same year over and over.
+	 */
+	private int lastYearNumber;
+	private Year lastYear = null;
+
+	/**
+	 * Constructor.
+	 * @param workSchedule The standard work week
+	 * @param daysOff The user's days off
+	 * @param holidays The holidays that the user observes
+	 */
+	WorkCalendar(StandardWorkWeek workSchedule, DaysOffList daysOff,
+			HolidayRuleCollection holidays) {
+		this.workSchedule = workSchedule;
+		this.daysOff = daysOff;
+		this.holidays = holidays;
+	}
+
+	/**
+	 * Discards all of the compiled tables. They will be rebuilt from the sources as
+	 * they are needed.
+	 */
+	synchronized void invalidate() {
+		this.years.clear();
+		this.lastYear = null;
+	}
+
+	boolean isAtWorkOn(GregorianCalendar date) {
+		return this.getYear(date).atWork.get(dayIndex(date));
+	}
+
+	boolean isTakingLunchOn(GregorianCalendar date) {
+		return this.getYear(date).takingLunch.get(dayIndex(date));
+	}
+
+	int getWorkStartTime(GregorianCalendar date) {
+		return this.getYear(date).workStart[dayIndex(date)];
+	}
+
+	int getWorkEndTime(GregorianCalendar date) {
+		return this.getYear(date).workEnd[dayIndex(date)];
+	}
+
+	int getLunchStartTime(GregorianCalendar date) {
+		return this.getYear(date).lunchStart[dayIndex(date)];
+	}
+
+	int getLunchEndTime(GregorianCalendar date) {
+		return this.getYear(date).lunchEnd[dayIndex(date)];
+	}
+
+	private static int dayIndex(GregorianCalendar date) {
+		return date.get(Calendar.DAY_OF_YEAR) - 1;
+	}
+
+	private synchronized Year getYear(GregorianCalendar date) {
+		int yearNumber = date.get(Calendar.YEAR);
+		if ((this.lastYear != null) && (this.lastYearNumber == yearNumber)) {
+			return this.lastYear;
+		}
+
+		Year ret = this.years.get(yearNumber);
+		if (ret == null) {
+			ret = this.build(yearNumber);
+			this.years.put(yearNumber, ret);
+		}
+
+		this.lastYearNumber = yearNumber;
+		this.lastYear = ret;
+		return ret;
+	}
+
+	private Year build(int yearNumber) {
+		Year ret = new Year();
+
+		GregorianCalendar jan1 = new GregorianCalendar(yearNumber, Calendar.JANUARY, 1);
+		int days = jan1.getActualMaximum(Calendar.DAY_OF_YEAR);
+		int firstEpochDay = CalendarHelper.getEpochDay(jan1);
+		// DayEnum starts with Monday
+		int firstDow = (jan1.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+		DayEnum[] daysOfWeek = DayEnum.values();
+
+		for (int i = 0; i < days; i++) {
+			StandardWorkDay workDay =
+					this.workSchedule.get(daysOfWeek[(firstDow + i) % 7]);
+
+			boolean atWork = workDay.isWorkingToday() &&
+					!this.daysOff.isDayOff(firstEpochDay + i) &&
+					!this.holidays.isHoliday(yearNumber, i + 1);
+			ret.atWork.set(i, atWork);
+			ret.takingLunch.set(i, workDay.isTakingLunchToday());
+			ret.workStart[i] = workDay.getStartTime();
+			ret.workEnd[i] = workDay.getEndTime();
+			ret.lunchStart[i] = workDay.getLunchTime();
+			ret.lunchEnd[i] =
+					workDay.getLunchTime() + workDay.getLunchDurationMinutes() * 60;
+		}
+
+		return ret;
+	}
+}
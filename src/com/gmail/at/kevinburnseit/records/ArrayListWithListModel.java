@@ -1,9 +1,11 @@
 package com.gmail.at.kevinburnseit.records;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
 
@@ -12,7 +14,10 @@ import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 
 /**
- * An ArrayList which implements ListModel.
+ * An ArrayList which implements ListModel. Every change to the list is reported to
+ * listeners as it happens, unless the changes are made between
+ * {@link #beginUpdate()} and {@link #endUpdate()}, in which case they are reported
+ * as a single event when the update ends.
  * @author Kevin J. Burns
  *
  * @param <E> Parameter of the ArrayList
@@ -22,6 +27,18 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 
 	private HashSet<ListDataListener> listeners = new HashSet<>();
 	
+	/*
+	 * State of a batch update. While updateDepth > 0, events are merged into the
+	 * pending event described by the remaining fields instead of being fired.
+	 */
+	private int updateDepth = 0;
+	private int sizeBeforeUpdate;
+	private int pendingType;
+	private int pendingStart;
+	private int pendingEnd;
+	private boolean pendingEvent = false;
+	private boolean pendingMixed = false;
+	
 	@Override
 	public void addListDataListener(ListDataListener l) {
 		this.listeners.add(l);
@@ -42,6 +59,137 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 		this.listeners.remove(l);
 	}
 
+	/**
+	 * Called whenever an element enters this list through any of the mutators,
+	 * before listeners are notified. Subclasses which maintain an index over
+	 * the contents of the list can override this to keep the index current.
+	 * The default implementation does nothing.
+	 * @param element The element which was added
+	 */
+	protected void elementAdded(E element) {
+		// does nothing
+	}
+
+	/**
+	 * Called whenever an element leaves this list through any of the mutators,
+	 * before listeners are notified. The default implementation does nothing.
+	 * @param element The element which was removed
+	 */
+	protected void elementRemoved(E element) {
+		// does nothing
+	}
+
+	/**
+	 * Creates the event which reports a change to listeners. This is called once
+	 * for each event which is sent, after the changes it describes have been made
+	 * and {@link #elementAdded(Object)} and {@link #elementRemoved(Object)} have
+	 * been called for them, so subclasses can override it to capture the state of
+	 * the list that the event reports. Changes made during a batch are reported by
+	 * a single event when the batch ends. The default implementation returns a
+	 * plain {@link ListDataEvent}.
+	 * @param type Type of the event, as defined by {@link ListDataEvent}
+	 * @param index0 First index of the range which changed
+	 * @param index1 Last index of the range which changed
+	 * @return The event
+	 */
+	protected ListDataEvent createEvent(int type, int index0, int index1) {
+		return new ListDataEvent(this, type, index0, index1);
+	}
+
+	/**
+	 * Returns whether a batch of changes begun with {@link #beginUpdate()} is
+	 * still in progress.
+	 * @return <code>true</code> if changes are being held back until the batch ends
+	 */
+	protected final boolean isUpdating() {
+		return this.updateDepth > 0;
+	}
+
+	/**
+	 * Begins a batch of changes to this list. Until the matching call to 
+	 * {@link #endUpdate()}, listeners will not be notified of changes; instead, all
+	 * of the changes are reported together when the batch ends. Calls may be
+	 * nested, in which case the changes are reported when the outermost batch
+	 * ends. Callers should end the batch in a <code>finally</code> block.
+	 */
+	public void beginUpdate() {
+		if (this.updateDepth == 0) {
+			this.sizeBeforeUpdate = this.size();
+			this.pendingEvent = false;
+			this.pendingMixed = false;
+		}
+		this.updateDepth++;
+	}
+
+	/**
+	 * Ends a batch of changes begun with {@link #beginUpdate()}. If this ends the
+	 * outermost batch and the list changed, listeners receive one event covering
+	 * all of the changes. If the changes were all additions to a contiguous
+	 * range, or all removals from one, the event says so; otherwise, it is a
+	 * {@link ListDataEvent#CONTENTS_CHANGED} event covering the whole list.
+	 */
+	public void endUpdate() {
+		if (this.updateDepth == 0) return;
+		
+		this.updateDepth--;
+		if (this.updateDepth > 0) return;
+		if (!this.pendingEvent) return;
+		
+		this.pendingEvent = false;
+		if (this.pendingMixed) {
+			this.pendingType = ListDataEvent.CONTENTS_CHANGED;
+			this.pendingStart = 0;
+			this.pendingEnd = Math.max(this.sizeBeforeUpdate, this.size()) - 1;
+		}
+		this.notifyListeners(new ListDataEvent(
+				this, this.pendingType, this.pendingStart, this.pendingEnd));
+	}
+
+	private void coalesce(ListDataEvent ev) {
+		int type = ev.getType();
+		int start = ev.getIndex0();
+		int end = ev.getIndex1();
+		
+		if (!this.pendingEvent) {
+			this.pendingEvent = true;
+			this.pendingType = type;
+			this.pendingStart = start;
+			this.pendingEnd = end;
+			return;
+		}
+		if (this.pendingMixed) return;
+		
+		if (type == this.pendingType) {
+			switch (type) {
+			case ListDataEvent.INTERVAL_ADDED:
+				if (start == this.pendingEnd + 1) {
+					// appended after the previous additions
+					this.pendingEnd = end;
+					return;
+				}
+				break;
+			case ListDataEvent.INTERVAL_REMOVED:
+				if (start == this.pendingStart) {
+					// removed the items which moved into the place of the last ones
+					this.pendingEnd += end - start + 1;
+					return;
+				}
+				if (end == this.pendingStart - 1) {
+					// removed the items just before the last ones
+					this.pendingStart = start;
+					return;
+				}
+				break;
+			case ListDataEvent.CONTENTS_CHANGED:
+				this.pendingStart = Math.min(this.pendingStart, start);
+				this.pendingEnd = Math.max(this.pendingEnd, end);
+				return;
+			}
+		}
+		
+		this.pendingMixed = true;
+	}
+
 	private void notifyListenersOfAdd(int start, int end) {
 		this.notifyListeners(
 				new ListDataEvent(this, ListDataEvent.INTERVAL_ADDED, start, end));
@@ -65,6 +213,12 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	}
 
 	private void notifyListeners(ListDataEvent ev) {
+		if (this.updateDepth > 0) {
+			this.coalesce(ev);
+			return;
+		}
+		
+		ev = this.createEvent(ev.getType(), ev.getIndex0(), ev.getIndex1());
 		for (ListDataListener l : this.listeners) {
 			switch(ev.getType()) {
 			case ListDataEvent.CONTENTS_CHANGED:
@@ -86,6 +240,7 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	@Override
 	public boolean add(E e) {
 		boolean ret = super.add(e);
+		this.elementAdded(e);
 		
 		int index = this.size() - 1;
 		this.notifyListenersOfAdd(index, index);
@@ -99,6 +254,7 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	@Override
 	public void add(int index, E element) {
 		super.add(index, element);
+		this.elementAdded(element);
 		
 		this.notifyListenersOfInsertion(index, index);
 	}
@@ -111,6 +267,9 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 		int startIndex = this.size();
 		boolean ret = super.addAll(c);
 		int endIndex = this.size() - 1;
+		for (int i = startIndex; i <= endIndex; i++) {
+			this.elementAdded(this.get(i));
+		}
 		
 		if (c.size() > 0) {
 			this.notifyListenersOfAdd(startIndex, endIndex);
@@ -125,6 +284,9 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	@Override
 	public boolean addAll(int index, Collection<? extends E> c) {
 		boolean ret = super.addAll(index, c);
+		for (int i = index; i < index + c.size(); i++) {
+			this.elementAdded(this.get(i));
+		}
 		
 		if (c.size() > 0) {
 			this.notifyListenersOfInsertion(index, index + c.size() - 1);
@@ -139,7 +301,11 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	@Override
 	public void clear() {
 		int endIndex = this.size() - 1;
+		ArrayList<E> removed = new ArrayList<>(this);
 		super.clear();
+		for (E item : removed) {
+			this.elementRemoved(item);
+		}
 		
 		this.notifyListenersOfDeletion(0, endIndex);
 	}
@@ -150,6 +316,7 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	@Override
 	public E remove(int index) {
 		E ret = super.remove(index);
+		this.elementRemoved(ret);
 		this.notifyListenersOfDeletion(index, index);
 		
 		return ret;
@@ -161,11 +328,10 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	@Override
 	public boolean remove(Object o) {
 		int index = this.indexOf(o);
-		boolean ret = super.remove(o);
-		if (ret) {
-			this.notifyListenersOfDeletion(index, index);
-		}
-		return ret;
+		if (index < 0) return false;
+		
+		this.remove(index);
+		return true;
 	}
 
 	/* (non-Javadoc)
@@ -173,12 +339,16 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	 */
 	@Override
 	public boolean removeAll(Collection<?> c) {
-		boolean ret = false;
-		for (Object item : c) {
-			ret = ret || this.remove(item);
-		}
+		if (c.isEmpty()) return false;
 		
-		return ret;
+		Collection<?> lookup = ArrayListWithListModel.asLookup(c);
+		
+		return this.removeIf(new Predicate<E>() {
+			@Override
+			public boolean test(E item) {
+				return lookup.contains(item);
+			}
+		});
 	}
 
 	/* (non-Javadoc)
@@ -186,12 +356,53 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	 */
 	@Override
 	public boolean removeIf(Predicate<? super E> filter) {
-		ArrayList<E> removeList = new ArrayList<>();
-		for (E item : this) {
-			if (filter.test(item)) removeList.add(item);
+		int oldSize = this.size();
+		
+		// test everything before changing anything, in case the filter throws
+		BitSet doomed = new BitSet(oldSize);
+		for (int i = 0; i < oldSize; i++) {
+			if (filter.test(this.get(i))) doomed.set(i);
 		}
+		if (doomed.isEmpty()) return false;
 		
-		return this.removeAll(removeList);
+		ArrayList<E> kept = new ArrayList<>(oldSize - doomed.cardinality());
+		ArrayList<E> removed = new ArrayList<>(doomed.cardinality());
+		for (int i = 0; i < oldSize; i++) {
+			if (doomed.get(i)) {
+				removed.add(this.get(i));
+			}
+			else {
+				kept.add(this.get(i));
+			}
+		}
+		
+		/*
+		 * The batch has to begin before the list changes, so that it knows how long
+		 * the list was if the runs can only be reported as a change to the whole list.
+		 */
+		this.beginUpdate();
+		try {
+			super.clear();
+			super.addAll(kept);
+			for (E item : removed) {
+				this.elementRemoved(item);
+			}
+			
+			/*
+			 * Report each run of removed items, last run first, so that the indices
+			 * in each event are still correct after the runs before it are reported.
+			 */
+			int runEnd = doomed.previousSetBit(oldSize - 1);
+			while (runEnd >= 0) {
+				int runStart = doomed.previousClearBit(runEnd) + 1;
+				this.notifyListenersOfDeletion(runStart, runEnd);
+				runEnd = doomed.previousSetBit(runStart - 1);
+			}
+		} finally {
+			this.endUpdate();
+		}
+		
+		return true;
 	}
 
 	/* (non-Javadoc)
@@ -199,7 +410,11 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	 */
 	@Override
 	protected void removeRange(int fromIndex, int toIndex) {
+		ArrayList<E> removed = new ArrayList<>(this.subList(fromIndex, toIndex));
 		super.removeRange(fromIndex, toIndex);
+		for (E item : removed) {
+			this.elementRemoved(item);
+		}
 		
 		// because of the way toIndex is defined
 		this.notifyListenersOfDeletion(fromIndex, toIndex - 1);
@@ -210,7 +425,13 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	 */
 	@Override
 	public void replaceAll(UnaryOperator<E> operator) {
+		ArrayList<E> before = new ArrayList<>(this);
 		super.replaceAll(operator);
+		for (int i = 0; i < before.size(); i++) {
+			if (before.get(i) == this.get(i)) continue;
+			this.elementRemoved(before.get(i));
+			this.elementAdded(this.get(i));
+		}
 		
 		this.notifyListenersOfContentChange(0, this.size() - 1);
 	}
@@ -220,13 +441,23 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	 */
 	@Override
 	public boolean retainAll(Collection<?> c) {
-		ArrayList<Object> removeList = new ArrayList<>();
-		
-		for (E item : this) {
-			if (!c.contains(item)) removeList.add(item);
-		}
+		Collection<?> lookup = ArrayListWithListModel.asLookup(c);
 		
-		return this.removeAll(removeList);
+		return this.removeIf(new Predicate<E>() {
+			@Override
+			public boolean test(E item) {
+				return !lookup.contains(item);
+			}
+		});
+	}
+	
+	/*
+	 * Membership tests against a list are linear, so copy anything that isn't
+	 * already a set into one.
+	 */
+	private static Collection<?> asLookup(Collection<?> c) {
+		if (c instanceof Set) return c;
+		return new HashSet<>(c);
 	}
 
 	/* (non-Javadoc)
@@ -235,6 +466,10 @@ public class ArrayListWithListModel<E> extends ArrayList<E> implements ListModel
 	@Override
 	public E set(int index, E element) {
 		E ret = super.set(index, element);
+		if (ret != element) {
+			this.elementRemoved(ret);
+			this.elementAdded(element);
+		}
 		this.notifyListenersOfContentChange(index, index);
 		return ret;
 	}
@@ -1,5 +1,6 @@
 package com.gmail.at.kevinburnseit.swing.calendar;
 
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
 
 /**
@@ -8,33 +9,132 @@ import java.util.GregorianCalendar;
  *
  */
 public abstract class CalendarEntry {
-	private GregorianCalendar startTime;
-	private GregorianCalendar endTime;
+	/**
+	 * Value reported by {@link #getStartMillis()} and {@link #getEndMillis()} when
+	 * the corresponding time has not been set.
+	 */
+	public static final long NO_TIME = Long.MIN_VALUE;
+	
+	private long startMillis = NO_TIME;
+	private long endMillis = NO_TIME;
 	private boolean allDay = false;
 	private String title;
+	private ArrayList<CalendarEntryProvider<?>> providers = null;
 	/**
-	 * @return the startTime
+	 * Gets the start time as a calendar. The calendar is created on each call, so
+	 * changes made to it do not affect this entry; use
+	 * {@link #getStartMillis()} where a calendar isn't really needed.
+	 * @return the startTime, or <code>null</code> if it hasn't been set
 	 */
 	public final GregorianCalendar getStartTime() {
-		return startTime;
+		return toCalendar(this.startMillis);
 	}
 	/**
-	 * @param startTime the startTime to set
+	 * Sets the start time.
+	 * @param startTime the startTime to set. May be <code>null</code>.
 	 */
 	public final void setStartTime(GregorianCalendar startTime) {
-		this.startTime = startTime;
+		this.setStartMillis(toMillis(startTime));
 	}
 	/**
-	 * @return the endTime
+	 * Gets the end time as a calendar. The calendar is created on each call, so
+	 * changes made to it do not affect this entry; use
+	 * {@link #getEndMillis()} where a calendar isn't really needed.
+	 * @return the endTime, or <code>null</code> if it hasn't been set
 	 */
 	public final GregorianCalendar getEndTime() {
-		return endTime;
+		return toCalendar(this.endMillis);
 	}
 	/**
-	 * @param endTime the endTime to set
+	 * Sets the end time.
+	 * @param endTime the endTime to set. May be <code>null</code>.
 	 */
 	public final void setEndTime(GregorianCalendar endTime) {
-		this.endTime = endTime;
+		this.setEndMillis(toMillis(endTime));
+	}
+	/**
+	 * Gets the start time, in milliseconds since the epoch.
+	 * @return the start time, or {@link #NO_TIME} if it hasn't been set
+	 */
+	public final long getStartMillis() {
+		return this.startMillis;
+	}
+	/**
+	 * Sets the start time, in milliseconds since the epoch.
+	 * @param startMillis the start time to set, or {@link #NO_TIME} to clear it
+	 */
+	public final void setStartMillis(long startMillis) {
+		if (this.startMillis == startMillis) return;
+		this.startMillis = startMillis;
+		this.notifyProvidersOfTimeChange();
+	}
+	/**
+	 * Gets the end time, in milliseconds since the epoch.
+	 * @return the end time, or {@link #NO_TIME} if it hasn't been set
+	 */
+	public final long getEndMillis() {
+		return this.endMillis;
+	}
+	/**
+	 * Sets the end time, in milliseconds since the epoch.
+	 * @param endMillis the end time to set, or {@link #NO_TIME} to clear it
+	 */
+	public final void setEndMillis(long endMillis) {
+		if (this.endMillis == endMillis) return;
+		this.endMillis = endMillis;
+		this.notifyProvidersOfTimeChange();
+	}
+	/**
+	 * Sets both the start and end time at once, in milliseconds since the epoch.
+	 * Any provider holding this entry only has to reposition it once.
+	 * @param startMillis the start time to set, or {@link #NO_TIME} to clear it
+	 * @param endMillis the end time to set, or {@link #NO_TIME} to clear it
+	 */
+	public final void setTimes(long startMillis, long endMillis) {
+		if ((this.startMillis == startMillis) && (this.endMillis == endMillis)) return;
+		this.startMillis = startMillis;
+		this.endMillis = endMillis;
+		this.notifyProvidersOfTimeChange();
+	}
+	/**
+	 * Returns whether both the start and end time of this entry have been set.
+	 * Entries without both can't be placed on a calendar.
+	 * @return <code>true</code> if both times are set; <code>false</code> otherwise.
+	 */
+	public final boolean hasTimes() {
+		return (this.startMillis != NO_TIME) && (this.endMillis != NO_TIME);
+	}
+	/**
+	 * Returns whether any part of this entry falls within a time range. The range
+	 * is inclusive at both ends.
+	 * @param start Earliest time of the range, in milliseconds since the epoch
+	 * @param end Latest time of the range, in milliseconds since the epoch
+	 * @return <code>true</code> if this entry has both times set and overlaps the
+	 * range; <code>false</code> otherwise.
+	 */
+	public final boolean overlaps(long start, long end) {
+		if (!this.hasTimes()) return false;
+		return (this.startMillis <= end) && (this.endMillis >= start);
+	}
+	/**
+	 * Returns whether this entry ends after a point in time.
+	 * @param time Time to test against, in milliseconds since the epoch
+	 * @return <code>true</code> if the end time is set and is later than the
+	 * specified time; <code>false</code> otherwise.
+	 */
+	public final boolean endsAfter(long time) {
+		if (this.endMillis == NO_TIME) return false;
+		return this.endMillis > time;
+	}
+	/**
+	 * Compares the start time of this entry to that of another. Entries without a
+	 * start time sort first.
+	 * @param other Entry to compare to
+	 * @return a negative number, zero, or a positive number as this entry starts
+	 * before, at the same time as, or after the other one
+	 */
+	public final int compareStartTo(CalendarEntry other) {
+		return Long.compare(this.startMillis, other.startMillis);
 	}
 	/**
 	 * @return the allDay
@@ -60,4 +160,47 @@ public abstract class CalendarEntry {
 	public final void setTitle(String title) {
 		this.title = title;
 	}
-}
\ No newline at end of file
+	
+	final void addProvider(CalendarEntryProvider<?> cep) {
+		if (this.providers == null) {
+			this.providers = new ArrayList<>(1);
+		}
+		this.providers.add(cep);
+	}
+	
+	final void removeProvider(CalendarEntryProvider<?> cep) {
+		if (this.providers == null) return;
+		/*
+		 * Providers are lists, so equals() compares their contents; compare
+		 * identities instead.
+		 */
+		for (int i = 0; i < this.providers.size(); i++) {
+			if (this.providers.get(i) == cep) {
+				this.providers.remove(i);
+				break;
+			}
+		}
+		if (this.providers.isEmpty()) {
+			this.providers = null;
+		}
+	}
+	
+	private void notifyProvidersOfTimeChange() {
+		if (this.providers == null) return;
+		for (CalendarEntryProvider<?> cep : this.providers) {
+			cep.entryTimeChanged(this);
+		}
+	}
+	
+	private static GregorianCalendar toCalendar(long millis) {
+		if (millis == NO_TIME) return null;
+		GregorianCalendar ret = new GregorianCalendar();
+		ret.setTimeInMillis(millis);
+		return ret;
+	}
+	
+	private static long toMillis(GregorianCalendar time) {
+		if (time == null) return NO_TIME;
+		return time.getTimeInMillis();
+	}
+}
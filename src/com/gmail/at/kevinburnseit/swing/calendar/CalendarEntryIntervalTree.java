@@ -0,0 +1,242 @@
+package com.gmail.at.kevinburnseit.swing.calendar;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+/**
+ * An augmented interval tree over calendar entries, used by
+ * {@link CalendarEntryProvider} to answer time range queries without examining
+ * every entry. The tree is a treap ordered by start time, where each node also
+ * records the latest end time found anywhere in its subtree so that whole
+ * subtrees which end before a query range can be skipped.
+ * @author Kevin J. Burns
+ *
+ * @param <T> Type of calendar entry stored in the tree
+ */
+class CalendarEntryIntervalTree<T extends CalendarEntry> {
+	private final class Node {
+		private final T entry;
+		private final long seq;
+		private final int priority;
+		private long start;
+		private long end;
+		private long maxEnd;
+		private int count = 1;
+		private boolean inTree = false;
+		private Node left;
+		private Node right;
+
+		private Node(T entry) {
+			this.entry = entry;
+			this.seq = nextSeq++;
+			this.priority = random.nextInt();
+		}
+	}
+
+	private final IdentityHashMap<CalendarEntry, Node> nodes =
+			new IdentityHashMap<>();
+	private final Random random = new Random();
+	private long nextSeq = 0;
+	private Node root = null;
+
+	/**
+	 * Adds an entry to the tree. If the entry is already in the tree, it will be
+	 * reported once more by {@link #query(long, long, ArrayList)}, the same way
+	 * an ArrayList can hold the same item more than once.
+	 * @param entry Entry to add
+	 * @return <code>true</code> if the entry was not in the tree before this call;
+	 * <code>false</code> otherwise.
+	 */
+	boolean add(T entry) {
+		Node n = this.nodes.get(entry);
+		if (n != null) {
+			n.count++;
+			return false;
+		}
+
+		n = new Node(entry);
+		this.nodes.put(entry, n);
+		this.link(n);
+		return true;
+	}
+
+	/**
+	 * Removes one occurrence of an entry from the tree.
+	 * @param entry Entry to remove
+	 * @return <code>true</code> if no occurrences of the entry remain in the tree;
+	 * <code>false</code> otherwise.
+	 */
+	boolean remove(CalendarEntry entry) {
+		Node n = this.nodes.get(entry);
+		if (n == null) return true;
+
+		n.count--;
+		if (n.count > 0) return false;
+
+		this.unlink(n);
+		this.nodes.remove(entry);
+		return true;
+	}
+
+	/**
+	 * Repositions an entry in the tree after its start or end time has changed.
+	 * @param entry Entry whose times have changed
+	 */
+	void update(CalendarEntry entry) {
+		Node n = this.nodes.get(entry);
+		if (n == null) return;
+
+		this.unlink(n);
+		this.link(n);
+	}
+
+	/**
+	 * Finds all entries which have any part falling within a time range, in
+	 * order of start time.
+	 * @param start Earliest time of the range, in milliseconds since the epoch
+	 * @param end Latest time of the range, in milliseconds since the epoch
+	 * @param addTo List that the matching entries are to be added to
+	 */
+	void query(long start, long end, ArrayList<T> addTo) {
+		this.query(this.root, start, end, addTo);
+	}
+
+	private void query(Node n, long start, long end, ArrayList<T> addTo) {
+		if (n == null) return;
+		if (n.maxEnd < start) return;
+
+		this.query(n.left, start, end, addTo);
+		if (n.start > end) return;
+
+		if (n.end >= start) {
+			for (int i = 0; i < n.count; i++) {
+				addTo.add(n.entry);
+			}
+		}
+		this.query(n.right, start, end, addTo);
+	}
+
+	/**
+	 * Lists every entry in the tree in order of start time. An entry which was
+	 * added more than once is listed once for each time.
+	 * @param addTo List that the entries are to be added to
+	 */
+	void collect(ArrayList<T> addTo) {
+		this.collect(this.root, addTo);
+	}
+
+	private void collect(Node n, ArrayList<T> addTo) {
+		if (n == null) return;
+
+		this.collect(n.left, addTo);
+		for (int i = 0; i < n.count; i++) {
+			addTo.add(n.entry);
+		}
+		this.collect(n.right, addTo);
+	}
+
+	/*
+	 * Entries which don't have both a start and end time can't be placed on a
+	 * calendar, so they are tracked but left out of the tree until they do.
+	 */
+	private void link(Node n) {
+		CalendarEntry ce = n.entry;
+		if (!ce.hasTimes()) return;
+
+		n.start = ce.getStartMillis();
+		n.end = ce.getEndMillis();
+		n.left = null;
+		n.right = null;
+		n.maxEnd = n.end;
+		n.inTree = true;
+		this.root = this.insert(this.root, n);
+	}
+
+	private void unlink(Node n) {
+		if (!n.inTree) return;
+
+		this.root = this.delete(this.root, n);
+		n.inTree = false;
+	}
+
+	private int compare(Node x, Node y) {
+		if (x.start != y.start) return Long.compare(x.start, y.start);
+		return Long.compare(x.seq, y.seq);
+	}
+
+	private Node insert(Node at, Node n) {
+		if (at == null) return n;
+
+		if (this.compare(n, at) < 0) {
+			at.left = this.insert(at.left, n);
+			if (at.left.priority > at.priority) at = this.rotateRight(at);
+		}
+		else {
+			at.right = this.insert(at.right, n);
+			if (at.right.priority > at.priority) at = this.rotateLeft(at);
+		}
+
+		this.recalculate(at);
+		return at;
+	}
+
+	private Node delete(Node at, Node n) {
+		if (at == null) return null;
+
+		if (at == n) {
+			return this.merge(at.left, at.right);
+		}
+
+		if (this.compare(n, at) < 0) {
+			at.left = this.delete(at.left, n);
+		}
+		else {
+			at.right = this.delete(at.right, n);
+		}
+
+		this.recalculate(at);
+		return at;
+	}
+
+	private Node merge(Node x, Node y) {
+		if (x == null) return y;
+		if (y == null) return x;
+
+		if (x.priority > y.priority) {
+			x.right = this.merge(x.right, y);
+			this.recalculate(x);
+			return x;
+		}
+		else {
+			y.left = this.merge(x, y.left);
+			this.recalculate(y);
+			return y;
+		}
+	}
+
+	private Node rotateRight(Node n) {
+		Node l = n.left;
+		n.left = l.right;
+		l.right = n;
+		this.recalculate(n);
+		this.recalculate(l);
+		return l;
+	}
+
+	private Node rotateLeft(Node n) {
+		Node r = n.right;
+		n.right = r.left;
+		r.left = n;
+		this.recalculate(n);
+		this.recalculate(r);
+		return r;
+	}
+
+	private void recalculate(Node n) {
+		long max = n.end;
+		if (n.left != null) max = Math.max(max, n.left.maxEnd);
+		if (n.right != null) max = Math.max(max, n.right.maxEnd);
+		n.maxEnd = max;
+	}
+}
@@ -1,19 +1,42 @@
 package com.gmail.at.kevinburnseit.swing.calendar;
 
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.function.Predicate;
 
+import javax.swing.event.ListDataEvent;
+
 import com.gmail.at.kevinburnseit.records.ArrayListWithListModel;
 
 /**
- * A list of calendar entries which can be passed to the calendar widget.
+ * A list of calendar entries which can be passed to the calendar widget. The
+ * entries are indexed by time, so that the entries falling within a range of time
+ * can be found with {@link #query(GregorianCalendar, GregorianCalendar)} without
+ * examining every entry in the list.
+ * <p>
+ * A provider is changed on one thread, normally the event dispatch thread. Each
+ * time its changes are reported to listeners, and at the end of each batch of
+ * changes, it publishes a {@link CalendarEntrySnapshot} of its contents, which
+ * any other thread can get from {@link #getSnapshot()} and read without locking.
+ * The events it sends are {@link CalendarEntryProviderEvent}s, which carry the
+ * snapshot published for them.
  * @author Kevin J. Burns
  *
  */
-public class CalendarEntryProvider<T extends CalendarEntry> 
+public class CalendarEntryProvider<T extends CalendarEntry>
 		extends ArrayListWithListModel<T> {
 	private static final long serialVersionUID = 7076328137550355592L;
 
+	private final CalendarEntryIntervalTree<T> index =
+			new CalendarEntryIntervalTree<>();
+	private volatile CalendarEntrySnapshot<T> snapshot =
+			new CalendarEntrySnapshot<>(0, new ArrayList<T>(), new ArrayList<T>());
+	/*
+	 * Whether the list has changed since the last snapshot was published. Only
+	 * used by the thread which changes the list.
+	 */
+	private boolean snapshotStale = false;
+
 	/**
 	 * Gets a predicate that will test a calendar entry's temporal limits against
 	 * a specified start and end time. This predicate will return true if any part
@@ -21,19 +44,20 @@ public class CalendarEntryProvider<T extends CalendarEntry>
 	 * @param start Earliest time for the range
 	 * @param end Latest time for the range
 	 * @return
+	 * @see #query(GregorianCalendar, GregorianCalendar)
 	 */
 	public static Predicate<CalendarEntry> getPredicateForTimeRange(
 			GregorianCalendar start, GregorianCalendar end) {
+		final long startMillis = start.getTimeInMillis();
+		final long endMillis = end.getTimeInMillis();
 		return new Predicate<CalendarEntry>() {
 			@Override
 			public boolean test(CalendarEntry t) {
-				if (end.before(t.getStartTime())) return false;
-				if (start.after(t.getEndTime())) return false;
-				return true;
+				return t.overlaps(startMillis, endMillis);
 			}
 		};
 	}
-	
+
 	/**
 	 * Gets a predicate that will test a calendar entry's temporal limits against
 	 * a specified earliest time. This predicate will return true if any part of the
@@ -43,11 +67,118 @@ public class CalendarEntryProvider<T extends CalendarEntry>
 	 */
 	public static Predicate<CalendarEntry> getPredicateForLaterThan(
 			GregorianCalendar earliest) {
+		final long earliestMillis = earliest.getTimeInMillis();
 		return new Predicate<CalendarEntry>() {
 			@Override
 			public boolean test(CalendarEntry t) {
-				return earliest.before(t.getEndTime());
+				return t.endsAfter(earliestMillis);
 			}
 		};
 	};
+
+	/**
+	 * Finds all entries in this list which have any part falling within a time
+	 * range. This gives the same result as filtering the list with
+	 * {@link #getPredicateForTimeRange(GregorianCalendar, GregorianCalendar)}, but
+	 * only examines entries near the range. Entries without both a start and an end
+	 * time are never returned.
+	 * @param start Earliest time for the range
+	 * @param end Latest time for the range
+	 * @return The matching entries, in order of start time
+	 */
+	public ArrayList<T> query(GregorianCalendar start, GregorianCalendar end) {
+		return this.query(start.getTimeInMillis(), end.getTimeInMillis());
+	}
+
+	/**
+	 * Finds all entries in this list which have any part falling within a time
+	 * range.
+	 * @param start Earliest time for the range, in milliseconds since the epoch
+	 * @param end Latest time for the range, in milliseconds since the epoch
+	 * @return The matching entries, in order of start time
+	 * @see #query(GregorianCalendar, GregorianCalendar)
+	 */
+	public ArrayList<T> query(long start, long end) {
+		ArrayList<T> ret = new ArrayList<>();
+		this.index.query(start, end, ret);
+		return ret;
+	}
+
+	/**
+	 * Gets the contents of this list as of the last change reported to listeners,
+	 * or the end of the last batch of changes. This may be called on any thread.
+	 * @return the snapshot
+	 */
+	public final CalendarEntrySnapshot<T> getSnapshot() {
+		return this.snapshot;
+	}
+
+	/**
+	 * Called each time a snapshot is published, so that subclasses which keep more
+	 * state than the list of entries can return a snapshot which captures it too.
+	 * The default implementation returns the snapshot it is given.
+	 * @param snapshot The snapshot of the entries
+	 * @return The snapshot to publish
+	 */
+	protected CalendarEntrySnapshot<T> extendSnapshot(CalendarEntrySnapshot<T> snapshot) {
+		return snapshot;
+	}
+
+	/**
+	 * Tells this list that something captured in its snapshots has changed without
+	 * any entries being added or removed. A new snapshot is published straight
+	 * away, or at the end of the current batch of changes.
+	 */
+	protected final void snapshotChanged() {
+		this.snapshotStale = true;
+		if (!this.isUpdating()) this.publishSnapshot();
+	}
+
+	private void publishSnapshot() {
+		ArrayList<T> byStart = new ArrayList<>(this.size());
+		this.index.collect(byStart);
+		CalendarEntrySnapshot<T> s = new CalendarEntrySnapshot<>(
+				this.snapshot.getVersion() + 1, this, byStart);
+		this.snapshot = this.extendSnapshot(s);
+		this.snapshotStale = false;
+	}
+
+	@Override
+	public void endUpdate() {
+		super.endUpdate();
+		if (this.snapshotStale && !this.isUpdating()) this.publishSnapshot();
+	}
+
+	@Override
+	protected ListDataEvent createEvent(int type, int index0, int index1) {
+		this.publishSnapshot();
+		return new CalendarEntryProviderEvent(this, type, index0, index1, this.snapshot);
+	}
+
+	@Override
+	protected void elementAdded(T element) {
+		this.snapshotStale = true;
+		if (element == null) return;
+		if (this.index.add(element)) {
+			element.addProvider(this);
+		}
+	}
+
+	@Override
+	protected void elementRemoved(T element) {
+		this.snapshotStale = true;
+		if (element == null) return;
+		if (this.index.remove(element)) {
+			element.removeProvider(this);
+		}
+	}
+
+	/**
+	 * Called by an entry in this list when its start or end time changes.
+	 * @param ce The entry which changed
+	 */
+	void entryTimeChanged(CalendarEntry ce) {
+		this.index.update(ce);
+		this.snapshotChanged();
+	}
 }
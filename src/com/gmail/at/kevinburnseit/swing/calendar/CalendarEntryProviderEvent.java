@@ -0,0 +1,46 @@
+package com.gmail.at.kevinburnseit.swing.calendar;
+
+import javax.swing.event.ListDataEvent;
+
+/**
+ * Reports a change to a {@link CalendarEntryProvider}, along with the snapshot
+ * which the provider published for it, so that listeners can hand the contents
+ * the event describes to another thread.
+ * @author Kevin J. Burns
+ *
+ */
+public class CalendarEntryProviderEvent extends ListDataEvent {
+	private static final long serialVersionUID = -2851716297419461058L;
+
+	private final transient CalendarEntrySnapshot<?> snapshot;
+
+	/**
+	 * Constructor.
+	 * @param source The provider which changed
+	 * @param type Type of the event, as defined by {@link ListDataEvent}
+	 * @param index0 First index of the range which changed
+	 * @param index1 Last index of the range which changed
+	 * @param snapshot The provider's contents after the change
+	 */
+	public CalendarEntryProviderEvent(CalendarEntryProvider<?> source, int type,
+			int index0, int index1, CalendarEntrySnapshot<?> snapshot) {
+		super(source, type, index0, index1);
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Gets the provider's contents after the change.
+	 * @return the snapshot
+	 */
+	public CalendarEntrySnapshot<?> getSnapshot() {
+		return this.snapshot;
+	}
+
+	/**
+	 * Gets the version of the provider's contents after the change.
+	 * @return the version
+	 */
+	public long getVersion() {
+		return this.snapshot.getVersion();
+	}
+}
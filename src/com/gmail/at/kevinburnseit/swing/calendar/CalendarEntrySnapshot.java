@@ -0,0 +1,133 @@
+package com.gmail.at.kevinburnseit.swing.calendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The contents of a {@link CalendarEntryProvider} as they were at one moment.
+ * A provider publishes a new snapshot each time it changes, and never changes
+ * one it has published, so a snapshot can be read on any thread without
+ * locking, and every query made on it sees the same set of entries at the same
+ * times, however the provider changes in the meantime.
+ * <p>
+ * The entries themselves still belong to the thread which changes the
+ * provider. Their times and titles are copied when the snapshot is taken, and
+ * queries return those copies, so nothing read from a snapshot depends on the
+ * entries.
+ * @author Kevin J. Burns
+ *
+ * @param <T> Type of calendar entry in the snapshot
+ */
+public class CalendarEntrySnapshot<T extends CalendarEntry> {
+	private final long version;
+	private final List<T> entries;
+	/*
+	 * The values of the entries with both times set, in order of start time, and
+	 * their times.
+	 * The arrays are read as a balanced binary tree, in which the node for the
+	 * range lo..hi is at the middle of it, and maxEnds holds the latest end time
+	 * in each node's range, so that whole ranges which end before a query can be
+	 * skipped.
+	 */
+	private final CalendarEntryValue[] byStart;
+	private final long[] starts;
+	private final long[] ends;
+	private final long[] maxEnds;
+
+	/**
+	 * Constructor. This must be called on the thread which the entries belong to.
+	 * @param version The version of the provider's contents
+	 * @param entries The entries, in the order of the provider
+	 * @param byStart The entries with both times set, in order of start time
+	 */
+	@SuppressWarnings("unchecked")
+	CalendarEntrySnapshot(long version, List<T> entries, ArrayList<T> byStart) {
+		this.version = version;
+		this.entries = Collections.unmodifiableList(
+				(List<T>)Arrays.asList(entries.toArray(new CalendarEntry[entries.size()])));
+		this.byStart = new CalendarEntryValue[byStart.size()];
+		this.starts = new long[this.byStart.length];
+		this.ends = new long[this.byStart.length];
+		for (int i = 0; i < this.byStart.length; i++) {
+			this.byStart[i] = new CalendarEntryValue(byStart.get(i));
+			this.starts[i] = this.byStart[i].getStartMillis();
+			this.ends[i] = this.byStart[i].getEndMillis();
+		}
+		this.maxEnds = new long[this.byStart.length];
+		this.fillMaxEnds(0, this.byStart.length - 1);
+	}
+
+	/**
+	 * Constructor for subclasses which capture more of their provider's state. The
+	 * new snapshot shares the contents of the old one.
+	 * @param other The snapshot to copy
+	 */
+	protected CalendarEntrySnapshot(CalendarEntrySnapshot<T> other) {
+		this.version = other.version;
+		this.entries = other.entries;
+		this.byStart = other.byStart;
+		this.starts = other.starts;
+		this.ends = other.ends;
+		this.maxEnds = other.maxEnds;
+	}
+
+	private long fillMaxEnds(int lo, int hi) {
+		if (lo > hi) return Long.MIN_VALUE;
+
+		int mid = (lo + hi) >>> 1;
+		long max = Math.max(this.ends[mid],
+				Math.max(this.fillMaxEnds(lo, mid - 1), this.fillMaxEnds(mid + 1, hi)));
+		this.maxEnds[mid] = max;
+		return max;
+	}
+
+	/**
+	 * Gets the version of the provider's contents that this snapshot holds.
+	 * Versions only increase, so of two snapshots of the same provider, the one
+	 * with the higher version is newer.
+	 * @return the version
+	 */
+	public final long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Gets the entries, in the order they had in the provider.
+	 * @return An unmodifiable list of the entries
+	 */
+	public final List<T> getEntries() {
+		return this.entries;
+	}
+
+	/**
+	 * Finds all entries in this snapshot which have any part falling within a time
+	 * range. This gives the same result as
+	 * {@link CalendarEntryProvider#query(long, long)} gave when the snapshot was
+	 * taken.
+	 * @param start Earliest time for the range, in milliseconds since the epoch
+	 * @param end Latest time for the range, in milliseconds since the epoch
+	 * @return The values of the matching entries as they were when the snapshot
+	 * was taken, in order of start time
+	 */
+	public ArrayList<CalendarEntryValue> query(long start, long end) {
+		ArrayList<CalendarEntryValue> ret = new ArrayList<>();
+		this.query(0, this.byStart.length - 1, start, end, ret);
+		return ret;
+	}
+
+	private void query(int lo, int hi, long start, long end,
+			ArrayList<CalendarEntryValue> addTo) {
+		if (lo > hi) return;
+
+		int mid = (lo + hi) >>> 1;
+		if (this.maxEnds[mid] < start) return;
+
+		this.query(lo, mid - 1, start, end, addTo);
+		if (this.starts[mid] > end) return;
+
+		if (this.ends[mid] >= start) addTo.add(this.byStart[mid]);
+		this.query(mid + 1, hi, start, end, addTo);
+	}
+}
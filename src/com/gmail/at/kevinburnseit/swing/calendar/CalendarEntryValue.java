@@ -0,0 +1,98 @@
+package com.gmail.at.kevinburnseit.swing.calendar;
+
+/**
+ * The times and title of a calendar entry, copied out of it at one moment. Entries
+ * belong to the thread which changes their provider, but their values can be
+ * handed to any other thread, for instance to be laid out, because they never
+ * change.
+ * @author Kevin J. Burns
+ *
+ */
+public final class CalendarEntryValue {
+	private final CalendarEntry entry;
+	private final long startMillis;
+	private final long endMillis;
+	private final String title;
+
+	/**
+	 * Constructor. Copies the values of an entry. This must be called on the thread
+	 * which the entry belongs to.
+	 * @param entry The entry
+	 */
+	public CalendarEntryValue(CalendarEntry entry) {
+		this(entry, entry.getStartMillis(), entry.getEndMillis(), entry.getTitle());
+	}
+
+	/**
+	 * Constructor. Gives an entry values which it doesn't hold itself, such as
+	 * those of one occurrence of a recurring entry.
+	 * @param entry The entry that the values stand for
+	 * @param startMillis The start time, in milliseconds since the epoch, or
+	 * {@link CalendarEntry#NO_TIME}
+	 * @param endMillis The end time, in milliseconds since the epoch, or
+	 * {@link CalendarEntry#NO_TIME}
+	 * @param title The title. May be <code>null</code>.
+	 */
+	public CalendarEntryValue(CalendarEntry entry, long startMillis, long endMillis,
+			String title) {
+		this.entry = entry;
+		this.startMillis = startMillis;
+		this.endMillis = endMillis;
+		this.title = title;
+	}
+
+	/**
+	 * Gets the entry that these values were copied from. The entry itself may only
+	 * be used on the thread it belongs to.
+	 * @return the entry
+	 */
+	public CalendarEntry getEntry() {
+		return this.entry;
+	}
+
+	/**
+	 * Gets the start time, in milliseconds since the epoch.
+	 * @return the start time, or {@link CalendarEntry#NO_TIME} if it wasn't set
+	 */
+	public long getStartMillis() {
+		return this.startMillis;
+	}
+
+	/**
+	 * Gets the end time, in milliseconds since the epoch.
+	 * @return the end time, or {@link CalendarEntry#NO_TIME} if it wasn't set
+	 */
+	public long getEndMillis() {
+		return this.endMillis;
+	}
+
+	/**
+	 * Gets the title.
+	 * @return the title, or <code>null</code> if it wasn't set
+	 */
+	public String getTitle() {
+		return this.title;
+	}
+
+	/**
+	 * Returns whether both the start and end time were set.
+	 * @return <code>true</code> if both times are set; <code>false</code> otherwise.
+	 */
+	public boolean hasTimes() {
+		return (this.startMillis != CalendarEntry.NO_TIME) &&
+				(this.endMillis != CalendarEntry.NO_TIME);
+	}
+
+	/**
+	 * Returns whether any part of the entry falls within a time range. The range is
+	 * inclusive at both ends.
+	 * @param start Earliest time of the range, in milliseconds since the epoch
+	 * @param end Latest time of the range, in milliseconds since the epoch
+	 * @return <code>true</code> if both times are set and the entry overlaps the
+	 * range; <code>false</code> otherwise.
+	 */
+	public boolean overlaps(long start, long end) {
+		if (!this.hasTimes()) return false;
+		return (this.startMillis <= end) && (this.endMillis >= start);
+	}
+}
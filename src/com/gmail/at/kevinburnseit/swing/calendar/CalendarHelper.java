@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
 import javax.swing.ComboBoxModel;
 import javax.swing.event.ListDataListener;
@@ -177,6 +178,57 @@ public class CalendarHelper {
 		return true;
 	}
 
+	/**
+	 * Gets the number of seconds that have passed since local midnight at a point
+	 * in time, without creating a calendar.
+	 * @param millis Point in time, in milliseconds since the epoch
+	 * @return Seconds since midnight, in the range [0, 86399]
+	 */
+	public static int getSecondOfDay(long millis) {
+		long local = millis + localTimeZone.getOffset(millis);
+		return (int)Math.floorMod(Math.floorDiv(local, 1000L), 86400L);
+	}
+
+	/**
+	 * Gets the local day that a point in time falls on, counted in days since
+	 * January 1, 1970.
+	 * @param millis Point in time, in milliseconds since the epoch
+	 * @return The day number
+	 */
+	public static int getEpochDay(long millis) {
+		long local = millis + localTimeZone.getOffset(millis);
+		return (int)Math.floorDiv(local, 86400000L);
+	}
+
+	/**
+	 * Gets the day that a calendar's date falls on, counted in days since
+	 * January 1, 1970.
+	 * @param date Date to examine
+	 * @return The day number
+	 */
+	public static int getEpochDay(GregorianCalendar date) {
+		long local = date.getTimeInMillis() + 
+				date.get(Calendar.ZONE_OFFSET) + date.get(Calendar.DST_OFFSET);
+		return (int)Math.floorDiv(local, 86400000L);
+	}
+
+	/**
+	 * Formats a time of day the same way as {@link #militaryTimeFormatter}. Unlike
+	 * the formatter, this may be called from any thread.
+	 * @param secondOfDay Seconds since midnight
+	 * @return The time, as four digits
+	 */
+	public static String formatMilitaryTime(int secondOfDay) {
+		int hours = secondOfDay / 3600;
+		int minutes = secondOfDay / 60 % 60;
+		char[] ret = new char[] {
+				(char)('0' + hours / 10), (char)('0' + hours % 10),
+				(char)('0' + minutes / 10), (char)('0' + minutes % 10)};
+		return new String(ret);
+	}
+
+	private static final TimeZone localTimeZone = TimeZone.getDefault();
+
 	public static final SimpleDateFormat militaryTimeFormatter =
 			new SimpleDateFormat("HHmm");
 }
@@ -1,18 +1,30 @@
 package com.gmail.at.kevinburnseit.swing.calendar;
 
+import java.awt.Container;
+import java.awt.Graphics;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.JComponent;
 import javax.swing.JPanel;
+import javax.swing.SwingWorker;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 
+import com.gmail.at.kevinburnseit.metrics.LatencyHistogram;
+import com.gmail.at.kevinburnseit.metrics.Metrics;
+
 /**
  * Part of an MVC framework, a view which takes care of the physical calendar and
  * provides a viewport for any number of calendar models. A weekly calendar view and
@@ -24,6 +36,125 @@ import javax.swing.event.ListDataListener;
 public abstract class CalendarView extends JPanel {
 	private static final long serialVersionUID = -4785271767869847392L;
 	
+	/**
+	 * A pool of graphical event components which aren't being shown. Views take
+	 * components from the pool and bind them to calendar entries instead of
+	 * creating new ones, and give them back when the entries go out of view, so
+	 * that scrolling only creates components when more entries are visible than
+	 * ever before.
+	 * @author Kevin J. Burns
+	 *
+	 * @param <C> Type of graphical event component
+	 */
+	protected static abstract class ComponentPool<C extends JComponent> {
+		private final ArrayDeque<C> idle = new ArrayDeque<>();
+		private final int maxIdle;
+		
+		/**
+		 * Constructor.
+		 * @param maxIdle The most components to keep while they aren't being shown.
+		 * Components given back beyond this number are left for the garbage
+		 * collector.
+		 */
+		protected ComponentPool(int maxIdle) {
+			this.maxIdle = maxIdle;
+		}
+		
+		/**
+		 * Creates a new component when the pool is empty.
+		 * @return A new component
+		 */
+		protected abstract C create();
+		
+		/**
+		 * Takes a component from the pool, creating one if none are idle. The
+		 * component still needs to be bound to an entry and added to a container.
+		 * @return A component which isn't in any container
+		 */
+		public final C take() {
+			C ret = this.idle.poll();
+			if (ret == null) ret = this.create();
+			return ret;
+		}
+		
+		/**
+		 * Gives a component back to the pool, removing it from its container.
+		 * The component must not be used again until it is taken from the pool.
+		 * @param c The component to give back
+		 */
+		public final void give(C c) {
+			Container parent = c.getParent();
+			if (parent != null) parent.remove(c);
+			if (this.idle.size() < this.maxIdle) this.idle.push(c);
+		}
+	}
+	
+	/**
+	 * Works out where a provider's entries go away from the event dispatch thread,
+	 * and then shows them on it. Only the newest worker started for each provider
+	 * is applied; a worker which is superseded while it is waiting or running is
+	 * thrown away when it finishes.
+	 * @author Kevin J. Burns
+	 *
+	 * @param <L> Type of the layout that the worker computes. Layouts are handed
+	 * from the layout thread to the event dispatch thread, so they should be
+	 * immutable.
+	 */
+	protected abstract class LayoutWorker<L> extends SwingWorker<L, Void> {
+		private final CalendarEntryProvider<? extends CalendarEntry> cep;
+		private final long created = System.nanoTime();
+		
+		/**
+		 * Constructor.
+		 * @param cep The calendar entry provider whose entries are being laid out
+		 */
+		protected LayoutWorker(CalendarEntryProvider<? extends CalendarEntry> cep) {
+			this.cep = cep;
+		}
+		
+		/**
+		 * Shows a computed layout. This is called on the event dispatch thread,
+		 * and only if no newer worker has been started for the same provider.
+		 * @param layout The layout returned by {@link #doInBackground()}
+		 */
+		protected abstract void apply(L layout);
+		
+		@Override
+		protected final void done() {
+			if (layoutWorkers.get(this.cep) != this) return;
+			layoutWorkers.remove(this.cep);
+			if (this.isCancelled()) return;
+			
+			try {
+				this.apply(this.get());
+			} catch (InterruptedException | ExecutionException e) {
+				e.printStackTrace();
+			}
+			layoutTime.recordSince(this.created);
+		}
+	}
+	
+	/**
+	 * Runs the layout workers of all views. One thread is enough, because
+	 * superseded layouts are cancelled before they start wherever possible.
+	 */
+	private static final ExecutorService layoutExecutor =
+			Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "calendar-layout");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	/**
+	 * The newest layout worker started for each provider which hasn't been applied
+	 * yet. Keys are compared by identity.
+	 */
+	private final IdentityHashMap<CalendarEntryProvider<? extends CalendarEntry>,
+			LayoutWorker<?>> layoutWorkers = new IdentityHashMap<>();
+	
 	private final ListDataListener providerChangedListener =
 			new ListDataListener() {
 		@Override
@@ -42,22 +173,24 @@ public abstract class CalendarView extends JPanel {
 			@SuppressWarnings("unchecked")
 			CalendarEntryProvider<? extends CalendarEntry> cep =
 					(CalendarEntryProvider<? extends CalendarEntry>)ev.getSource();
-			refreshEntries(cep);
+			refreshEntriesTimed(cep);
 		}
 	};
 	
 	/**
 	 * A list of {@link CalendarEntryProvider}s that are shown on this view.
+	 * Providers are lists, whose hash codes change with their contents, so they are
+	 * compared by identity.
 	 */
-	protected HashSet<CalendarEntryProvider<? extends CalendarEntry>> entryProviders 
-			= new HashSet<>();
+	protected Set<CalendarEntryProvider<? extends CalendarEntry>> entryProviders 
+			= Collections.newSetFromMap(new IdentityHashMap<>());
 	
 	/**
 	 * A map, where the key is a CalendarEntryProvider and the value is an
-	 * ArrayList of graphical event components.
+	 * ArrayList of graphical event components. Keys are compared by identity.
 	 */
-	protected HashMap<CalendarEntryProvider<? extends CalendarEntry>, 
-			ArrayList<JComponent>> eventComponents = new HashMap<>();
+	protected IdentityHashMap<CalendarEntryProvider<? extends CalendarEntry>, 
+			ArrayList<JComponent>> eventComponents = new IdentityHashMap<>();
 
 	/**
 	 * The {@link CalendarWidget} upon which this view is placed.
@@ -78,6 +211,17 @@ public abstract class CalendarView extends JPanel {
 	 */
 	protected GregorianCalendar endOfVisibleRange = new GregorianCalendar();
 	
+	/*
+	 * How long refreshing entries takes on the event dispatch thread, how long it
+	 * takes from then until the new layout is shown, and how long painting takes.
+	 */
+	private final LatencyHistogram refreshTime = 
+			Metrics.histogram("view", this.getClass().getSimpleName() + ".refresh");
+	private final LatencyHistogram layoutTime = 
+			Metrics.histogram("view", this.getClass().getSimpleName() + ".layout");
+	private final LatencyHistogram paintTime = 
+			Metrics.histogram("view", this.getClass().getSimpleName() + ".paint");
+	
 	/**
 	 * Constructor. Creates a calendar view as part of a {@link CalendarWidget}.
 	 * @param parent Calendar widget where this view is to be placed
@@ -164,9 +308,33 @@ public abstract class CalendarView extends JPanel {
 	
 	public final void removeCalendarEntryProvider(
 			CalendarEntryProvider<? extends CalendarEntry> cep) {
-		this.entryProviders.add(cep);
+		this.entryProviders.remove(cep);
 		cep.removeListDataListener(this.providerChangedListener);
 		this.eventComponents.remove(cep);
+		
+		LayoutWorker<?> pending = this.layoutWorkers.remove(cep);
+		if (pending != null) pending.cancel(false);
+	}
+	
+	/**
+	 * Returns whether any layout worker started by this view hasn't been applied
+	 * yet. This must be called on the event dispatch thread.
+	 * @return <code>true</code> if a layout is still to be shown
+	 */
+	final boolean isLayoutPending() {
+		return !this.layoutWorkers.isEmpty();
+	}
+	
+	/**
+	 * Starts a layout worker on the layout thread. Any worker already started for
+	 * the same provider is cancelled, and its layout won't be applied. This must
+	 * be called on the event dispatch thread.
+	 * @param worker The worker to start
+	 */
+	protected final void startLayout(LayoutWorker<?> worker) {
+		LayoutWorker<?> old = this.layoutWorkers.put(worker.cep, worker);
+		if (old != null) old.cancel(false);
+		layoutExecutor.execute(worker);
 	}
 	
 	/**
@@ -184,7 +352,25 @@ public abstract class CalendarView extends JPanel {
 	public final void refreshAllEntries() {
 		for (CalendarEntryProvider<? extends CalendarEntry> cep : 
 				this.entryProviders) {
-			this.refreshEntries(cep);
+			this.refreshEntriesTimed(cep);
 		}
 	}
+	
+	/**
+	 * Calls {@link #refreshEntries(CalendarEntryProvider)}, and records how long
+	 * it took.
+	 * @param cep The calendar entry provider to refresh
+	 */
+	final void refreshEntriesTimed(CalendarEntryProvider<? extends CalendarEntry> cep) {
+		long start = System.nanoTime();
+		this.refreshEntries(cep);
+		this.refreshTime.recordSince(start);
+	}
+	
+	@Override
+	public void paint(Graphics g) {
+		long start = System.nanoTime();
+		super.paint(g);
+		this.paintTime.recordSince(start);
+	}
 }
@@ -9,9 +9,9 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.function.Predicate;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -131,15 +131,16 @@ public class CalendarViewMonthly extends CalendarView {
 			}
 			
 			for (CalendarEntry ce : list) {
-				entriesToShow.add(new Entry(ce));
+				Entry e = entryPool.take();
+				e.bind(ce);
+				entriesToShow.add(e);
+				ret.add(e);
 			}
 			
-			Entry nullEntry = new Entry(null);
-			Collections.sort(entriesToShow, nullEntry.sorter);
+			Collections.sort(entriesToShow, entrySorter);
 			
 			for (Entry e : entriesToShow) {
 				this.add(e);
-				ret.add(e);
 			}
 			
 			return ret;
@@ -151,19 +152,19 @@ public class CalendarViewMonthly extends CalendarView {
 
 		private CalendarEntry event;
 		
-		public final Comparator<Entry> sorter = new Comparator<Entry>() {
-			@Override
-			public int compare(Entry x, Entry y) {
-				return x.event.getStartTime().compareTo(y.event.getStartTime());
-			}			
-		};
+		public Entry() {
+			this.setOpaque(true);
+		}
 		
-		public Entry(CalendarEntry event) {
+		/**
+		 * Shows a calendar entry in this component. The component must not be in a
+		 * container when this is called.
+		 * @param event The calendar entry to show
+		 */
+		private void bind(CalendarEntry event) {
 			this.event = event;
-			if (this.event == null) return;
-			this.setOpaque(true);
 			this.setText(CalendarHelper.militaryTimeFormatter.format(
-					this.event.getStartTime().getTime()) + " " + 
+					new Date(this.event.getStartMillis())) + " " + 
 					this.event.getTitle());
 			this.setToolTipText(this.getText());
 		}
@@ -172,6 +173,18 @@ public class CalendarViewMonthly extends CalendarView {
 	private JPanel dayNameArea;
 	private JPanel gridArea;
 	private HashMap<Integer, Day> dayPanels = new HashMap<>();
+	private final ComponentPool<Entry> entryPool = new ComponentPool<Entry>(500) {
+		@Override
+		protected Entry create() {
+			return new Entry();
+		}
+	};
+	private final Comparator<Entry> entrySorter = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry x, Entry y) {
+			return x.event.compareStartTo(y.event);
+		}
+	};
 
 	/**
 	 * Constructor. Creates a calendar view which displays a full month.
@@ -329,21 +342,11 @@ public class CalendarViewMonthly extends CalendarView {
 	@Override
 	public void refreshEntries(CalendarEntryProvider<? extends CalendarEntry> cep) {
 		for (JComponent c : this.eventComponents.get(cep)) {
-			c.getParent().remove(c);
+			this.entryPool.give((Entry)c);
 		}
 		
 		this.eventComponents.get(cep).clear();
 		
-		ArrayList<CalendarEntry> entriesToDraw = new ArrayList<>();
-		Predicate<CalendarEntry> withinPredicate = 
-				CalendarEntryProvider.getPredicateForTimeRange(
-						startOfVisibleRange, endOfVisibleRange);
-		for (CalendarEntry ce : cep) {
-			if (withinPredicate.test(ce)) {
-				entriesToDraw.add(ce);
-			}
-		}
-		
 		for (Day day : this.dayPanels.values()) {
 			/*
 			 * TODO figure out a way to colour the entries, or not. It's not all
@@ -359,13 +362,7 @@ public class CalendarViewMonthly extends CalendarView {
 			end.add(Calendar.MILLISECOND, -1);
 			
 			ArrayList<CalendarEntry> todaysEvents = new ArrayList<>();
-			Predicate<CalendarEntry> dayPredicate = 
-					CalendarEntryProvider.getPredicateForTimeRange(start, end);
-			for (CalendarEntry ce : entriesToDraw) {
-				if (dayPredicate.test(ce)) {
-					todaysEvents.add(ce);
-				}
-			}
+			todaysEvents.addAll(cep.query(start, end));
 			
 			ArrayList<Entry> entries = day.createGraphicalEntries(todaysEvents);
 			this.eventComponents.get(cep).addAll(entries);
@@ -3,21 +3,38 @@ package com.gmail.at.kevinburnseit.swing.calendar;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Container;
+import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.GridLayout;
 import java.awt.Insets;
+import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.Toolkit;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineBreakMeasurer;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.text.AttributedString;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.function.Predicate;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -26,8 +43,13 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.SpringLayout;
 import javax.swing.SwingUtilities;
+import javax.swing.ToolTipManager;
+import javax.swing.UIManager;
 import javax.swing.border.Border;
 
+import com.gmail.at.kevinburnseit.metrics.LatencyHistogram;
+import com.gmail.at.kevinburnseit.metrics.Metrics;
+
 /**
  * A calendar view which displays a full week. This view starts each week with
  * Monday and ends each week with Sunday. Because week boundaries and month boundaries
@@ -39,8 +61,34 @@ import javax.swing.border.Border;
 public class CalendarViewWeekly extends CalendarView {
 	private static final long serialVersionUID = 1845297077193705145L;
 	
+	/*
+	 * Days are usually repainted on their own, without the rest of the view.
+	 */
+	private static final LatencyHistogram dayPaintTime =
+			Metrics.histogram("view", "CalendarViewWeekly.Day.paint");
+	
+	/**
+	 * Ways that the weekly view can show calendar entries.
+	 * @author Kevin J. Burns
+	 *
+	 */
+	public enum EntryRenderingEnum {
+		/**
+		 * Each entry is a panel with a border and an html label.
+		 */
+		COMPONENTS,
+		/**
+		 * Each day paints its entries itself, using text which is measured and
+		 * wrapped when the entries are laid out. This looks the same as
+		 * {@link #COMPONENTS}, but is much cheaper with many entries.
+		 */
+		PAINTED;
+	}
+	
 	private class Entry extends JPanel {
-		private Day parent;
+		private static final long serialVersionUID = 5186638636640902360L;
+		
+		private final JLabel label = new JLabel();
 		private CalendarEntry ce;
 		
 		private Entry() {
@@ -48,71 +96,185 @@ public class CalendarViewWeekly extends CalendarView {
 			this.setLayout(bl);
 			this.setOpaque(true);
 			this.setBorder(BorderFactory.createLineBorder(Color.black));
-		}
-		
-		public Entry(Day parent, CalendarEntry ce) {
-			this();
-			this.parent = parent;
-			this.ce = ce;
+			this.add(this.label);
 			
-			JLabel label;
-			label = new JLabel();
-			label.setText("<html>" +
-					CalendarHelper.militaryTimeFormatter.format(
-							ce.getStartTime().getTime()) +
-					" " +
-					ce.getTitle() + "</html>");
-			this.add(label);
-			
-			resizeListener = new ComponentAdapter() {
-				@Override
-				public void componentResized(ComponentEvent e) {
-					updateDimensions();
-				}
+			/*
+			 * The tooltip makes this component take mouse events, so pass clicks on
+			 * to the day underneath, as painted entries do.
+			 */
+			this.addMouseListener(new MouseAdapter() {
 				@Override
-				public void componentShown(ComponentEvent e) {
-					updateDimensions();
+				public void mouseClicked(MouseEvent e) {
+					Container parent = Entry.this.getParent();
+					if (parent == null) return;
+					parent.dispatchEvent(
+							SwingUtilities.convertMouseEvent(Entry.this, e, parent));
 				}
-			};
+			});
 		}
-
-		protected void updateDimensions() {
-			Insets parentInsets = this.getParent().getInsets();
-			Rectangle parentBounds = this.getParent().getBounds();
-			
-			int startTime = Math.max(earliestTime, 
-					this.timeToInt(this.ce.getStartTime()));
-			int endTime = this.timeToInt(this.ce.getEndTime());
-			
-			int lt = parentBounds.x + parentInsets.left;
-			int rt = parentBounds.x + parentBounds.width - 
-					parentInsets.right - parentInsets.left - 3;
-			int top = timeToYOrdinate(startTime);
-			int bottom = timeToYOrdinate(endTime);
-			
-			this.setBounds(lt, top, rt - lt, bottom - top);
-			this.revalidate();
+		
+		/**
+		 * Shows a calendar entry in this component. The component must not be in a
+		 * container when this is called.
+		 * @param ce The calendar entry to show
+		 * @param text The text to show for the entry
+		 */
+		private void bind(CalendarEntry ce, String text) {
+			this.ce = ce;
+			this.label.setText("<html>" + text + "</html>");
+			this.setToolTipText(text);
 		}
+	}
+	
+	/**
+	 * The size of the day panels and the range of times shown on them, captured on
+	 * the event dispatch thread so that entries can be laid out on another thread.
+	 * @author Kevin J. Burns
+	 *
+	 */
+	private static final class Geometry {
+		private final int earliestTime;
+		private final int latestTime;
+		private final int bufferHeight;
+		private final int dayHeight;
+		private final int left;
+		private final int width;
+		/*
+		 * Used to measure labels. Both are null unless entries are painted.
+		 */
+		private final Font font;
+		private final FontRenderContext frc;
 		
-		private int timeToInt(GregorianCalendar time) {
-			return time.get(Calendar.HOUR_OF_DAY) * 3600 +
-					time.get(Calendar.MINUTE) * 60 +
-					time.get(Calendar.SECOND);
+		private Geometry(int earliestTime, int latestTime, int bufferHeight,
+				int dayHeight, int left, int width, Font font, FontRenderContext frc) {
+			this.earliestTime = earliestTime;
+			this.latestTime = latestTime;
+			this.bufferHeight = bufferHeight;
+			this.dayHeight = dayHeight;
+			this.left = left;
+			this.width = width;
+			this.font = font;
+			this.frc = frc;
 		}
-
-		private static final long serialVersionUID = 5186638636640902360L;
-		private ComponentAdapter resizeListener;
-
+	}
+	
+	/**
+	 * Where one calendar entry is shown on one day. An entry which crosses midnight
+	 * has a placement on each day that it touches.
+	 * @author Kevin J. Burns
+	 *
+	 */
+	private static final class Placement {
+		private final CalendarEntry ce;
+		private final String text;
+		private final int day;
+		private final int column;
+		private final int columns;
+		private final int x;
+		private final int y;
+		private final int width;
+		private final int height;
+		/*
+		 * The text wrapped to fit inside the border; null unless entries are 
+		 * painted.
+		 */
+		private final List<TextLayout> lines;
+		
+		private Placement(CalendarEntry ce, String text, int day, 
+				int column, int columns, int x, int y, int width, int height,
+				List<TextLayout> lines) {
+			this.ce = ce;
+			this.text = text;
+			this.day = day;
+			this.column = column;
+			this.columns = columns;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.lines = lines;
+		}
+		
+		private boolean contains(Point p) {
+			return (p.x >= this.x) && (p.x < this.x + this.width) &&
+					(p.y >= this.y) && (p.y < this.y + this.height);
+		}
+	}
+	
+	/**
+	 * Everything that a day's background depends on. The background only needs to
+	 * be drawn again when this changes.
+	 * @author Kevin J. Burns
+	 *
+	 */
+	private static final class BackgroundKey {
+		private final int width;
+		private final int height;
+		private final double scaleX;
+		private final double scaleY;
+		private final int earliestTime;
+		private final int latestTime;
+		private final int earliestY;
+		private final int latestY;
+		private final boolean hasSchedule;
+		private final boolean atWork;
+		private final boolean takingLunch;
+		private final int workStartTime;
+		private final int workEndTime;
+		private final int lunchStartTime;
+		private final int lunchEndTime;
+		
+		/**
+		 * Constructor. Reads the schedule for the day once.
+		 * @param sp The schedule provider, or <code>null</code> if there is none
+		 * @param date The day
+		 */
+		private BackgroundKey(int width, int height, double scaleX, double scaleY,
+				int earliestTime, int latestTime, int earliestY, int latestY,
+				DailyScheduleProvider sp, GregorianCalendar date) {
+			this.width = width;
+			this.height = height;
+			this.scaleX = scaleX;
+			this.scaleY = scaleY;
+			this.earliestTime = earliestTime;
+			this.latestTime = latestTime;
+			this.earliestY = earliestY;
+			this.latestY = latestY;
+			this.hasSchedule = (sp != null);
+			this.atWork = this.hasSchedule && sp.isAtWorkOn(date);
+			this.takingLunch = this.atWork && sp.isTakingLunchOn(date);
+			// times which aren't drawn are left at 0, so they can't cause a redraw
+			this.workStartTime = this.atWork ? sp.getWorkStartTime(date) : 0;
+			this.workEndTime = this.atWork ? sp.getWorkEndTime(date) : 0;
+			this.lunchStartTime = this.takingLunch ? sp.getLunchStartTime(date) : 0;
+			this.lunchEndTime = this.takingLunch ? sp.getLunchEndTime(date) : 0;
+		}
+		
 		@Override
-		public void removeNotify() {
-			super.removeNotify();
-			this.parent.removeComponentListener(this.resizeListener);
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BackgroundKey)) return false;
+			BackgroundKey other = (BackgroundKey)obj;
+			
+			return (this.width == other.width) && (this.height == other.height) &&
+					(this.scaleX == other.scaleX) && (this.scaleY == other.scaleY) &&
+					(this.earliestTime == other.earliestTime) &&
+					(this.latestTime == other.latestTime) &&
+					(this.earliestY == other.earliestY) &&
+					(this.latestY == other.latestY) &&
+					(this.hasSchedule == other.hasSchedule) &&
+					(this.atWork == other.atWork) &&
+					(this.takingLunch == other.takingLunch) &&
+					(this.workStartTime == other.workStartTime) &&
+					(this.workEndTime == other.workEndTime) &&
+					(this.lunchStartTime == other.lunchStartTime) &&
+					(this.lunchEndTime == other.lunchEndTime);
 		}
-
+		
 		@Override
-		public void addNotify() {
-			super.addNotify();
-			this.parent.addComponentListener(this.resizeListener);
+		public int hashCode() {
+			return Arrays.hashCode(new int[] {this.width, this.height, 
+					this.earliestTime, this.latestTime, this.workStartTime, 
+					this.workEndTime, this.lunchStartTime, this.lunchEndTime});
 		}
 	}
 	
@@ -128,6 +290,17 @@ public class CalendarViewWeekly extends CalendarView {
 		private int place;
 		private JLabel dayLabel;
 		private JPanel contentArea;
+		/*
+		 * Entries painted on this day for each provider. Keys are compared by
+		 * identity.
+		 */
+		private final IdentityHashMap<CalendarEntryProvider<? extends CalendarEntry>,
+				List<Placement>> placements = new IdentityHashMap<>();
+		/*
+		 * The hour lines and hatching, and what they were drawn for.
+		 */
+		private BufferedImage background = null;
+		private BackgroundKey backgroundKey = null;
 
 		private final Border normalBorder = 
 				BorderFactory.createLineBorder(this.getBackground(), 3);
@@ -166,66 +339,33 @@ public class CalendarViewWeekly extends CalendarView {
 				 */
 				@Override
 				protected void paintComponent(Graphics g) {
+					long start = System.nanoTime();
 					super.paintComponent(g);
-
-					int eTime = CalendarViewWeekly.this.earliestTime;
-					int lTime = CalendarViewWeekly.this.latestTime;
-					
-					int firstHour = eTime / 3600;
-					if (eTime % 3600 > 0) firstHour++;
-					
-					int lastHour = lTime / 3600;
-					
-					Rectangle2D cb = g.getClipBounds();
-
-					for (int hr = firstHour; hr <= lastHour; hr++) {
-						int y = CalendarViewWeekly.this.timeToYOrdinate(hr * 3600);
-						g.drawLine((int)cb.getX(), y, (int)(cb.getX() + cb.getWidth()), y);
-					}
-
-					DailyScheduleProvider sp = calWidget.getScheduleProvider_rNull();
-					if (sp == null) return;
-					
-					/*
-					 * Hatch part of day before work, or all day if there is no work 
-					 * today
-					 */
-					int earlyTime = earliestTime;
-					int lateTime;
-					GregorianCalendar today = date;
-					if (sp.isAtWorkOn(today)) {
-						lateTime = sp.getWorkStartTime(today);
-					}
-					else {
-						lateTime = latestTime;
-					}
-					
-					if (earlyTime != lateTime) {
-						hatchInterval(g, earlyTime, lateTime);
-					}
 					
-					/*
-					 * No need to do any more if not at work today
-					 */
-					if (!sp.isAtWorkOn(today)) return;
-					
-					earlyTime = sp.getWorkEndTime(today);
-					lateTime = latestTime;
-					if (earlyTime != lateTime) {
-						hatchInterval(g, earlyTime, lateTime);
-					}
-					
-					if (!sp.isTakingLunchOn(today)) return;
-					earlyTime = sp.getLunchStartTime(today);
-					lateTime = sp.getLunchEndTime(today);
-					
-					hatchInterval(g, earlyTime, lateTime);
+					Day.this.paintBackground(g);
+					Day.this.paintEntries(g);
+					dayPaintTime.recordSince(start);
+				}
+				
+				/*
+				 * Painted entries have no components to carry their tooltips, so
+				 * the content area finds the entry under the mouse itself.
+				 */
+				@Override
+				public String getToolTipText(MouseEvent e) {
+					Placement p = Day.this.getPlacementAt_rNull(e.getPoint());
+					return (p == null) ? null : p.text;
 				}
 			};
 			this.contentArea.setLayout(null); // absolute layout
+			ToolTipManager.sharedInstance().registerComponent(this.contentArea);
 			this.add(this.contentArea, BorderLayout.CENTER);
 			
-			this.addMouseListener(new MouseAdapter() {
+			/*
+			 * The content area takes its own mouse events because of its tooltips,
+			 * so it needs the listener as well as the day.
+			 */
+			MouseAdapter selectOnClick = new MouseAdapter() {
 				@Override
 				public void mouseClicked(MouseEvent e) {
 					if (SwingUtilities.isLeftMouseButton(e)) {
@@ -234,7 +374,160 @@ public class CalendarViewWeekly extends CalendarView {
 						Day.this.setSelected(true);
 					}
 				}
-			});
+			};
+			this.addMouseListener(selectOnClick);
+			this.contentArea.addMouseListener(selectOnClick);
+		}
+		
+		private void paintBackground(Graphics g) {
+			Graphics2D g2 = (Graphics2D)g;
+			AffineTransform tx = g2.getTransform();
+			int width = this.contentArea.getWidth();
+			int height = this.contentArea.getHeight();
+			if ((width <= 0) || (height <= 0)) return;
+			
+			BackgroundKey key = new BackgroundKey(width, height, 
+					tx.getScaleX(), tx.getScaleY(), earliestTime, latestTime, 
+					timeToYOrdinate(earliestTime), timeToYOrdinate(latestTime),
+					calWidget.getScheduleProvider_rNull(), this.date);
+			if (!key.equals(this.backgroundKey)) {
+				this.background = this.renderBackground(key);
+				this.backgroundKey = key;
+			}
+			
+			// the image is drawn at device resolution, so undo the scale
+			Graphics2D ig = (Graphics2D)g2.create();
+			ig.scale(1 / key.scaleX, 1 / key.scaleY);
+			ig.drawImage(this.background, 0, 0, null);
+			ig.dispose();
+		}
+		
+		private BufferedImage renderBackground(BackgroundKey key) {
+			BufferedImage ret = new BufferedImage(
+					(int)Math.ceil(key.width * key.scaleX), 
+					(int)Math.ceil(key.height * key.scaleY),
+					BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = ret.createGraphics();
+			g.scale(key.scaleX, key.scaleY);
+			g.setColor(this.contentArea.getForeground());
+			
+			int eTime = key.earliestTime;
+			int lTime = key.latestTime;
+			
+			int firstHour = eTime / 3600;
+			if (eTime % 3600 > 0) firstHour++;
+			
+			int lastHour = lTime / 3600;
+			
+			for (int hr = firstHour; hr <= lastHour; hr++) {
+				int y = timeToYOrdinate(hr * 3600);
+				g.drawLine(0, y, key.width, y);
+			}
+			
+			if (key.hasSchedule) {
+				/*
+				 * Hatch part of day before work, or all day if there is no work 
+				 * today
+				 */
+				int earlyTime = eTime;
+				int lateTime = key.atWork ? key.workStartTime : lTime;
+				if (earlyTime != lateTime) {
+					hatchInterval(g, key.width, earlyTime, lateTime);
+				}
+				
+				if (key.atWork) {
+					earlyTime = key.workEndTime;
+					lateTime = lTime;
+					if (earlyTime != lateTime) {
+						hatchInterval(g, key.width, earlyTime, lateTime);
+					}
+					
+					if (key.takingLunch) {
+						hatchInterval(g, key.width, 
+								key.lunchStartTime, key.lunchEndTime);
+					}
+				}
+			}
+			
+			g.dispose();
+			return ret;
+		}
+		
+		private void paintEntries(Graphics g) {
+			if (this.placements.isEmpty()) return;
+			
+			Graphics2D g2 = (Graphics2D)g;
+			Map<?, ?> desktopHints = (Map<?, ?>)Toolkit.getDefaultToolkit()
+					.getDesktopProperty("awt.font.desktophints");
+			if (desktopHints != null) g2.addRenderingHints(desktopHints);
+			
+			Rectangle clip = g2.getClipBounds();
+			Color background = this.contentArea.getBackground();
+			Color foreground = UIManager.getColor("Label.foreground");
+			
+			for (List<Placement> list : this.placements.values()) {
+				/*
+				 * Painted in reverse, so that entries overlap the same way as child
+				 * components, where the first child is on top.
+				 */
+				for (int i = list.size() - 1; i >= 0; i--) {
+					Placement p = list.get(i);
+					if ((clip != null) && 
+							!clip.intersects(p.x, p.y, p.width, p.height)) {
+						continue;
+					}
+					
+					g2.setColor(background);
+					g2.fillRect(p.x, p.y, p.width, p.height);
+					g2.setColor(Color.black);
+					g2.drawRect(p.x, p.y, p.width - 1, p.height - 1);
+					
+					Shape oldClip = g2.getClip();
+					g2.clipRect(p.x + 1, p.y + 1, p.width - 2, p.height - 2);
+					g2.setColor(foreground);
+					float y = p.y + 1;
+					for (TextLayout line : p.lines) {
+						y += line.getAscent();
+						line.draw(g2, p.x + 1, y);
+						y += line.getDescent() + line.getLeading();
+					}
+					g2.setClip(oldClip);
+				}
+			}
+		}
+		
+		/**
+		 * Finds the entry shown at a point on this day.
+		 * @param p The point, in the coordinates of {@link #contentArea}
+		 * @return The topmost entry at that point, or <code>null</code> if there
+		 * is none.
+		 */
+		private CalendarEntry getEntryAt_rNull(Point p) {
+			// the first entry hit is the one on top
+			for (Component c : this.contentArea.getComponents()) {
+				if ((c instanceof Entry) && c.getBounds().contains(p)) {
+					return ((Entry)c).ce;
+				}
+			}
+			
+			Placement pl = this.getPlacementAt_rNull(p);
+			return (pl == null) ? null : pl.ce;
+		}
+		
+		/**
+		 * Finds the painted entry at a point on this day.
+		 * @param p The point, in the coordinates of {@link #contentArea}
+		 * @return The topmost painted entry at that point, or <code>null</code> if
+		 * there is none or entries are components.
+		 */
+		private Placement getPlacementAt_rNull(Point p) {
+			// the first entry hit is the one on top
+			for (List<Placement> list : this.placements.values()) {
+				for (Placement pl : list) {
+					if (pl.contains(p)) return pl;
+				}
+			}
+			return null;
 		}
 		
 		/**
@@ -252,17 +545,15 @@ public class CalendarViewWeekly extends CalendarView {
 			}
 		}
 
-		private void hatchInterval(Graphics g, int earlyTime, int lateTime) {
+		private void hatchInterval(Graphics g, int width, int earlyTime, int lateTime) {
 			Color oldColor = g.getColor();
 			g.setColor(Color.black);
-			Rectangle2D bounds = g.getClipBounds();
 			int gap = 10;
 			int earlyY = timeToYOrdinate(earlyTime);
 			int lateY = timeToYOrdinate(lateTime);
 			int diff = lateY - earlyY;
 			
-			for (int x = (int)bounds.getMinX(); x <= bounds.getMaxX(); 
-					x += gap) {
+			for (int x = 0; x <= width; x += gap) {
 				g.drawLine(x, earlyY, x + diff, lateY);
 			}
 			for (int y = earlyY; y <= lateY; y += gap) {
@@ -271,30 +562,6 @@ public class CalendarViewWeekly extends CalendarView {
 			}
 			g.setColor(oldColor);
 		}
-
-		public ArrayList<Entry> createGraphicalEntries(ArrayList<CalendarEntry> list) {
-			ArrayList<Entry> entriesToShow = new ArrayList<>();
-			ArrayList<Entry> ret = new ArrayList<>();
-			
-			for (Component c : this.contentArea.getComponents()) {
-				if (!(c instanceof Entry)) continue;
-				entriesToShow.add((Entry)c);
-			}
-			for (Entry e : entriesToShow) {
-				this.remove(e);
-			}
-			
-			for (CalendarEntry ce : list) {
-				entriesToShow.add(new Entry(this, ce));
-			}
-			
-			for (Entry e : entriesToShow) {
-				this.contentArea.add(e);
-				ret.add(e);
-			}
-			
-			return ret;
-		}
 	}
 
 	/**
@@ -362,6 +629,13 @@ public class CalendarViewWeekly extends CalendarView {
 	private HashMap<Integer, Day> dayPanels = new HashMap<>();
 	private int earliestTime;
 	private int latestTime;
+	private EntryRenderingEnum entryRendering = EntryRenderingEnum.PAINTED;
+	private final ComponentPool<Entry> entryPool = new ComponentPool<Entry>(500) {
+		@Override
+		protected Entry create() {
+			return new Entry();
+		}
+	};
 
 	/**
 	 * Constructor. Creates a calendar view which displays a full week.
@@ -401,6 +675,12 @@ public class CalendarViewWeekly extends CalendarView {
 				0, SpringLayout.SOUTH, this);
 		GridLayout layout1 = new GridLayout(0, 7, 0, 0);
 		this.gridArea.setLayout(layout1);
+		this.gridArea.addComponentListener(new ComponentAdapter() {
+			@Override
+			public void componentResized(ComponentEvent e) {
+				refreshAllEntries();
+			}
+		});
 		this.add(this.gridArea);
 		this.recalculateVisibleRange();
 		//this.rebuildCalendar();
@@ -463,6 +743,8 @@ public class CalendarViewWeekly extends CalendarView {
 		this.dayPanels.get(selected).setSelected(true);
 		this.invalidate();
 		this.repaint();
+		
+		this.refreshAllEntries();
 	}
 
 	@Override
@@ -540,9 +822,15 @@ public class CalendarViewWeekly extends CalendarView {
 		int dayHeight = this.dayPanels.get(0).contentArea.getBounds().height;
 		dayHeight -= 2 * bufferHeight;
 		
-		int timeSinceBeginOfDay = time - this.earliestTime;
+		return timeToYOrdinate(time, this.earliestTime, this.latestTime, 
+				bufferHeight, dayHeight);
+	}
+	
+	private static int timeToYOrdinate(int time, int earliestTime, int latestTime,
+			int bufferHeight, int dayHeight) {
+		int timeSinceBeginOfDay = time - earliestTime;
 		
-		int y = timeSinceBeginOfDay * dayHeight / (this.latestTime - this.earliestTime);
+		int y = timeSinceBeginOfDay * dayHeight / (latestTime - earliestTime);
 		y += bufferHeight;
 		
 		return y;
@@ -567,49 +855,234 @@ public class CalendarViewWeekly extends CalendarView {
 		return time;
 	}
 
-	@Override
-	public void refreshEntries(CalendarEntryProvider<? extends CalendarEntry> cep) {
-		for (JComponent c : this.eventComponents.get(cep)) {
-			c.getParent().remove(c);
+	private Geometry captureGeometry() {
+		Day day = this.dayPanels.get(0);
+		int bufferHeight = (day.dayLabel.getBounds().height + 1) / 2;
+		Rectangle bounds = day.contentArea.getBounds();
+		Insets insets = day.contentArea.getInsets();
+		
+		int lt = bounds.x + insets.left;
+		int rt = bounds.x + bounds.width - insets.right - insets.left - 3;
+		
+		Font font = null;
+		FontRenderContext frc = null;
+		if (this.entryRendering == EntryRenderingEnum.PAINTED) {
+			font = UIManager.getFont("Label.font");
+			frc = day.contentArea.getFontMetrics(font).getFontRenderContext();
 		}
 		
-		this.eventComponents.get(cep).clear();
+		return new Geometry(this.earliestTime, this.latestTime, bufferHeight,
+				bounds.height - 2 * bufferHeight, lt, rt - lt, font, frc);
+	}
+	
+	/**
+	 * Works out where entries go on the days of the week. This doesn't touch any
+	 * components or entries, only copies of their values, so it can run away from
+	 * the event dispatch thread.
+	 * @param entries The values of the entries to place, in order of start time
+	 * @param dayStarts The start of each day of the week, followed by the start of
+	 * the next week, in milliseconds since the epoch
+	 * @param g The geometry of the days
+	 * @return The placements, day by day
+	 */
+	private static List<Placement> layOut(List<CalendarEntryValue> entries,
+			long[] dayStarts, Geometry g) {
+		ArrayList<Placement> ret = new ArrayList<>(entries.size());
+		ArrayList<CalendarEntryValue> todaysEntries = new ArrayList<>();
 		
-		ArrayList<CalendarEntry> entriesToDraw = new ArrayList<>();
-		Predicate<CalendarEntry> withinPredicate = 
-				CalendarEntryProvider.getPredicateForTimeRange(
-						startOfVisibleRange, endOfVisibleRange);
-		for (CalendarEntry ce : cep) {
-			if (withinPredicate.test(ce)) {
-				entriesToDraw.add(ce);
+		for (int day = 0; day < 7; day++) {
+			long dayStart = dayStarts[day];
+			long dayEnd = dayStarts[day + 1] - 1;
+			
+			todaysEntries.clear();
+			for (CalendarEntryValue ce : entries) {
+				if (ce.overlaps(dayStart, dayEnd)) todaysEntries.add(ce);
+			}
+			
+			for (OverlapLayout.Slot slot : OverlapLayout.arrange(todaysEntries)) {
+				CalendarEntryValue ce = slot.getEntry();
+				long start = ce.getStartMillis();
+				long end = ce.getEndMillis();
+				
+				/*
+				 * Entries which carry over from yesterday or into tomorrow run off the
+				 * top or bottom of the day.
+				 */
+				int startTime = (start < dayStart) ? g.earliestTime : Math.max(
+						g.earliestTime, CalendarHelper.getSecondOfDay(start));
+				int endTime = (end > dayEnd) ? g.latestTime : 
+					CalendarHelper.getSecondOfDay(end);
+				
+				int top = timeToYOrdinate(startTime, g.earliestTime, g.latestTime, 
+						g.bufferHeight, g.dayHeight);
+				int bottom = timeToYOrdinate(endTime, g.earliestTime, g.latestTime, 
+						g.bufferHeight, g.dayHeight);
+				
+				String text = CalendarHelper.formatMilitaryTime(
+						CalendarHelper.getSecondOfDay(start)) + " " + ce.getTitle();
+				int column = slot.getColumn();
+				int columns = slot.getColumns();
+				int x = g.left + column * g.width / columns;
+				int width = g.left + (column + 1) * g.width / columns - x;
+				int height = bottom - top;
+				List<TextLayout> lines = null;
+				if (g.frc != null) {
+					lines = wrapText(text, g.font, g.frc, width - 2, height - 2);
+				}
+				
+				ret.add(new Placement(ce.getEntry(), text, day, column, columns, 
+						x, top, width, height, lines));
 			}
 		}
 		
+		return Collections.unmodifiableList(ret);
+	}
+	
+	/**
+	 * Breaks text into lines which fit within a width, the way an html label would.
+	 * @param text The text to break
+	 * @param font The font to measure the text in
+	 * @param frc The context to measure the text in
+	 * @param width The width available for each line
+	 * @param height The height available; lines which would start below this are
+	 * left out
+	 * @return The lines, in order
+	 */
+	private static List<TextLayout> wrapText(String text, Font font,
+			FontRenderContext frc, int width, int height) {
+		ArrayList<TextLayout> ret = new ArrayList<>();
+		if (text.isEmpty() || (width <= 0)) return ret;
+		
+		AttributedString as = new AttributedString(text);
+		as.addAttribute(TextAttribute.FONT, font);
+		LineBreakMeasurer lbm = new LineBreakMeasurer(as.getIterator(), frc);
+		float y = 0;
+		while ((lbm.getPosition() < text.length()) && (y < height)) {
+			TextLayout line = lbm.nextLayout(width);
+			ret.add(line);
+			y += line.getAscent() + line.getDescent() + line.getLeading();
+		}
+		
+		return Collections.unmodifiableList(ret);
+	}
+	
+	private void clearEntries(CalendarEntryProvider<? extends CalendarEntry> cep) {
+		ArrayList<JComponent> components = this.eventComponents.get(cep);
+		for (JComponent c : components) {
+			this.entryPool.give((Entry)c);
+		}
+		components.clear();
+		
 		for (Day day : this.dayPanels.values()) {
-			/*
-			 * TODO figure out a way to colour the entries, or not. It's not all
-			 * that important right now. 
-			 */
-			GregorianCalendar start = new GregorianCalendar();
-			start.setTime(this.startOfVisibleRange.getTime());
-			start.add(Calendar.DAY_OF_MONTH, day.place);
-			
-			GregorianCalendar end = new GregorianCalendar();
-			end.setTime(start.getTime());
-			end.add(Calendar.HOUR_OF_DAY, 24);
-			end.add(Calendar.MILLISECOND, -1);
-			
-			ArrayList<CalendarEntry> todaysEvents = new ArrayList<>();
-			Predicate<CalendarEntry> dayPredicate = 
-					CalendarEntryProvider.getPredicateForTimeRange(start, end);
-			for (CalendarEntry ce : entriesToDraw) {
-				if (dayPredicate.test(ce)) {
-					todaysEvents.add(ce);
+			day.placements.remove(cep);
+		}
+	}
+	
+	private void showPlacements(CalendarEntryProvider<? extends CalendarEntry> cep,
+			List<Placement> layout) {
+		this.clearEntries(cep);
+		
+		if (this.entryRendering == EntryRenderingEnum.PAINTED) {
+			for (Placement p : layout) {
+				Day day = this.dayPanels.get(p.day);
+				List<Placement> list = day.placements.get(cep);
+				if (list == null) {
+					list = new ArrayList<>();
+					day.placements.put(cep, list);
 				}
+				list.add(p);
 			}
-			
-			ArrayList<Entry> entries = day.createGraphicalEntries(todaysEvents);
-			this.eventComponents.get(cep).addAll(entries);
 		}
+		else {
+			ArrayList<JComponent> components = this.eventComponents.get(cep);
+			for (Placement p : layout) {
+				/*
+				 * TODO figure out a way to colour the entries, or not. It's not all
+				 * that important right now. 
+				 */
+				Entry e = this.entryPool.take();
+				e.bind(p.ce, p.text);
+				e.setBounds(p.x, p.y, p.width, p.height);
+				this.dayPanels.get(p.day).contentArea.add(e);
+				components.add(e);
+			}
+		}
+		
+		this.gridArea.revalidate();
+		this.gridArea.repaint();
+	}
+	
+	/**
+	 * Gets how this view shows calendar entries.
+	 * @return the way entries are shown
+	 */
+	public EntryRenderingEnum getEntryRendering() {
+		return this.entryRendering;
+	}
+	
+	/**
+	 * Sets how this view shows calendar entries. The entries are laid out again in
+	 * the new way.
+	 * @param entryRendering the way entries are to be shown
+	 */
+	public void setEntryRendering(EntryRenderingEnum entryRendering) {
+		if (entryRendering == this.entryRendering) return;
+		
+		this.entryRendering = entryRendering;
+		for (CalendarEntryProvider<? extends CalendarEntry> cep : 
+				this.entryProviders) {
+			this.clearEntries(cep);
+		}
+		this.refreshAllEntries();
+		this.gridArea.repaint();
+	}
+	
+	/**
+	 * Finds the calendar entry shown at a point on this view. This works the same
+	 * way whether entries are components or are painted.
+	 * @param p The point, in the coordinates of this view
+	 * @return The topmost entry at that point, or <code>null</code> if there is
+	 * none.
+	 */
+	public CalendarEntry getEntryAt_rNull(Point p) {
+		for (Day day : this.dayPanels.values()) {
+			Point q = SwingUtilities.convertPoint(this, p, day.contentArea);
+			if (day.contentArea.contains(q)) return day.getEntryAt_rNull(q);
+		}
+		
+		return null;
+	}
+
+	/**
+	 * Finds the entries for the visible week in the provider's snapshot, sorts them
+	 * into days and works out their bounds, all on the layout thread. The entries
+	 * already shown stay up until the new layout is ready.
+	 */
+	@Override
+	public void refreshEntries(final CalendarEntryProvider<? extends CalendarEntry> cep) {
+		if (!this.eventComponents.containsKey(cep)) return;
+		
+		final Geometry geometry = this.captureGeometry();
+		final long[] dayStarts = new long[8];
+		GregorianCalendar date = new GregorianCalendar();
+		date.setTime(this.startOfVisibleRange.getTime());
+		for (int i = 0; i < dayStarts.length; i++) {
+			dayStarts[i] = date.getTimeInMillis();
+			date.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		final CalendarEntrySnapshot<? extends CalendarEntry> snapshot = 
+				cep.getSnapshot();
+		
+		this.startLayout(new LayoutWorker<List<Placement>>(cep) {
+			@Override
+			protected List<Placement> doInBackground() {
+				return layOut(snapshot.query(dayStarts[0], dayStarts[7] - 1), 
+						dayStarts, geometry);
+			}
+			@Override
+			protected void apply(List<Placement> layout) {
+				showPlacements(cep, layout);
+			}
+		});
 	}
 }
@@ -240,6 +240,22 @@ public class CalendarWidget extends JPanel {
 		}
 	}
 	
+	/**
+	 * Adds a calendar entry provider to all views of this calendar, and shows its
+	 * entries straight away, without rebuilding the entries of the providers
+	 * already shown. Use this to add providers one at a time as they become
+	 * available.
+	 * @param cep provider to add
+	 */
+	public void addAndShowCalendarEntryProvider(CalendarEntryProvider<?> cep) {
+		if (cep == null) return;
+		
+		for (CalendarView v : this.getAllViews()) {
+			v.addCalendarEntryProvider(cep);
+			v.refreshEntriesTimed(cep);
+		}
+	}
+	
 	/**
 	 * Removes a calendar entry provider from all views that it exists on.
 	 * @param cep provider to remove
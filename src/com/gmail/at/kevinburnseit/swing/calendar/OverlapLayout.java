@@ -0,0 +1,145 @@
+package com.gmail.at.kevinburnseit.swing.calendar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Arranges calendar entries which happen at the same time side by side, the way
+ * most calendar programs do. Each entry is given a column, and each group of
+ * entries which overlap one another (directly or through other entries in the
+ * group) shares a number of columns, so that no two overlapping entries are in the
+ * same column. An entry which ends at the moment another starts doesn't overlap it.
+ * <p>
+ * The entries are sorted once and then swept from the earliest to the latest, so
+ * arranging <i>n</i> entries takes O(<i>n</i> log <i>n</i>) time. This class
+ * doesn't depend on any graphical components; views turn the columns into bounds
+ * themselves. It works on copies of the entries' values rather than the entries,
+ * so it can be run on any thread.
+ * @author Kevin J. Burns
+ *
+ */
+public final class OverlapLayout {
+	/**
+	 * Where one calendar entry goes.
+	 * @author Kevin J. Burns
+	 *
+	 */
+	public static final class Slot {
+		private final CalendarEntryValue entry;
+		private int column;
+		private int columns;
+
+		private Slot(CalendarEntryValue entry) {
+			this.entry = entry;
+		}
+
+		/**
+		 * Gets the entry that this slot is for.
+		 * @return the entry
+		 */
+		public CalendarEntryValue getEntry() {
+			return this.entry;
+		}
+
+		/**
+		 * Gets the column that the entry goes in.
+		 * @return the column, in the range [0, {@link #getColumns()})
+		 */
+		public int getColumn() {
+			return this.column;
+		}
+
+		/**
+		 * Gets the number of columns shared by the entry and everything that
+		 * overlaps it.
+		 * @return the number of columns, at least 1
+		 */
+		public int getColumns() {
+			return this.columns;
+		}
+	}
+
+	private static final Comparator<Slot> byStart = new Comparator<Slot>() {
+		@Override
+		public int compare(Slot x, Slot y) {
+			int ret = Long.compare(x.entry.getStartMillis(), y.entry.getStartMillis());
+			if (ret != 0) return ret;
+			// longer entries first, so that they end up on the left
+			return Long.compare(y.entry.getEndMillis(), x.entry.getEndMillis());
+		}
+	};
+
+	private static final Comparator<Slot> byEnd = new Comparator<Slot>() {
+		@Override
+		public int compare(Slot x, Slot y) {
+			return Long.compare(x.entry.getEndMillis(), y.entry.getEndMillis());
+		}
+	};
+
+	private OverlapLayout() {
+		// static methods only
+	}
+
+	/**
+	 * Arranges a group of calendar entries.
+	 * @param entries The entries to arrange, in any order. Entries without both a
+	 * start and an end time are left out.
+	 * @return A slot for each entry, in order of start time.
+	 */
+	public static List<Slot> arrange(List<CalendarEntryValue> entries) {
+		ArrayList<Slot> ret = new ArrayList<>(entries.size());
+		for (CalendarEntryValue ce : entries) {
+			if (ce.hasTimes()) ret.add(new Slot(ce));
+		}
+		Collections.sort(ret, byStart);
+
+		// entries which haven't ended yet at the sweep line
+		PriorityQueue<Slot> active = new PriorityQueue<>(byEnd);
+		// columns given up by entries which have ended, lowest first
+		PriorityQueue<Integer> freeColumns = new PriorityQueue<>();
+		int columnsInUse = 0;
+		int groupStart = 0;
+
+		for (int i = 0; i < ret.size(); i++) {
+			Slot slot = ret.get(i);
+			long start = slot.entry.getStartMillis();
+
+			while (!active.isEmpty() &&
+					(active.peek().entry.getEndMillis() <= start)) {
+				freeColumns.add(active.poll().column);
+			}
+
+			if (active.isEmpty()) {
+				/*
+				 * Nothing from the group so far reaches this entry, so the group is
+				 * finished and its entries can be told how many columns it used.
+				 */
+				finishGroup(ret, groupStart, i, columnsInUse);
+				groupStart = i;
+				columnsInUse = 0;
+				freeColumns.clear();
+			}
+
+			Integer column = freeColumns.poll();
+			if (column == null) {
+				column = columnsInUse;
+				columnsInUse++;
+			}
+			slot.column = column;
+			active.add(slot);
+		}
+		finishGroup(ret, groupStart, ret.size(), columnsInUse);
+
+		return ret;
+	}
+
+	private static void finishGroup(ArrayList<Slot> slots, int from, int to,
+			int columns) {
+		for (int i = from; i < to; i++) {
+			slots.get(i).columns = columns;
+		}
+	}
+}
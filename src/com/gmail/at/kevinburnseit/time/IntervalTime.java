@@ -10,7 +10,7 @@ import com.gmail.at.kevinburnseit.records.RecordEditor;
 import com.gmail.at.kevinburnseit.util.RegexHelper;
 import com.gmail.at.kevinburnseit.xml.FileFormatException;
 import com.gmail.at.kevinburnseit.xml.XmlElementReader;
-import com.gmail.at.kevinburnseit.xml.XmlElementReader.AttributeValidator;
+import com.gmail.at.kevinburnseit.xml.XmlAttributeReader.AttributeValidator;
 import com.gmail.at.kevinburnseit.xml.XmlElementWriter;
 
 public class IntervalTime implements Record {
@@ -10,19 +10,27 @@ public class InvalidAttributeException extends FileFormatException {
 	private static final long serialVersionUID = -7403828803550465117L;
 
 	public InvalidAttributeException(Element e, String attr, String required) {
-		super(e, InvalidAttributeException.getNewMessage(e, attr, required));
+		this(FileFormatException.buildXpath(e), attr, required);
 	}
 
-	private static String getNewMessage(Element e, String attrName, String required) {
-		String msg = "Invalid attribute:";
-		int firstBlank = msg.indexOf("$1");
-		int secondBlank = msg.indexOf("$2");
-		int thirdBlank = msg.indexOf("$3");
+	/**
+	 * Constructor.
+	 * @param location Path to the element with the invalid attribute, as returned by
+	 * {@link XmlElementReader#getLocation()}
+	 * @param attr Name of the invalid attribute
+	 * @param required Description of the acceptable values, if there is one
+	 */
+	public InvalidAttributeException(String location, String attr, String required) {
+		super(InvalidAttributeException.getNewMessage(location, attr, required));
+	}
 
-		String newMsg = msg.substring(0, firstBlank) + FileFormatException.buildXpath(e) + 
-				msg.substring(firstBlank + 2, secondBlank) + "@" + attrName + 
-				msg.substring(secondBlank + 2, thirdBlank) + required;
+	private static String getNewMessage(String location, String attrName, 
+			String required) {
+		String msg = "Invalid attribute: " + location + "@" + attrName;
+		if (required != null) {
+			msg += " (required: " + required + ")";
+		}
 
-		return newMsg;
+		return msg;
 	}
-}
\ No newline at end of file
+}
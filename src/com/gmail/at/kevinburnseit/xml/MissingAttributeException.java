@@ -9,18 +9,16 @@ public class MissingAttributeException extends FileFormatException {
 	private static final long serialVersionUID = 7471365413454531659L;
 
 	public MissingAttributeException(Element e, String attrName) {
-		super(MissingAttributeException.getNewMessage(e, attrName));
+		this(FileFormatException.buildXpath(e), attrName);
 	}
 	
-	private static String getNewMessage(Element e, String attrName) {
-		String msg = "Required attribute was missing: ";
-		int firstBlank = msg.indexOf("$1");
-		int secondBlank = msg.indexOf("$2");
-		
-		String newMsg = msg.substring(0, firstBlank) + FileFormatException.buildXpath(e) + 
-				msg.substring(firstBlank + 2, secondBlank) + "@" + attrName + 
-				msg.substring(secondBlank + 2);
-
-		return newMsg;
+	/**
+	 * Constructor.
+	 * @param location Path to the element which is missing the attribute, as 
+	 * returned by {@link XmlElementReader#getLocation()}
+	 * @param attrName Name of the missing attribute
+	 */
+	public MissingAttributeException(String location, String attrName) {
+		super("Required attribute was missing: " + location + "@" + attrName);
 	}
 }
@@ -13,30 +13,36 @@ public class NumericParseException extends FileFormatException {
 		DOUBLE;
 	}
 	public NumericParseException(Element e, String attrName, NumericTypeEnum type) {
-		super(e, NumericParseException.getErrorMessage(e, attrName, type));
+		this(FileFormatException.buildXpath(e), attrName, type);
 	}
 
-	private static String getErrorMessage(Element e, String attrName, NumericTypeEnum type) {
+	/**
+	 * Constructor.
+	 * @param location Path to the element with the unparseable attribute, as
+	 * returned by {@link XmlElementReader#getLocation()}
+	 * @param attrName Name of the attribute
+	 * @param type The type of value that was expected, or <code>null</code> if the
+	 * value isn't a plain number (a date, for example).
+	 */
+	public NumericParseException(String location, String attrName, 
+			NumericTypeEnum type) {
+		super(NumericParseException.getErrorMessage(location, attrName, type));
+	}
+
+	private static String getErrorMessage(String location, String attrName, 
+			NumericTypeEnum type) {
 		String msg;
 		
-		switch(type) {
-		case INT:
-			msg = "Error parsing integer.";
-			break;
-		case DOUBLE:
-			msg = "Error parsing double.";
-			break;
-		default:
-			msg = "Error parsing value.";	
+		if (type == NumericTypeEnum.INT) {
+			msg = "Error parsing integer: ";
+		}
+		else if (type == NumericTypeEnum.DOUBLE) {
+			msg = "Error parsing double: ";
+		}
+		else {
+			msg = "Error parsing value: ";
 		}
-		
-		int firstBlank = msg.indexOf("$1");
-		int secondBlank = msg.indexOf("$2");
-
-		String newMsg = msg.substring(0, firstBlank) + FileFormatException.buildXpath(e) + 
-				msg.substring(firstBlank + 2, secondBlank) + "@" + attrName + 
-				msg.substring(secondBlank + 2);
 
-		return newMsg;
+		return msg + location + "@" + attrName;
 	}
 }
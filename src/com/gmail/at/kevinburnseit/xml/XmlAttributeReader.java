@@ -0,0 +1,274 @@
+package com.gmail.at.kevinburnseit.xml;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.gmail.at.kevinburnseit.util.RegexHelper;
+import com.gmail.at.kevinburnseit.xml.NumericParseException.NumericTypeEnum;
+
+/**
+ * Reads and validates the attributes of an xml element. The attributes may come
+ * from a DOM element ({@link XmlElementReader}) or from the element that a stream
+ * is positioned on ({@link XmlStreamElementReader}), so that files are validated
+ * the same way however they are read.
+ * @author Kevin J. Burns
+ *
+ */
+public abstract class XmlAttributeReader {
+	public static interface AttributeValidator<T> {
+		boolean validate(T value);
+		String getAcceptableRange();
+	}
+	
+	public static final AttributeValidator<String> listOfPositiveDoubleValidator = 
+			new AttributeValidator<String>() {
+		@Override
+		public boolean validate(String value) {
+			String[] values = value.split(",");
+			for (String v : values) {
+				try {
+					Double val = Double.valueOf(v);
+					if (!positiveRealValidator.validate(val)) return false;
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+			return true;
+		}
+		@Override
+		public String getAcceptableRange() {
+			return null;
+		}
+	};
+	public static final AttributeValidator<String> listOfPositiveIntegerValidator = 
+			new AttributeValidator<String>() {
+		@Override
+		public boolean validate(String value) {
+			String[] values = value.split(",");
+			for (String v : values) {
+				try {
+					int val = Integer.valueOf(v);
+					if (!positiveIntegerValidator.validate(val)) return false;
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+			return true;
+		}
+		@Override
+		public String getAcceptableRange() {
+			return null;
+		}
+	};
+	public static AttributeValidator<String> xmlTimeValidator = new AttributeValidator<String>() {
+		@Override
+		public boolean validate(String value) {
+			Pattern pt = Pattern.compile("^" + RegexHelper.xmlTime + "$");
+			Matcher m = pt.matcher(value);
+			return m.matches();
+		}
+		@Override
+		public String getAcceptableRange() {
+			return null;
+		}
+	};
+	public static final AttributeValidator<Double> positiveRealValidator = 
+			new AttributeValidator<Double>() {
+		@Override
+		public boolean validate(Double value) {
+			return (value > 0.);
+		}
+		@Override
+		public String getAcceptableRange() {
+			return ">0.0";
+		}
+	};
+	public static final AttributeValidator<Integer> nonNegativeIntegerValidator = 
+			new AttributeValidator<Integer>() {
+		@Override
+		public boolean validate(Integer value) {
+			return (value >= 0);
+		}
+		@Override
+		public String getAcceptableRange() {
+			return ">=0";
+		}
+	};
+	public static final AttributeValidator<String> nonEmptyStringValidator = 
+			new AttributeValidator<String>() {
+		@Override
+		public boolean validate(String value) {
+			return (value.trim().length() > 0);
+		}
+		@Override
+		public String getAcceptableRange() {
+			return "Only non-empty strings are allowed.";
+		}
+	};
+	public static final AttributeValidator<Double> nonNegativeRealValidator = 
+			new AttributeValidator<Double>() {
+		@Override
+		public boolean validate(Double value) {
+			return (value >= 0.);
+		}
+		@Override
+		public String getAcceptableRange() {
+			return ">=0";
+		}
+	};
+	public static final AttributeValidator<Integer> positiveIntegerValidator = 
+			new AttributeValidator<Integer>() {
+		@Override
+		public boolean validate(Integer value) {
+			return (value > 0);
+		}
+		@Override
+		public String getAcceptableRange() {
+			return ">0";
+		}
+	};
+	
+	/**
+	 * Returns whether the element being read has an attribute.
+	 * @param name Name of the attribute
+	 * @return <code>true</code> if the attribute exists; <code>false</code>
+	 * otherwise.
+	 */
+	protected abstract boolean hasAttribute(String name);
+	
+	/**
+	 * Gets the raw value of an attribute of the element being read.
+	 * @param name Name of the attribute
+	 * @return The value of the attribute
+	 */
+	protected abstract String getAttribute(String name);
+	
+	/**
+	 * Gets a path describing the element being read, for use in error messages.
+	 * @return Path to the element, in the form /root/child
+	 */
+	public abstract String getLocation();
+	
+	public String getRequiredStringAttribute(String name) throws FileFormatException {
+		return this.getRequiredStringAttribute(name, null);
+	}
+	
+	public String getRequiredStringAttribute(String name, AttributeValidator<String> v) throws FileFormatException {
+		if (this.hasAttribute(name)) return this.getOptionalStringAttribute(name, v, null);
+		else {
+			throw new MissingAttributeException(this.getLocation(), name);
+		}
+	}
+	
+	public String getOptionalStringAttribute(String name, String noValue) throws InvalidAttributeException {
+		return this.getOptionalStringAttribute(name, null, noValue);
+	}
+	
+	public String getOptionalStringAttribute(String name, AttributeValidator<String> v, String noValue) throws InvalidAttributeException {
+		if (!this.hasAttribute(name)) return noValue;
+		String value = this.getAttribute(name);
+		if (v != null) {
+			if (v.validate(value)) return value;
+			else throw new InvalidAttributeException(this.getLocation(), name, value);
+		}
+		else return value;
+	}
+	
+	public int getRequiredIntAttribute(String name) throws FileFormatException {
+		return this.getRequiredIntAttribute(name, null);
+	}
+
+	public int getRequiredIntAttribute(String name, AttributeValidator<Integer> v) throws FileFormatException {
+		if (this.hasAttribute(name)) return this.getOptionalIntAttribute(name, v, -1);
+		else throw new MissingAttributeException(this.getLocation(), name);
+	}
+	
+	public int getOptionalIntAttribute(String name, int noValue) throws FileFormatException {
+		int v = noValue;
+		try {
+			v = this.getOptionalIntAttribute(name, null, noValue);
+		} catch (InvalidAttributeException e1) {
+		}
+		return v;
+	}
+	public int getOptionalIntAttribute(String name, AttributeValidator<Integer> v, int noValue) 
+			throws FileFormatException {
+		if (!this.hasAttribute(name)) return noValue;
+		int value;
+		try {
+			value = Integer.valueOf(this.getAttribute(name));
+		} catch (NumberFormatException e1) {
+			throw new NumericParseException(this.getLocation(), name, NumericTypeEnum.INT);
+		}
+		if (v != null) {
+			if (v.validate(value)) return value;
+			else throw new InvalidAttributeException(this.getLocation(), name, v.getAcceptableRange());
+		}
+		else return value;
+	}
+
+	public double getRequiredDoubleAttribute(String name) throws FileFormatException {
+		return this.getRequiredDoubleAttribute(name, null);
+	}
+	
+	public double getRequiredDoubleAttribute(String name, AttributeValidator<Double> v) throws FileFormatException {
+		if (this.hasAttribute(name)) return this.getOptionalDoubleAttribute(name, v, Double.NaN);
+		else throw new MissingAttributeException(this.getLocation(), name);
+	}
+	
+	public double getOptionalDoubleAttribute(String name, double noValue) throws FileFormatException {
+		double value = noValue;
+		try {
+			value = this.getOptionalDoubleAttribute(name, null, noValue);
+		} catch (InvalidAttributeException e1) {
+			// this should never happen
+		}
+		return value;
+	}
+	
+	public double getOptionalDoubleAttribute(String name, AttributeValidator<Double> v, double noValue) 
+			throws FileFormatException {
+		if (!this.hasAttribute(name)) return noValue;
+		
+		double value;
+		try {
+			value = Double.valueOf(this.getAttribute(name));
+		} catch (NumberFormatException e1) {
+			throw new NumericParseException(this.getLocation(), name, NumericTypeEnum.DOUBLE);
+		}
+		if (v != null) {
+			if (v.validate(value)) return value;
+			else throw new InvalidAttributeException(this.getLocation(), name, v.getAcceptableRange());
+		}
+		else return value;
+	}
+	
+	public <T extends Enum<T>> T getRequiredEnumAttribute(String name, Class<T> enumType)
+			throws FileFormatException {
+		if (!this.hasAttribute(name)) throw new MissingAttributeException(this.getLocation(), name);
+		else return this.getOptionalEnumAttribute(name, enumType, null); 
+	}
+	
+	public <T extends Enum<T>> T getOptionalEnumAttribute(String name, Class<T> enumType, T noValue) 
+			throws InvalidAttributeException {
+		if (!this.hasAttribute(name)) return noValue;
+		T ret;
+		try {
+			ret = Enum.valueOf(enumType, this.getAttribute(name));
+		} catch (Exception e2) {
+			throw new InvalidAttributeException(this.getLocation(), name, null);
+		}
+		return ret;
+	}
+	
+	public boolean getRequiredBooleanAttribute(String name) throws MissingAttributeException {
+		if (!this.hasAttribute(name)) throw new MissingAttributeException(this.getLocation(), name);
+		return this.getOptionalBooleanAttribute(name, false);
+	}
+	
+	public boolean getOptionalBooleanAttribute(String name, boolean noValue) {
+		if (!this.hasAttribute(name)) return noValue;
+		boolean ret = Boolean.valueOf(this.getAttribute(name));
+		return ret;
+	}
+}
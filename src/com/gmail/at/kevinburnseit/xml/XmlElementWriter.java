@@ -14,6 +14,15 @@ public class XmlElementWriter {
 		this.e = writeTo;
 	}
 	
+	/**
+	 * Constructor for subclasses which write attributes somewhere other than a
+	 * DOM element. Such subclasses must override 
+	 * {@link #writeStringAttribute(String, String)}.
+	 */
+	protected XmlElementWriter() {
+		this.e = null;
+	}
+	
 	public void writeStringAttribute(String attrName, String value) {
 		this.e.setAttribute(attrName, value);
 	}
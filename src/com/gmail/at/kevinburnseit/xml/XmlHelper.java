@@ -1,11 +1,23 @@
 package com.gmail.at.kevinburnseit.xml;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
@@ -21,8 +33,21 @@ import org.w3c.dom.NodeList;
 import org.w3c.dom.CharacterData;
 import org.xml.sax.SAXException;
 
+import com.gmail.at.kevinburnseit.metrics.Metrics;
+
 public class XmlHelper {
+	private static final XMLInputFactory inputFactory = XmlHelper.newInputFactory();
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+	
+	private static XMLInputFactory newInputFactory() {
+		XMLInputFactory f = XMLInputFactory.newInstance();
+		f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return f;
+	}
+	
 	public static Document readFile(String path) throws Exception {
+		long start = System.nanoTime();
 		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
 		try {
 			DocumentBuilder db = dbf.newDocumentBuilder();
@@ -35,6 +60,8 @@ public class XmlHelper {
 			throw new Exception(e);
 		} catch (IOException e) {
 			throw new Exception(e);
+		} finally {
+			recordLoad(path, start);
 		}
 	}
 	public static void saveToXml(Element attachTo, String name, String value) {
@@ -55,12 +82,28 @@ public class XmlHelper {
 	}
 	
 	public static void saveFile(Document doc, String path) throws Exception {
+		long start = System.nanoTime();
+		try (OutputStream out = 
+				new BufferedOutputStream(new FileOutputStream(path))) {
+			XmlHelper.saveFile(doc, out);
+		} finally {
+			recordSave(path, start);
+		}
+	}
+	
+	/**
+	 * Writes a DOM as an xml document to a stream, which is left open.
+	 * @param doc The document
+	 * @param out The stream
+	 * @throws Exception if anything goes wrong
+	 */
+	public static void saveFile(Document doc, OutputStream out) throws Exception {
 		TransformerFactory transformerFactory = TransformerFactory.newInstance();
 		Transformer transformer;
 		try {
 			transformer = transformerFactory.newTransformer();
 			DOMSource source = new DOMSource(doc);
-			StreamResult result = new StreamResult(new File(path));
+			StreamResult result = new StreamResult(out);
 			
 			transformer.setOutputProperty(OutputKeys.INDENT, "yes");
 			transformer.setOutputProperty(OutputKeys.METHOD, "xml");
@@ -90,4 +133,111 @@ public class XmlHelper {
 		
 		return doc;
 	}
+	
+	/**
+	 * Reads an xml file as a stream, without building a DOM. Each element directly
+	 * beneath the document element which has the supplied tag name is passed to
+	 * the handler as it is read; all other elements are skipped.
+	 * @param path Location of the xml file
+	 * @param tagName Tag name of the elements of interest
+	 * @param handler Receives each element of interest
+	 * @throws Exception if the file can't be read, is not well-formed xml, or if
+	 * the handler rejects an element.
+	 */
+	public static void readFileAsStream(String path, String tagName, 
+			XmlStreamElementReader.ElementHandler handler) throws Exception {
+		long start = System.nanoTime();
+		try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+			XMLStreamReader stream = inputFactory.createXMLStreamReader(in);
+			try {
+				XmlHelper.readStream(stream, tagName, handler);
+			} finally {
+				stream.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new Exception(e);
+		} finally {
+			recordLoad(path, start);
+		}
+	}
+	
+	private static void readStream(XMLStreamReader stream, String tagName,
+			XmlStreamElementReader.ElementHandler handler) 
+					throws XMLStreamException, FileFormatException {
+		String rootPath = null;
+		int depth = 0;
+		while (stream.hasNext()) {
+			int event = stream.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+				continue;
+			}
+			if (event != XMLStreamConstants.START_ELEMENT) continue;
+			
+			depth++;
+			if (depth == 1) {
+				rootPath = "/" + stream.getLocalName();
+			}
+			else if ((depth == 2) && tagName.equals(stream.getLocalName())) {
+				handler.handleElement(new XmlStreamElementReader(
+						stream, rootPath + "/" + tagName));
+			}
+		}
+	}
+	
+	/**
+	 * Writes an xml file as a stream, without building a DOM.
+	 * @param path Location of the xml file
+	 * @param xmlTag Tag name of the document element
+	 * @param content Writes the elements beneath the document element
+	 * @throws Exception if anything goes wrong
+	 */
+	public static void saveFileAsStream(String path, String xmlTag, 
+			XmlStreamElementWriter.ContentWriter content) throws Exception {
+		long start = System.nanoTime();
+		try (OutputStream out = 
+				new BufferedOutputStream(new FileOutputStream(path))) {
+			XmlHelper.saveFileAsStream(out, xmlTag, content);
+		} finally {
+			recordSave(path, start);
+		}
+	}
+	
+	/**
+	 * Writes an xml document to a stream without building a DOM. The stream is
+	 * left open.
+	 * @param out The stream
+	 * @param xmlTag Tag name of the document element
+	 * @param content Writes the elements beneath the document element
+	 * @throws Exception if anything goes wrong
+	 */
+	public static void saveFileAsStream(OutputStream out, String xmlTag, 
+			XmlStreamElementWriter.ContentWriter content) throws Exception {
+		try {
+			XMLStreamWriter stream = outputFactory.createXMLStreamWriter(out, "UTF-8");
+			stream.writeStartDocument("UTF-8", "1.0");
+			stream.writeCharacters("\n");
+			stream.writeStartElement(xmlTag);
+			
+			content.writeContent(new XmlStreamElementWriter(stream));
+			
+			stream.writeCharacters("\n");
+			stream.writeEndElement();
+			stream.writeEndDocument();
+			stream.close();
+		} catch (XMLStreamException e) {
+			throw new Exception(e);
+		}
+	}
+	
+	/*
+	 * Files are told apart by name alone, as they all live in the data folder.
+	 */
+	private static void recordLoad(String path, long startNanos) {
+		Metrics.histogram("xml-load", new File(path).getName()).recordSince(startNanos);
+	}
+	
+	private static void recordSave(String path, long startNanos) {
+		Metrics.histogram("xml-save", new File(path).getName()).recordSince(startNanos);
+	}
 }
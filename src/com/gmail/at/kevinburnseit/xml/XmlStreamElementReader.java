@@ -0,0 +1,57 @@
+package com.gmail.at.kevinburnseit.xml;
+
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * An {@link XmlAttributeReader} which reads the attributes of the element that a
+ * StAX stream is currently positioned on, so that files can be validated the same
+ * way whether they are read into a DOM or streamed. A reader of this type is only
+ * valid until the stream moves on to the next element.
+ * @author Kevin J. Burns
+ *
+ * @see XmlHelper#readFileAsStream(String, String, ElementHandler)
+ */
+public class XmlStreamElementReader extends XmlAttributeReader {
+	/**
+	 * Receives the elements of a document as it is streamed.
+	 */
+	public static interface ElementHandler {
+		/**
+		 * Called once for each matching element in the document.
+		 * @param r Reader for the attributes of the element
+		 * @throws FileFormatException if the element is poorly structured
+		 */
+		void handleElement(XmlStreamElementReader r) throws FileFormatException;
+	}
+	
+	private XMLStreamReader stream;
+	private String location;
+	
+	XmlStreamElementReader(XMLStreamReader stream, String location) {
+		this.stream = stream;
+		this.location = location;
+	}
+
+	@Override
+	protected boolean hasAttribute(String name) {
+		return (this.stream.getAttributeValue(null, name) != null);
+	}
+
+	@Override
+	protected String getAttribute(String name) {
+		return this.stream.getAttributeValue(null, name);
+	}
+
+	@Override
+	public String getLocation() {
+		return this.location;
+	}
+
+	/**
+	 * Gets the tag name of the element being read.
+	 * @return the tag name
+	 */
+	public String getTagName() {
+		return this.stream.getLocalName();
+	}
+}
@@ -0,0 +1,57 @@
+package com.gmail.at.kevinburnseit.xml;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * An {@link XmlElementWriter} which writes directly to a StAX stream instead of
+ * building a DOM. Elements are written one after another beneath the document
+ * element; after {@link #writeEmptyElement(String)} is called, attributes are
+ * written to the new element until the next element is started.
+ * @author Kevin J. Burns
+ *
+ * @see XmlHelper#saveFileAsStream(String, String, ContentWriter)
+ */
+public class XmlStreamElementWriter extends XmlElementWriter {
+	/**
+	 * Writes the contents of a document to a stream.
+	 */
+	public static interface ContentWriter {
+		/**
+		 * Writes the elements beneath the document element.
+		 * @param w Writer for the document
+		 * @throws Exception if anything goes wrong
+		 */
+		void writeContent(XmlStreamElementWriter w) throws Exception;
+	}
+	
+	private XMLStreamWriter stream;
+	
+	XmlStreamElementWriter(XMLStreamWriter stream) {
+		this.stream = stream;
+	}
+	
+	/**
+	 * Starts a new element, with no children, beneath the document element.
+	 * @param tagName Tag name of the new element
+	 * @throws XMLStreamException if the stream can't be written to
+	 */
+	public void writeEmptyElement(String tagName) throws XMLStreamException {
+		this.stream.writeCharacters("\n\t");
+		this.stream.writeEmptyElement(tagName);
+	}
+
+	/**
+	 * Writes an attribute to the element most recently started.
+	 * @throws IllegalStateException if the stream can't be written to, or if no
+	 * element has been started.
+	 */
+	@Override
+	public void writeStringAttribute(String attrName, String value) {
+		try {
+			this.stream.writeAttribute(attrName, value);
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that {@link AppointmentJournal} and {@link AppointmentSnapshot} recover
+ * what was saved, and only that, after the application stops part way through
+ * writing.
+ * @author Kevin J. Burns
+ *
+ */
+public class AppointmentJournalTest {
+	private static final long hour = 3600000L;
+	private static final long start = 1772460000000L; // 2026-03-02 14:00 UTC
+	/*
+	 * The length of the base record that a journal starts with.
+	 */
+	private static final int baseRecordLength = 4 + 1 + 8 + 4;
+
+	private File folder;
+	private Path snapshot;
+	private Path journal;
+
+	@Before
+	public void setUp() throws IOException {
+		this.folder = Files.createTempDirectory("journal-test").toFile();
+		this.snapshot = new File(this.folder, "1.appointments").toPath();
+		this.journal = new File(this.folder, "1.journal").toPath();
+	}
+
+	@After
+	public void tearDown() {
+		for (File f : this.folder.listFiles()) {
+			f.delete();
+		}
+		this.folder.delete();
+	}
+
+	@Test
+	public void dropsTornRecord() throws Exception {
+		this.writeSnapshot(this.makeList(), 0);
+		AppointmentList al = this.open();
+		al.setIgnored(al.getByUid_rNull("a"), true);
+		al.getJournal_rNull().close();
+		long complete = Files.size(this.journal);
+		// the start of a record whose body never reached the disk
+		this.append(new byte[] {0, 0, 0, 40, 1, 2, 3});
+
+		AppointmentList replayed = this.open();
+
+		assertTrue(replayed.getByUid_rNull("a").isIgnored());
+		assertEquals(complete, Files.size(this.journal));
+		replayed.getJournal_rNull().close();
+	}
+
+	@Test
+	public void dropsRecordWithBadChecksum() throws Exception {
+		this.writeSnapshot(this.makeList(), 0);
+		AppointmentList al = this.open();
+		al.setTravelTimes(al.getByUid_rNull("a"), 600, 0);
+		al.getJournal_rNull().close();
+		long good = Files.size(this.journal);
+		al.setIgnored(al.getByUid_rNull("b"), true);
+		al.getJournal_rNull().close();
+		// change the last byte of the last record's body
+		byte[] bytes = Files.readAllBytes(this.journal);
+		bytes[bytes.length - 5] ^= 1;
+		Files.write(this.journal, bytes);
+
+		AppointmentList replayed = this.open();
+
+		assertEquals(600, replayed.getByUid_rNull("a").getTravelTimeBefore());
+		assertFalse(replayed.getByUid_rNull("b").isIgnored());
+		assertEquals(good, Files.size(this.journal));
+		replayed.getJournal_rNull().close();
+	}
+
+	@Test
+	public void discardsJournalFromEarlierGeneration() throws Exception {
+		AppointmentList original = this.makeList();
+		this.writeSnapshot(original, 1);
+		AppointmentList al = this.open();
+		al.removeAppointment(al.getByUid_rNull("a"));
+		al.getJournal_rNull().close();
+		/*
+		 * A compaction which stopped after writing the new snapshot, which has
+		 * the change, but before emptying the journal.
+		 */
+		AppointmentList compacted = this.makeList();
+		compacted.removeAppointment(compacted.getByUid_rNull("a"));
+		compacted.addAppointment(appointment("a", "Added again", start + 10 * hour));
+		this.writeSnapshot(compacted, 2);
+
+		AppointmentList replayed = this.open();
+
+		assertNotNull(replayed.getByUid_rNull("a"));
+		assertEquals("Added again", replayed.getByUid_rNull("a").getTitle());
+		assertEquals(0, Files.size(this.journal));
+		replayed.getJournal_rNull().close();
+	}
+
+	@Test
+	public void replaysJournalWithoutBaseOverFirstVersionSnapshot() throws Exception {
+		this.writeSnapshot(new AppointmentList(), 0);
+		AppointmentList al = this.open();
+		al.addAppointment(appointment("a", "Meeting", start));
+		al.getJournal_rNull().close();
+		// journals and snapshots from before generations were recorded
+		byte[] bytes = Files.readAllBytes(this.journal);
+		Files.write(this.journal, 
+				Arrays.copyOfRange(bytes, baseRecordLength, bytes.length));
+		Files.write(this.snapshot, emptyFirstVersionSnapshot());
+
+		AppointmentList replayed = this.open();
+
+		assertNotNull(replayed.getByUid_rNull("a"));
+		assertEquals("Meeting", replayed.getByUid_rNull("a").getTitle());
+		replayed.getJournal_rNull().close();
+	}
+
+	@Test
+	public void snapshotRoundTrip() throws Exception {
+		AppointmentList al = this.makeList();
+		Appointment weekly = appointment("weekly", "Standup", start);
+		weekly.setTravelTimeAfter(900);
+		weekly.setPrepTime(300);
+		weekly.setRecurrence(new Recurrence("FREQ=WEEKLY;COUNT=5", 
+				"20260302T140000Z", new long[] {start + 14 * 24 * hour}));
+		al.addAppointment(weekly);
+		al.setIgnored(al.getByUid_rNull("b"), true);
+
+		this.writeSnapshot(al, 0);
+		AppointmentList read = AppointmentList.fromSnapshot(this.snapshot.toString());
+
+		assertEquals(al.size(), read.size());
+		assertTrue(read.getByUid_rNull("b").isIgnored());
+		assertFalse(read.getByUid_rNull("a").isIgnored());
+		Appointment back = read.getByUid_rNull("weekly");
+		assertEquals("Standup", back.getTitle());
+		assertEquals(start, back.getStartMillis());
+		assertEquals(start + hour, back.getEndMillis());
+		assertEquals(900, back.getTravelTimeAfter());
+		assertEquals(300, back.getPrepTime());
+		Recurrence r = back.getRecurrence_rNull();
+		assertNotNull(r);
+		assertEquals("FREQ=WEEKLY;COUNT=5", r.getRuleString());
+		assertEquals("20260302T140000Z", r.getSeedString());
+		assertArrayEquals(new long[] {start + 14 * 24 * hour}, r.getExcluded());
+		assertNull(read.getByUid_rNull("a").getRecurrence_rNull());
+	}
+
+	@Test
+	public void readLeavesJournalAlone() throws Exception {
+		this.writeSnapshot(this.makeList(), 0);
+		AppointmentList al = this.open();
+		al.setIgnored(al.getByUid_rNull("a"), true);
+		al.getJournal_rNull().close();
+		this.append(new byte[] {0, 0, 0, 40, 1});
+		byte[] before = Files.readAllBytes(this.journal);
+
+		AppointmentList read = AppointmentList.fromSnapshot(this.snapshot.toString());
+		AppointmentJournal.read(this.journal.toString(), this.snapshot.toString(), 
+				read);
+
+		assertTrue(read.getByUid_rNull("a").isIgnored());
+		assertArrayEquals(before, Files.readAllBytes(this.journal));
+	}
+
+	private AppointmentList makeList() {
+		AppointmentList ret = new AppointmentList();
+		ret.addAppointment(appointment("a", "First", start));
+		ret.addAppointment(appointment("b", "Second", start + 2 * hour));
+		return ret;
+	}
+
+	private static Appointment appointment(String uid, String title, long at) {
+		Appointment ret = new Appointment(uid);
+		ret.setTitle(title);
+		ret.setTimes(at, at + hour);
+		return ret;
+	}
+
+	private void writeSnapshot(AppointmentList al, long generation) 
+			throws IOException {
+		PersistenceService.writeAtomically(this.snapshot, 
+				AppointmentSnapshot.encode(al, generation));
+	}
+
+	/*
+	 * Reads the list the way the organizer does, replaying the journal.
+	 */
+	private AppointmentList open() throws IOException {
+		AppointmentList ret = AppointmentList.fromSnapshot(this.snapshot.toString());
+		AppointmentJournal j = new AppointmentJournal(this.journal.toString(), 
+				this.snapshot.toString());
+		j.replay(ret);
+		ret.setJournal(j);
+		return ret;
+	}
+
+	private void append(byte[] bytes) throws IOException {
+		byte[] old = Files.readAllBytes(this.journal);
+		byte[] joined = Arrays.copyOf(old, old.length + bytes.length);
+		System.arraycopy(bytes, 0, joined, old.length, bytes.length);
+		Files.write(this.journal, joined);
+	}
+
+	/*
+	 * The first version of the format had no generation in its header.
+	 */
+	private static byte[] emptyFirstVersionSnapshot() {
+		ByteBuffer ret = ByteBuffer.allocate(28);
+		ret.putInt(0x5443414C);
+		ret.putInt(1);
+		ret.putInt(0); // records
+		ret.putInt(0); // excluded dates
+		ret.putInt(0); // strings
+		ret.putInt(0); // string bytes
+		ret.putInt(0); // end of the string pool
+		return ret.array();
+	}
+}
@@ -0,0 +1,315 @@
+package com.gmail.at.kevinburnseit.organizer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gmail.at.kevinburnseit.organizer.DownloadResult.StatusEnum;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests {@link RemoteCalendarDownloader} against a local http server standing in
+ * for the calendar hosts.
+ * @author Kevin J. Burns
+ *
+ */
+public class RemoteCalendarDownloaderTest {
+	private static final byte[] calendar = ("BEGIN:VCALENDAR\r\n" +
+			"VERSION:2.0\r\n" +
+			"PRODID:-//task-calendar//test//EN\r\n" +
+			"END:VCALENDAR\r\n").getBytes(StandardCharsets.UTF_8);
+	/*
+	 * How long any single test may wait on a download. Longer than the read timeout
+	 * used by ExternalCalendarDefinition.
+	 */
+	private static final long waitSeconds = 30;
+
+	private HttpServer server;
+	private ExecutorService serverThreads;
+	private File folder;
+	private RemoteCalendarDownloader downloader;
+	/*
+	 * Released when the test ends, so that handlers which stall can finish.
+	 */
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws IOException {
+		this.server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		this.serverThreads = Executors.newCachedThreadPool();
+		this.server.setExecutor(this.serverThreads);
+		this.server.start();
+		this.folder = Files.createTempDirectory("downloader-test").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		this.release.countDown();
+		if (this.downloader != null) this.downloader.shutdown();
+		this.server.stop(0);
+		this.serverThreads.shutdownNow();
+		for (File f : this.folder.listFiles()) {
+			f.delete();
+		}
+		this.folder.delete();
+	}
+
+	@Test
+	public void downloadsCalendar() throws Exception {
+		this.serve("/plain", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				ex.getResponseHeaders().set("ETag", "\"v1\"");
+				send(ex, 200, calendar, false);
+			}
+		});
+		this.downloader = new RemoteCalendarDownloader(2, 2);
+		FeedCache cache = new FeedCache();
+		this.downloader.setFeedCache(cache);
+		ExternalCalendarDefinition def = this.definition("/plain");
+
+		DownloadResult result = this.await(
+				this.downloader.download(def, this.folder.getPath(), null));
+
+		assertEquals(StatusEnum.DOWNLOADED, result.getStatus());
+		assertEquals("\"v1\"", result.getEtag_rNull());
+		// the validators are left for the caller to record once it has merged
+		URLConnection conn = new URL(def.getUrl()).openConnection();
+		cache.addConditionalHeaders(def.getUid(), conn);
+		assertNull(conn.getRequestProperty("If-None-Match"));
+		assertArrayEquals(calendar, 
+				Files.readAllBytes(new File(result.getPath()).toPath()));
+	}
+
+	@Test
+	public void decompressesGzippedCalendar() throws Exception {
+		this.serve("/gzip", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				String accepted = ex.getRequestHeaders().getFirst("Accept-Encoding");
+				send(ex, 200, calendar, 
+						(accepted != null) && accepted.contains("gzip"));
+			}
+		});
+		this.downloader = new RemoteCalendarDownloader(2, 2);
+
+		DownloadResult result = this.await(this.downloader.download(
+				this.definition("/gzip"), this.folder.getPath(), null));
+
+		assertEquals(StatusEnum.DOWNLOADED, result.getStatus());
+		assertArrayEquals(calendar, 
+				Files.readAllBytes(new File(result.getPath()).toPath()));
+	}
+
+	@Test
+	public void reportsServerError() throws Exception {
+		this.serve("/error", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				send(ex, 500, "broken".getBytes(StandardCharsets.UTF_8), false);
+			}
+		});
+		this.downloader = new RemoteCalendarDownloader(2, 2);
+		ExternalCalendarDefinition def = this.definition("/error");
+
+		DownloadResult result = this.await(
+				this.downloader.download(def, this.folder.getPath(), null));
+
+		assertEquals(StatusEnum.FAILED, result.getStatus());
+		assertEquals(0, this.folder.listFiles().length);
+	}
+
+	@Test
+	public void timesOutStalledServer() throws Exception {
+		this.serve("/stall", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					// finish up
+				}
+				send(ex, 200, calendar, false);
+			}
+		});
+		this.downloader = new RemoteCalendarDownloader(2, 2);
+
+		DownloadResult result = this.await(this.downloader.download(
+				this.definition("/stall"), this.folder.getPath(), null));
+
+		assertEquals(StatusEnum.FAILED, result.getStatus());
+	}
+
+	@Test
+	public void limitsDownloadsPerHost() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger mostRunning = new AtomicInteger();
+		this.serve("/slow", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				int now = running.incrementAndGet();
+				synchronized (mostRunning) {
+					if (now > mostRunning.get()) mostRunning.set(now);
+				}
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// finish up
+				}
+				running.decrementAndGet();
+				send(ex, 200, calendar, false);
+			}
+		});
+		this.downloader = new RemoteCalendarDownloader(6, 2);
+
+		ArrayList<CompletableFuture<DownloadResult>> futures = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			futures.add(this.downloader.download(
+					this.definition("/slow?n=" + i), this.folder.getPath(), null));
+		}
+		for (CompletableFuture<DownloadResult> f : futures) {
+			assertEquals(StatusEnum.DOWNLOADED, this.await(f).getStatus());
+		}
+
+		assertTrue("at most 2 at once, saw " + mostRunning.get(),
+				mostRunning.get() <= 2);
+	}
+
+	@Test
+	public void completesWhenListenerThrows() throws Exception {
+		this.serve("/plain", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				send(ex, 200, calendar, false);
+			}
+		});
+		this.downloader = new RemoteCalendarDownloader(2, 2);
+		RemoteCalendarDownloader.DownloadListener listener =
+				new RemoteCalendarDownloader.DownloadListener() {
+			@Override
+			public void downloadStarted(ExternalCalendarDefinition def) {
+				// does nothing
+			}
+
+			@Override
+			public void downloadProgressed(ExternalCalendarDefinition def,
+					long bytesRead, long totalBytes) {
+				// does nothing
+			}
+
+			@Override
+			public void downloadFinished(ExternalCalendarDefinition def,
+					DownloadResult result) {
+				throw new IllegalStateException("listener failed");
+			}
+		};
+
+		CompletableFuture<DownloadResult> f = this.downloader.download(
+				this.definition("/plain"), this.folder.getPath(), listener);
+
+		try {
+			f.get(waitSeconds, TimeUnit.SECONDS);
+			fail("the listener's exception was swallowed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void cancelsQueuedDownloadsOnShutdown() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		this.serve("/stall", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					// finish up
+				}
+				send(ex, 200, calendar, false);
+			}
+		});
+		this.downloader = new RemoteCalendarDownloader(1, 1);
+
+		CompletableFuture<DownloadResult> first = this.downloader.download(
+				this.definition("/stall?n=1"), this.folder.getPath(), null);
+		CompletableFuture<DownloadResult> queued = this.downloader.download(
+				this.definition("/stall?n=2"), this.folder.getPath(), null);
+		assertTrue(started.await(waitSeconds, TimeUnit.SECONDS));
+		this.downloader.shutdown();
+		CompletableFuture<DownloadResult> late = this.downloader.download(
+				this.definition("/stall?n=3"), this.folder.getPath(), null);
+
+		assertTrue(queued.isCancelled());
+		assertTrue(late.isCancelled());
+		this.release.countDown();
+		try {
+			this.await(first);
+		} catch (CancellationException e) {
+			fail("the running download was cancelled");
+		}
+	}
+
+	private void serve(String path, HttpHandler handler) {
+		this.server.createContext(path, handler);
+	}
+
+	private ExternalCalendarDefinition definition(String path) {
+		ExternalCalendarDefinition ret = new ExternalCalendarDefinition();
+		ret.setName(path);
+		ret.setUrl("http://127.0.0.1:" + this.server.getAddress().getPort() + path);
+		return ret;
+	}
+
+	private DownloadResult await(CompletableFuture<DownloadResult> f)
+			throws Exception {
+		return f.get(waitSeconds, TimeUnit.SECONDS);
+	}
+
+	private static void send(HttpExchange ex, int status, byte[] body,
+			boolean gzip) throws IOException {
+		if (gzip) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+				out.write(body);
+			}
+			body = compressed.toByteArray();
+			ex.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		ex.sendResponseHeaders(status, body.length);
+		try (OutputStream out = ex.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.gmail.at.kevinburnseit.swing.calendar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link OverlapLayout}, which needs nothing but the values of the entries.
+ * @author Kevin J. Burns
+ *
+ */
+public class OverlapLayoutTest {
+	@Test
+	public void entriesWhichTouchShareAColumn() {
+		CalendarEntryValue first = value(0, 10);
+		CalendarEntryValue second = value(10, 20);
+
+		List<OverlapLayout.Slot> slots = OverlapLayout.arrange(
+				Arrays.asList(second, first));
+
+		assertEquals(2, slots.size());
+		assertSame(first, slots.get(0).getEntry());
+		for (OverlapLayout.Slot slot : slots) {
+			assertEquals(0, slot.getColumn());
+			assertEquals(1, slot.getColumns());
+		}
+	}
+
+	@Test
+	public void overlapGroupSharesColumnCount() {
+		// the first and last don't overlap, but are joined through the middle one
+		List<OverlapLayout.Slot> slots = OverlapLayout.arrange(Arrays.asList(
+				value(0, 10), value(5, 15), value(12, 20), value(30, 40)));
+
+		assertEquals(0, slots.get(0).getColumn());
+		assertEquals(1, slots.get(1).getColumn());
+		assertEquals(0, slots.get(2).getColumn());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(2, slots.get(i).getColumns());
+		}
+		assertEquals(0, slots.get(3).getColumn());
+		assertEquals(1, slots.get(3).getColumns());
+	}
+
+	@Test
+	public void freedColumnsAreReusedLowestFirst() {
+		List<OverlapLayout.Slot> slots = OverlapLayout.arrange(Arrays.asList(
+				value(0, 30), value(1, 10), value(2, 10), value(11, 20)));
+
+		assertEquals(0, slots.get(0).getColumn());
+		assertEquals(1, slots.get(1).getColumn());
+		assertEquals(2, slots.get(2).getColumn());
+		assertEquals(1, slots.get(3).getColumn());
+		for (OverlapLayout.Slot slot : slots) {
+			assertEquals(3, slot.getColumns());
+		}
+	}
+
+	@Test
+	public void longerEntryGoesFirstOnEqualStarts() {
+		CalendarEntryValue shorter = value(0, 10);
+		CalendarEntryValue longer = value(0, 20);
+
+		List<OverlapLayout.Slot> slots = OverlapLayout.arrange(
+				Arrays.asList(shorter, longer));
+
+		assertSame(longer, slots.get(0).getEntry());
+		assertEquals(0, slots.get(0).getColumn());
+		assertSame(shorter, slots.get(1).getEntry());
+		assertEquals(1, slots.get(1).getColumn());
+	}
+
+	@Test
+	public void entriesWithoutTimesAreDropped() {
+		CalendarEntryValue timed = value(0, 10);
+
+		List<OverlapLayout.Slot> slots = OverlapLayout.arrange(Arrays.asList(
+				value(CalendarEntry.NO_TIME, 10), timed,
+				value(0, CalendarEntry.NO_TIME)));
+
+		assertEquals(1, slots.size());
+		assertSame(timed, slots.get(0).getEntry());
+	}
+
+	private static CalendarEntryValue value(long start, long end) {
+		return new CalendarEntryValue(null, start, end, "entry");
+	}
+}